@@ -8,13 +8,13 @@ package com.philips.research.licensescanner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
-import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Main application entry point.
  */
 @SpringBootApplication
-@EnableAsync
+@EnableScheduling
 @EnableConfigurationProperties(ApplicationConfiguration.class)
 public class Application {
     public static void main(String[] args) {
@@ -11,6 +11,7 @@ import org.springframework.validation.annotation.Validated;
 import javax.validation.ValidationException;
 import javax.validation.constraints.NotNull;
 import java.io.File;
+import java.net.URI;
 import java.nio.file.Path;
 
 /**
@@ -25,6 +26,26 @@ public class ApplicationConfiguration {
     private Path tempDir;
     private int thresholdPercent = 50;
     private int cacheSize = 20;
+    private long cacheQuota = 10240;
+    private int cacheLowWatermark = 80;
+    private long mirrorQuota = 2048;
+    private long downloadReserve = 512;
+    private int downloadThreads = 8;
+    private int detectionThreads = Runtime.getRuntime().availableProcessors();
+    private int persistenceThreads = 2;
+    private int prefetchJobs = 4;
+    private int maxScanProcesses = 4;
+    private long scanProcessMemory = 512;
+    private boolean scanWholeRepository;
+    private boolean registryFallback;
+    private int hedgeDelay = 10;
+    private int notFoundTtl = 60;
+    private int timeoutTtl = 10;
+    private int authenticationTtl = 60;
+    private URI npmRegistry = URI.create("https://registry.npmjs.org");
+    private URI pypiRegistry = URI.create("https://files.pythonhosted.org/packages/source");
+    private URI mavenRegistry = URI.create("https://repo1.maven.org/maven2");
+    private URI cargoRegistry = URI.create("https://static.crates.io/crates");
 
     /**
      * @return The common working directory.
@@ -59,6 +80,66 @@ public class ApplicationConfiguration {
         return this;
     }
 
+    /**
+     * @return maximum disk space in MB used by the source download cache
+     */
+    public long getCacheQuota() {
+        return cacheQuota;
+    }
+
+    /**
+     * Configures the disk space (in MB) available to the source download cache.
+     */
+    public ApplicationConfiguration setCacheQuota(long cacheQuota) {
+        this.cacheQuota = Math.max(1, cacheQuota);
+        return this;
+    }
+
+    /**
+     * @return percentage of the cache quota the cache is reduced to when it exceeds its quota
+     */
+    public int getCacheLowWatermark() {
+        return cacheLowWatermark;
+    }
+
+    /**
+     * Configures the percentage of the cache quota that is kept after eviction.
+     */
+    public ApplicationConfiguration setCacheLowWatermark(int cacheLowWatermark) {
+        this.cacheLowWatermark = Math.min(Math.max(0, cacheLowWatermark), 100);
+        return this;
+    }
+
+    /**
+     * @return disk space in MB that is reserved in the cache for a download in progress
+     */
+    public long getDownloadReserve() {
+        return downloadReserve;
+    }
+
+    /**
+     * Configures the estimated disk space (in MB) of a download, which is reserved until its actual size is known.
+     */
+    public ApplicationConfiguration setDownloadReserve(long downloadReserve) {
+        this.downloadReserve = Math.max(0, downloadReserve);
+        return this;
+    }
+
+    /**
+     * @return disk space in MB of the cache quota that is used by git mirrors, which is at most half of the quota
+     */
+    public long getMirrorQuota() {
+        return Math.min(mirrorQuota, cacheQuota / 2);
+    }
+
+    /**
+     * Configures the part of the cache quota (in MB) that is used by git mirrors.
+     */
+    public ApplicationConfiguration setMirrorQuota(long mirrorQuota) {
+        this.mirrorQuota = Math.max(0, mirrorQuota);
+        return this;
+    }
+
     /**
      * @return license probability threshold as a percentage.
      */
@@ -75,4 +156,230 @@ public class ApplicationConfiguration {
         this.thresholdPercent = Math.min(Math.max(0, thresholdPercent), 100);
         return this;
     }
+
+    /**
+     * @return number of parallel downloads
+     */
+    public int getDownloadThreads() {
+        return downloadThreads;
+    }
+
+    /**
+     * Configures the number of threads downloading package sources.
+     */
+    public ApplicationConfiguration setDownloadThreads(int downloadThreads) {
+        this.downloadThreads = Math.max(1, downloadThreads);
+        return this;
+    }
+
+    /**
+     * @return number of parallel license detections
+     */
+    public int getDetectionThreads() {
+        return detectionThreads;
+    }
+
+    /**
+     * Configures the number of threads detecting licenses in downloaded sources.
+     */
+    public ApplicationConfiguration setDetectionThreads(int detectionThreads) {
+        this.detectionThreads = Math.max(1, detectionThreads);
+        return this;
+    }
+
+    /**
+     * @return number of parallel writes of scan results
+     */
+    public int getPersistenceThreads() {
+        return persistenceThreads;
+    }
+
+    /**
+     * Configures the number of threads persisting scan results.
+     */
+    public ApplicationConfiguration setPersistenceThreads(int persistenceThreads) {
+        this.persistenceThreads = Math.max(1, persistenceThreads);
+        return this;
+    }
+
+    /**
+     * @return number of queued jobs for which the sources are downloaded ahead of scanning
+     */
+    public int getPrefetchJobs() {
+        return prefetchJobs;
+    }
+
+    /**
+     * Configures the number of queued jobs for which the sources are downloaded ahead, or 0 to disable prefetching.
+     */
+    public ApplicationConfiguration setPrefetchJobs(int prefetchJobs) {
+        this.prefetchJobs = Math.max(0, prefetchJobs);
+        return this;
+    }
+
+    /**
+     * @return maximum number of detection processes granted to a single scan
+     */
+    public int getMaxScanProcesses() {
+        return maxScanProcesses;
+    }
+
+    /**
+     * Configures the maximum number of detection processes for a single scan.
+     */
+    public ApplicationConfiguration setMaxScanProcesses(int maxScanProcesses) {
+        this.maxScanProcesses = Math.max(1, maxScanProcesses);
+        return this;
+    }
+
+    /**
+     * @return expected memory use of a single detection process in MB
+     */
+    public long getScanProcessMemory() {
+        return scanProcessMemory;
+    }
+
+    /**
+     * Configures the memory (in MB) reserved for every detection process.
+     */
+    public ApplicationConfiguration setScanProcessMemory(long scanProcessMemory) {
+        this.scanProcessMemory = Math.max(1, scanProcessMemory);
+        return this;
+    }
+
+    /**
+     * @return true if the complete sources are scanned once for all packages at sub-paths of the same location
+     */
+    public boolean isScanWholeRepository() {
+        return scanWholeRepository;
+    }
+
+    /**
+     * Configures scanning of complete sources, and slicing the results for the sub-path of each package.
+     */
+    public ApplicationConfiguration setScanWholeRepository(boolean scanWholeRepository) {
+        this.scanWholeRepository = scanWholeRepository;
+        return this;
+    }
+
+    /**
+     * @return true if the published archive of a package is downloaded if no (working) location is provided
+     * (which is disabled by default, because the scanned sources then depend on download timing)
+     */
+    public boolean isRegistryFallback() {
+        return registryFallback;
+    }
+
+    public ApplicationConfiguration setRegistryFallback(boolean registryFallback) {
+        this.registryFallback = registryFallback;
+        return this;
+    }
+
+    /**
+     * @return delay in seconds before downloading from the registry in parallel to a slow download from the location
+     */
+    public int getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * Configures the delay (in seconds) before a parallel download from the registry is started.
+     */
+    public ApplicationConfiguration setHedgeDelay(int hedgeDelay) {
+        this.hedgeDelay = Math.max(0, hedgeDelay);
+        return this;
+    }
+
+    /**
+     * @return minutes a download that failed because the location or version does not exist is not retried
+     */
+    public int getNotFoundTtl() {
+        return notFoundTtl;
+    }
+
+    /**
+     * Configures the minutes a missing location or version is remembered, or 0 to always retry.
+     */
+    public ApplicationConfiguration setNotFoundTtl(int notFoundTtl) {
+        this.notFoundTtl = Math.max(0, notFoundTtl);
+        return this;
+    }
+
+    /**
+     * @return minutes a download that timed out is not retried
+     */
+    public int getTimeoutTtl() {
+        return timeoutTtl;
+    }
+
+    /**
+     * Configures the minutes a download timeout is remembered, or 0 to always retry.
+     */
+    public ApplicationConfiguration setTimeoutTtl(int timeoutTtl) {
+        this.timeoutTtl = Math.max(0, timeoutTtl);
+        return this;
+    }
+
+    /**
+     * @return minutes a download that was refused for lack of credentials is not retried
+     */
+    public int getAuthenticationTtl() {
+        return authenticationTtl;
+    }
+
+    /**
+     * Configures the minutes a refused download is remembered, or 0 to always retry.
+     */
+    public ApplicationConfiguration setAuthenticationTtl(int authenticationTtl) {
+        this.authenticationTtl = Math.max(0, authenticationTtl);
+        return this;
+    }
+
+    /**
+     * @return base URL of the NPM registry
+     */
+    public URI getNpmRegistry() {
+        return npmRegistry;
+    }
+
+    public ApplicationConfiguration setNpmRegistry(URI npmRegistry) {
+        this.npmRegistry = npmRegistry;
+        return this;
+    }
+
+    /**
+     * @return base URL of the PyPI source distributions
+     */
+    public URI getPypiRegistry() {
+        return pypiRegistry;
+    }
+
+    public ApplicationConfiguration setPypiRegistry(URI pypiRegistry) {
+        this.pypiRegistry = pypiRegistry;
+        return this;
+    }
+
+    /**
+     * @return base URL of the Maven repository
+     */
+    public URI getMavenRegistry() {
+        return mavenRegistry;
+    }
+
+    public ApplicationConfiguration setMavenRegistry(URI mavenRegistry) {
+        this.mavenRegistry = mavenRegistry;
+        return this;
+    }
+
+    /**
+     * @return base URL of the Cargo crate downloads
+     */
+    public URI getCargoRegistry() {
+        return cargoRegistry;
+    }
+
+    public ApplicationConfiguration setCargoRegistry(URI cargoRegistry) {
+        this.cargoRegistry = cargoRegistry;
+        return this;
+    }
 }
@@ -6,6 +6,7 @@
 package com.philips.research.licensescanner.controller;
 
 import com.philips.research.licensescanner.core.LicenseService;
+import com.philips.research.licensescanner.core.LicenseService.Priority;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
@@ -40,7 +41,7 @@ public class PackageRoute extends AbstractRoute {
 
     /**
      * Requests licenses for the indicated packages. If the package was scanned before, the result is returned. Else the
-     * package is scheduled for scanning.
+     * package is scheduled for scanning with the (optional) priority class from the request.
      *
      * @param body  details where to obtain the package source for scanning
      * @param force forces re-scanning despite an existing scan result
@@ -57,7 +58,8 @@ public class PackageRoute extends AbstractRoute {
                 return new ScanInfoJson(scan.get());
             }
         }
-        service.scanLicense(body.purl, body.location);
+        service.scanLicense(body.purl, body.location, body.checksum,
+                (body.priority != null) ? body.priority : Priority.NORMAL);
 
         return new ScanInfoJson(body.purl, body.location);
     }
@@ -25,6 +25,8 @@ class ScanInfoJson {
     @JsonFormat(shape = JsonFormat.Shape.STRING)
     @NullOr Instant timestamp;
     @NullOr URI location;
+    @NullOr URI source;
+    @NullOr String revision;
     @NullOr String license;
     @NullOr String error;
     @NullOr List<DetectionInfoJson> detections;
@@ -40,6 +42,8 @@ class ScanInfoJson {
     public ScanInfoJson(LicenseService.ScanDto info) {
         this(info.purl, info.location);
         timestamp = info.timestamp;
+        source = info.source;
+        revision = info.revision;
         license = info.license;
         error = info.error;
         contesting = info.contesting;
@@ -5,13 +5,18 @@
 
 package com.philips.research.licensescanner.controller;
 
+import com.philips.research.licensescanner.core.LicenseService.Priority;
 import pl.tlinkowski.annotation.basic.NullOr;
 
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
 import java.net.URI;
 
 class ScanRequestJson {
     @NotNull
     URI purl;
     @NullOr URI location;
+    @Pattern(regexp = "(?i)(sha256:)?[0-9a-f]{64}")
+    @NullOr String checksum;
+    @NullOr Priority priority;
 }
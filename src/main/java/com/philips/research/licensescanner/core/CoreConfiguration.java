@@ -5,24 +5,73 @@
 
 package com.philips.research.licensescanner.core;
 
+import com.philips.research.licensescanner.ApplicationConfiguration;
+import com.philips.research.licensescanner.core.domain.ScanPipeline;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
-import java.util.concurrent.Executor;
-
 @Configuration
 public class CoreConfiguration {
-    private static final int SCAN_PROCESSES = 3;
+    private final ApplicationConfiguration configuration;
+
+    public CoreConfiguration(ApplicationConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * @return task executor for downloading package sources
+     */
+    @Bean(name = "downloadExecutor")
+    public ThreadPoolTaskExecutor downloadExecutor() {
+        return stageExecutor("download-", configuration.getDownloadThreads());
+    }
 
     /**
-     * @return task scheduler implementation for scanning copyright information for packages
+     * @return task executor for downloading the package sources of queued jobs ahead of scanning
      */
-    @Bean(name = "licenseDetectionExecutor")
-    public Executor threadPoolTaskExecutor() {
+    @Bean(name = "prefetchExecutor")
+    public ThreadPoolTaskExecutor prefetchExecutor() {
+        return executor("prefetch-", Math.max(1, configuration.getPrefetchJobs()), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return task executor for detecting licenses in package sources
+     */
+    @Bean(name = "detectionExecutor")
+    public ThreadPoolTaskExecutor detectionExecutor() {
+        return stageExecutor("detection-", configuration.getDetectionThreads());
+    }
+
+    /**
+     * @return task executor for persisting scan results
+     */
+    @Bean(name = "persistenceExecutor")
+    public ThreadPoolTaskExecutor persistenceExecutor() {
+        return stageExecutor("persistence-", configuration.getPersistenceThreads());
+    }
+
+    /**
+     * @return task executor for claiming queued jobs after running jobs completed
+     */
+    @Bean(name = "schedulerExecutor")
+    public ThreadPoolTaskExecutor schedulerExecutor() {
+        return executor("scheduler-", 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a pipeline stage that can queue a task for every job the pipeline admits.
+     */
+    private ThreadPoolTaskExecutor stageExecutor(String prefix, int threads) {
+        return executor(prefix, threads, ScanPipeline.capacity(configuration));
+    }
+
+    private ThreadPoolTaskExecutor executor(String prefix, int threads, int capacity) {
         final var executor = new ThreadPoolTaskExecutor();
-        executor.setMaxPoolSize(SCAN_PROCESSES);
-        executor.setCorePoolSize(SCAN_PROCESSES);
+        executor.setThreadNamePrefix(prefix);
+        executor.setMaxPoolSize(threads);
+        executor.setCorePoolSize(threads);
+        executor.setQueueCapacity(capacity);
         return executor;
     }
 }
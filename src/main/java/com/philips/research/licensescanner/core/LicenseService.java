@@ -32,11 +32,14 @@ public interface LicenseService {
     Optional<ScanDto> scanFor(URI purl);
 
     /**
-     * Queues package for scanning.
+     * Queues package for scanning in the persistent job queue.
+     * Submissions for a package that is already queued or being scanned are merged with the existing job.
      *
-     * @param vcsId Version control coordinates
+     * @param vcsId    Version control coordinates
+     * @param checksum expected SHA-256 checksum of a downloaded archive, in hexadecimal notation
+     * @param priority class of the scan request
      */
-    void scanLicense(URI packageUrl, @NullOr URI vcsId);
+    void scanLicense(URI packageUrl, @NullOr URI vcsId, @NullOr String checksum, Priority priority);
 
     /**
      * @return the details for the indicated scan
@@ -116,6 +119,8 @@ public interface LicenseService {
         public Instant timestamp;
         public String license;
         public @NullOr URI location;
+        public @NullOr URI source;
+        public @NullOr String revision;
         public @NullOr String error;
         public @NullOr List<DetectionDto> detections;
         public @NullOr String contesting;
@@ -155,4 +160,22 @@ public interface LicenseService {
         public int focusEnd;
         public List<String> lines;
     }
+
+    /**
+     * Classes of scan requests, from most to least urgent.
+     */
+    enum Priority {
+        /**
+         * Somebody is waiting for the result.
+         */
+        INTERACTIVE,
+        /**
+         * Regular request.
+         */
+        NORMAL,
+        /**
+         * Background import of many packages.
+         */
+        BULK
+    }
 }
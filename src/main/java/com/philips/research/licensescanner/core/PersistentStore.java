@@ -5,12 +5,16 @@
 
 package com.philips.research.licensescanner.core;
 
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.domain.Job;
 import com.philips.research.licensescanner.core.domain.Scan;
 import pl.tlinkowski.annotation.basic.NullOr;
 
 import java.net.URI;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -18,14 +22,16 @@ import java.util.Optional;
  */
 public interface PersistentStore {
     /**
-     * Creates a new persistent scan registration.
+     * Persists the results of a scan that was performed outside the persistent store.
      *
-     * @return scan instance
+     * @param scan scan results
+     * @return persistent scan instance
      */
-    Scan createScan(URI purl, @NullOr URI location);
+    Scan storeScan(Scan scan);
 
     /**
-     * Finds the latest scan for a package.
+     * Finds the latest scan for a package. The detections of the scan are loaded, so the scan can be used outside a
+     * transaction.
      *
      * @param purl the package of the scan
      * @return the scan (if any)
@@ -73,4 +79,53 @@ public interface PersistentStore {
      * @return total number of contested licenses
      */
     int countContested();
+
+    /**
+     * Queues a scan job for a package. A package has at most one job, so an active job for the same package is
+     * returned instead of creating a duplicate, and a finished job is queued again.
+     * <p>
+     * The priority of an active job is raised if the new request is more urgent. Both changes are made by
+     * conditional updates, so they never overwrite a concurrent claim or completion of the job.
+     *
+     * @param purl     normalized package URL
+     * @param checksum expected SHA-256 checksum of a downloaded archive
+     * @return job instance
+     */
+    Job queueJob(URI purl, @NullOr URI location, @NullOr String checksum, Priority priority);
+
+    /**
+     * @return creation time of the oldest queued job per priority class that has queued jobs
+     */
+    Map<Priority, Instant> oldestQueuedJobs();
+
+    /**
+     * Claims the oldest queued jobs of a priority class for processing by this instance.
+     * Jobs for one of the preferred base locations are claimed before other jobs.
+     * Jobs claimed concurrently by another instance are skipped.
+     *
+     * @param count     maximum number of jobs to claim
+     * @param preferred base locations of the sources that are already available
+     * @return the claimed jobs
+     */
+    List<Job> claimJobs(Priority priority, int count, Collection<URI> preferred);
+
+    /**
+     * Lists the next queued jobs in order of priority and age, without claiming them.
+     *
+     * @param count maximum number of jobs to list
+     */
+    List<Job> peekJobs(int count);
+
+    /**
+     * Persists the state of a running job after it was processed, without overwriting concurrent changes to other
+     * properties of the job (like its priority).
+     */
+    void updateJob(Job job);
+
+    /**
+     * Returns all jobs that were left running (e.g. by a crash) to the queue.
+     *
+     * @return number of re-queued jobs
+     */
+    int requeueRunningJobs();
 }
@@ -7,23 +7,33 @@ package com.philips.research.licensescanner.core.command;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pl.tlinkowski.annotation.basic.NullOr;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Shell command invocation with status handling.
+ * <p>
+ * The command (including its child processes) is killed if it times out, or if the invoking thread is interrupted.
  */
 public class ShellCommand {
     private static final Logger LOG = LoggerFactory.getLogger(ShellCommand.class);
+    private static final int MAX_ERROR_OUTPUT = 1000;
 
     private final String command;
     private File directory = new File(".");
     private Duration timeout = Duration.ofMinutes(5);
+    private final Map<String, String> environment = new HashMap<>();
+    private boolean captureErrors;
 
     public ShellCommand(String command) {
         this.command = command;
@@ -46,6 +56,24 @@ public class ShellCommand {
         return this;
     }
 
+    /**
+     * @param name  name of the environment variable to set for the command
+     * @param value value of the environment variable
+     */
+    public ShellCommand setEnvironment(String name, String value) {
+        environment.put(name, value);
+        return this;
+    }
+
+    /**
+     * @param capture true to include the (tail of the) error output of a failed command in its exception,
+     *                instead of passing the error output to the console
+     */
+    public ShellCommand setCaptureErrors(boolean capture) {
+        this.captureErrors = capture;
+        return this;
+    }
+
     /**
      * Performs the command with the provided arguments.
      *
@@ -62,32 +90,87 @@ public class ShellCommand {
      * @param args arguments
      */
     public void execute(Iterable<Object> args) {
+        run(args, null);
+    }
+
+    /**
+     * Performs the command with the provided arguments and captures its standard output.
+     *
+     * @param args arguments
+     * @return output of the command
+     */
+    public String query(Object... args) {
+        try {
+            final var output = File.createTempFile("shell-", ".out");
+            try {
+                run(List.of(args), output);
+                return Files.readString(output.toPath());
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                output.delete();
+            }
+        } catch (IOException e) {
+            throw new ShellException("Output of command '" + command + "' not available", e);
+        }
+    }
+
+    private void run(Iterable<Object> args, @NullOr File output) {
+        @NullOr File errors = null;
         try {
             LOG.info("Invoke {} {} from {}", command, args, directory);
 
-            Process process = invoke(args);
-            assertSuccessStatus(process);
+            errors = captureErrors ? File.createTempFile("shell-", ".err") : null;
+            Process process = invoke(args, output, errors);
+            assertSuccessStatus(process, errors);
         } catch (IOException e) {
             throw new ShellException("Command '" + command + "' failed", e);
         } catch (InterruptedException e) {
             throw new ShellException("Waiting for '" + command + "' was interrupted", e);
+        } finally {
+            if (errors != null) {
+                //noinspection ResultOfMethodCallIgnored
+                errors.delete();
+            }
         }
     }
 
-    private Process invoke(Iterable<Object> args) throws IOException, InterruptedException {
-        var process = new ProcessBuilder()
+    private Process invoke(Iterable<Object> args, @NullOr File output, @NullOr File errors)
+            throws IOException, InterruptedException {
+        final var builder = new ProcessBuilder()
                 .directory(directory)
                 .inheritIO()
-                .command(invocationArguments(args))
-                .start();
-        if (!process.waitFor(timeout.toSeconds(), TimeUnit.SECONDS)) {
-            process.descendants().forEach(ProcessHandle::destroyForcibly);
-            process.destroyForcibly();
-            throw new ShellException("Aborted '" + command + "' after " + timeout.toSeconds() + " seconds");
+                .command(invocationArguments(args));
+        builder.environment().putAll(environment);
+        if (output != null) {
+            builder.redirectOutput(output);
+        }
+        if (errors != null) {
+            builder.redirectError(errors);
+        }
+        var process = builder.start();
+        try {
+            if (!process.waitFor(timeout.toSeconds(), TimeUnit.SECONDS)) {
+                destroy(process);
+                throw new ShellTimeoutException("Aborted '" + command + "' after " + timeout.toSeconds() + " seconds");
+            }
+        } catch (InterruptedException e) {
+            destroy(process);
+            Thread.currentThread().interrupt();
+            throw e;
         }
         return process;
     }
 
+    /**
+     * Kills the process and all processes it started.
+     * (The process is killed first, to avoid it continuing with a next command when its child is killed.)
+     */
+    private void destroy(Process process) {
+        final var descendants = process.descendants().collect(Collectors.toList());
+        process.destroyForcibly();
+        descendants.forEach(ProcessHandle::destroyForcibly);
+    }
+
     private List<String> invocationArguments(Iterable<Object> arguments) {
         var result = new ArrayList<String>();
         result.add(command);
@@ -95,10 +178,30 @@ public class ShellCommand {
         return result;
     }
 
-    private void assertSuccessStatus(Process process) {
+    private void assertSuccessStatus(Process process, @NullOr File errors) {
         var status = process.exitValue();
         if (status != 0) {
-            throw new ShellException("Command " + command + " failed with status " + status);
+            throw new ShellException("Command " + command + " failed with status " + status + errorOutput(errors));
+        }
+    }
+
+    /**
+     * @return the (tail of the) captured error output to append to a failure message, if any
+     */
+    private String errorOutput(@NullOr File errors) {
+        if (errors == null) {
+            return "";
+        }
+        try {
+            final var text = Files.readString(errors.toPath()).strip();
+            if (text.isEmpty()) {
+                return "";
+            }
+            return ": " + ((text.length() > MAX_ERROR_OUTPUT)
+                    ? "..." + text.substring(text.length() - MAX_ERROR_OUTPUT)
+                    : text);
+        } catch (IOException e) {
+            return "";
         }
     }
 }
@@ -0,0 +1,15 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.command;
+
+/**
+ * Exception thrown when a shell command was aborted because it exceeded its timeout.
+ */
+public class ShellTimeoutException extends ShellException {
+    public ShellTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.ApplicationConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Spring component sharing the CPU cores and memory of the host as tokens between license detection processes.
+ * <p>
+ * A scan is only admitted if at least one token is free, and is granted the number of (detection) processes it
+ * can use. The capacity is re-evaluated for every request from the number of available cores, the system load
+ * that is not caused by granted processes, and the free memory.
+ */
+@Component
+public class CoreBudget {
+    private static final Logger LOG = LoggerFactory.getLogger(CoreBudget.class);
+    private static final long MB = 1024L * 1024L;
+    private static final long REEVALUATE_MS = 1000;
+
+    private final Host host;
+    private final int maxPerScan;
+    private final long memoryPerProcess;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private int granted;
+
+    @Autowired
+    public CoreBudget(ApplicationConfiguration configuration) {
+        this(configuration, new SystemHost());
+    }
+
+    CoreBudget(ApplicationConfiguration configuration, Host host) {
+        this.host = host;
+        this.maxPerScan = configuration.getMaxScanProcesses();
+        this.memoryPerProcess = configuration.getScanProcessMemory() * MB;
+    }
+
+    /**
+     * Blocks until at least one token is available.
+     *
+     * @return grant for the number of processes the scan may use
+     */
+    public Grant acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            int available;
+            while ((available = capacity() - granted) <= 0) {
+                //noinspection ResultOfMethodCallIgnored
+                released.await(REEVALUATE_MS, TimeUnit.MILLISECONDS);
+            }
+            final var processes = Math.min(available, maxPerScan);
+            granted += processes;
+            LOG.debug("Granted {} processes ({} in use)", processes, granted);
+            return new Grant(processes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of tokens currently granted
+     */
+    int granted() {
+        lock.lock();
+        try {
+            return granted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(int processes) {
+        lock.lock();
+        try {
+            granted -= processes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return total number of tokens given the current state of the host
+     */
+    private int capacity() {
+        final var cores = host.cores();
+        final var load = host.load();
+        final var foreignLoad = (load < 0) ? 0 : Math.max(0, (int) Math.round(load) - granted);
+        final var cpu = cores - foreignLoad;
+        final var freeMemory = host.freeMemory();
+        final var memory = (freeMemory < 0) ? cpu : granted + (int) Math.min(cores, freeMemory / memoryPerProcess);
+        return Math.max(1, Math.min(cpu, memory));
+    }
+
+    /**
+     * Number of processes granted to a single scan, which must be closed after the scan completed.
+     */
+    public final class Grant implements AutoCloseable {
+        private final int processes;
+        private boolean closed;
+
+        private Grant(int processes) {
+            this.processes = processes;
+        }
+
+        public int getProcesses() {
+            return processes;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(processes);
+            }
+        }
+    }
+
+    /**
+     * Resources of the host system.
+     */
+    interface Host {
+        int cores();
+
+        /**
+         * @return average number of runnable processes, or negative if not available
+         */
+        double load();
+
+        /**
+         * @return free physical memory in bytes, or negative if not available
+         */
+        long freeMemory();
+    }
+
+    private static class SystemHost implements Host {
+        private final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+        @Override
+        public int cores() {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+        @Override
+        public double load() {
+            return os.getSystemLoadAverage();
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public long freeMemory() {
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import java.time.Duration;
+
+/**
+ * Predicts the duration of license detection from the size of the workspace.
+ * <p>
+ * Keeps a moving average of the observed (process) seconds per byte of text.
+ * Until the first observation, a conservative default rate is assumed.
+ */
+class CostModel {
+    static final Duration MIN_TIMEOUT = Duration.ofMinutes(5);
+    static final Duration MAX_TIMEOUT = Duration.ofMinutes(30);
+
+    private static final double DEFAULT_SECONDS_PER_BYTE = 2e-5;
+    private static final double SECONDS_PER_FILE = 1e-3;
+    private static final double SMOOTHING = 0.2;
+    private static final int TIMEOUT_FACTOR = 4;
+
+    private double secondsPerByte = DEFAULT_SECONDS_PER_BYTE;
+    private int samples;
+
+    /**
+     * @return predicted detection cost in single process seconds
+     */
+    synchronized double predict(Workspace workspace) {
+        return workspace.getTextBytes() * secondsPerByte + workspace.getFiles() * SECONDS_PER_FILE;
+    }
+
+    /**
+     * @return maximum duration of a detection using the indicated number of processes
+     */
+    synchronized Duration timeout(Workspace workspace, int processes) {
+        if (samples == 0) {
+            return MAX_TIMEOUT;
+        }
+        final var expected = Duration.ofMillis(Math.round(predict(workspace) * 1000 / Math.max(1, processes)));
+        final var timeout = expected.multipliedBy(TIMEOUT_FACTOR);
+        if (timeout.compareTo(MIN_TIMEOUT) < 0) {
+            return MIN_TIMEOUT;
+        }
+        return (timeout.compareTo(MAX_TIMEOUT) > 0) ? MAX_TIMEOUT : timeout;
+    }
+
+    /**
+     * Updates the history with the duration of a completed detection.
+     */
+    synchronized void record(Workspace workspace, Duration duration, int processes) {
+        if (workspace.getTextBytes() <= 0) {
+            return;
+        }
+        final var seconds = duration.toMillis() / 1000.0 * Math.max(1, processes)
+                - workspace.getFiles() * SECONDS_PER_FILE;
+        final var sample = Math.max(0, seconds) / workspace.getTextBytes();
+        secondsPerByte = (samples == 0) ? sample : secondsPerByte + SMOOTHING * (sample - secondsPerByte);
+        samples++;
+    }
+}
@@ -53,6 +53,18 @@ public class Detection {
         confirmations++;
     }
 
+    /**
+     * Takes over all evidence of another detection.
+     */
+    void copyEvidence(Detection other) {
+        score = other.score;
+        confirmations = other.confirmations;
+        filePath = other.filePath;
+        startLine = other.startLine;
+        endLine = other.endLine;
+        ignored = other.ignored;
+    }
+
     private boolean isSuspicious(File file) {
         final var lowercase = file.toString().toLowerCase();
         return Arrays.stream(UNLIKELY).anyMatch(lowercase::contains);
@@ -20,6 +20,8 @@ abstract class DtoConverter {
         dto.isConfirmed = scan.isOverride();
         dto.contesting = scan.getContesting().map(License::toString).orElse(null);
         dto.location = scan.getLocation().orElse(null);
+        dto.source = scan.getSource().orElse(null);
+        dto.revision = scan.getRevision().orElse(null);
         dto.detections = scan.getDetections().stream().map(DtoConverter::toDto).collect(Collectors.toList());
         return dto;
     }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Weighted round-robin selection of the priority class to serve next.
+ * <p>
+ * Every class with waiting jobs receives a share proportional to its weight, so no class is starved. The weight of a
+ * class grows with the waiting time of its oldest job to prevent long delays for lower priority classes.
+ */
+class FairShare {
+    static final Duration AGING_PERIOD = Duration.ofMinutes(10);
+
+    private static final Map<Priority, Integer> WEIGHTS = Map.of(
+            Priority.INTERACTIVE, 16,
+            Priority.NORMAL, 4,
+            Priority.BULK, 1);
+
+    private final Map<Priority, Double> credits = new EnumMap<>(Priority.class);
+
+    /**
+     * Selects the next priority class to serve.
+     *
+     * @param waiting creation time of the oldest waiting job per priority class
+     * @param now     current time
+     * @return selected class, or null if no jobs are waiting
+     */
+    @NullOr Priority next(Map<Priority, Instant> waiting, Instant now) {
+        credits.keySet().retainAll(waiting.keySet());
+        @NullOr Priority selected = null;
+        double total = 0;
+        for (var entry : waiting.entrySet()) {
+            final var priority = entry.getKey();
+            final var weight = weight(priority, Duration.between(entry.getValue(), now));
+            total += weight;
+            final var credit = credits.merge(priority, weight, Double::sum);
+            if (selected == null || credit > credits.get(selected)
+                    || (credit == credits.get(selected) && priority.compareTo(selected) < 0)) {
+                selected = priority;
+            }
+        }
+        if (selected != null) {
+            credits.merge(selected, -total, Double::sum);
+        }
+        return selected;
+    }
+
+    private double weight(Priority priority, Duration age) {
+        final var periods = Math.max(0, (double) age.toMillis() / AGING_PERIOD.toMillis());
+        return WEIGHTS.get(priority) * (1 + periods);
+    }
+}
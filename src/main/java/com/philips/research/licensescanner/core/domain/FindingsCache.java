@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.core.domain.license.Findings;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Least-recently-used cache of the license findings of complete source trees, keyed by their base location and the
+ * scanned revision (so a moved tag or branch is scanned again). Concurrent requests for the same source tree share a
+ * single detection.
+ */
+class FindingsCache {
+    private final int capacity;
+    private final Map<Key, CompletableFuture<Findings>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    FindingsCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param revision scanned revision, or null if the sources have no revision
+     * @return findings if the revision of the location was scanned before
+     */
+    synchronized Optional<Findings> get(URI location, @NullOr String revision) {
+        final var future = entries.get(new Key(location, revision));
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return Optional.empty();
+        }
+        return Optional.of(future.join());
+    }
+
+    /**
+     * Returns the cached findings for a location, or performs the detection if the revision of the location was not
+     * scanned before. The result of a failed detection is not retained.
+     *
+     * @param revision  scanned revision, or null if the sources have no revision
+     * @param detection performs the detection for the location
+     */
+    Findings obtain(URI location, @NullOr String revision, Supplier<Findings> detection) {
+        final var key = new Key(location, revision);
+        final var future = new CompletableFuture<Findings>();
+        final CompletableFuture<Findings> existing;
+        synchronized (this) {
+            existing = entries.putIfAbsent(key, future);
+            evict();
+        }
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            future.complete(detection.get());
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                entries.remove(key, future);
+            }
+            future.completeExceptionally(e);
+        }
+        return join(future);
+    }
+
+    /**
+     * Removes the least recently used completed entries, so detections in progress remain shared.
+     */
+    private void evict() {
+        final var iterator = entries.values().iterator();
+        while (entries.size() > capacity && iterator.hasNext()) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private Findings join(CompletableFuture<Findings> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private static final class Key {
+        private final URI location;
+        private final @NullOr String revision;
+
+        Key(URI location, @NullOr String revision) {
+            this.location = location;
+            this.revision = revision;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return location.equals(key.location) && Objects.equals(revision, key.revision);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(location, revision);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Hedged execution of alternative candidates that produce an equivalent result.
+ * <p>
+ * Candidates are started in order of preference, each next candidate after a stagger delay or as soon as the
+ * previous candidate failed. The first successful result is returned, and the other candidates are cancelled by
+ * interrupting their threads. (Candidates must therefore only abandon their own share of any shared work when they
+ * are interrupted.) Results of candidates that succeed after the winner are discarded.
+ */
+class Hedge {
+    private static final Logger LOG = LoggerFactory.getLogger(Hedge.class);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        final var thread = new Thread(runnable, "hedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param candidates alternative ways to obtain the result, in order of preference
+     * @param stagger    delay before starting the next candidate while the previous candidates are still running
+     * @param discard    cleanup of a successful result that lost the race
+     * @return result of the first candidate that succeeded
+     * @throws RuntimeException failure of the first candidate, if all candidates failed
+     */
+    <T> T first(List<Callable<T>> candidates, Duration stagger, Consumer<T> discard) {
+        if (candidates.size() == 1) {
+            return call(candidates.get(0));
+        }
+        final var won = new AtomicBoolean();
+        final CompletionService<T> service = new ExecutorCompletionService<>(executor);
+        final var futures = new ArrayList<Future<T>>();
+        @NullOr RuntimeException failure = null;
+        var running = 0;
+        var launch = true;
+        try {
+            while (futures.size() < candidates.size() || running > 0) {
+                final var pending = futures.size() < candidates.size();
+                if (pending && launch) {
+                    futures.add(service.submit(guard(candidates.get(futures.size()), won, discard)));
+                    running++;
+                    launch = false;
+                    continue;
+                }
+                final @NullOr Future<T> future = pending
+                        ? service.poll(stagger.toMillis(), TimeUnit.MILLISECONDS)
+                        : service.take();
+                launch = true;
+                if (future == null) {
+                    continue;
+                }
+                running--;
+                try {
+                    return future.get();
+                } catch (ExecutionException e) {
+                    final var index = futures.indexOf(future);
+                    final var exception = unwrap(e.getCause());
+                    LOG.info("Candidate {} failed: {}", index + 1, exception.getMessage());
+                    if (failure == null || index == 0) {
+                        failure = exception;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for candidates", e);
+        } finally {
+            won.set(true);
+            futures.forEach(future -> future.cancel(true));
+        }
+        //noinspection ConstantConditions
+        throw failure;
+    }
+
+    /**
+     * Wraps a candidate to discard its result if another candidate already won.
+     */
+    private static <T> Callable<T> guard(Callable<T> candidate, AtomicBoolean won, Consumer<T> discard) {
+        return () -> {
+            final var result = candidate.call();
+            if (!won.compareAndSet(false, true)) {
+                discard.accept(result);
+                throw new CancellationException("Another candidate succeeded first");
+            }
+            return result;
+        };
+    }
+
+    private static <T> T call(Callable<T> candidate) {
+        try {
+            return candidate.call();
+        } catch (Exception e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable exception) {
+        return (exception instanceof RuntimeException)
+                ? (RuntimeException) exception
+                : new IllegalStateException(exception);
+    }
+}
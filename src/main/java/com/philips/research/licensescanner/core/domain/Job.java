@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.domain.download.DownloadCache;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Queued request for scanning a package.
+ */
+public class Job {
+    private final Instant created = Instant.now();
+    private final URI purl;
+
+    private @NullOr URI location;
+    private @NullOr URI baseLocation;
+    private @NullOr String checksum;
+    private Priority priority;
+    private State state = State.QUEUED;
+    private int attempts;
+    private Instant updated = created;
+
+    public Job(URI purl, @NullOr URI location, Priority priority) {
+        this.purl = purl;
+        this.priority = priority;
+        setLocation(location);
+    }
+
+    public URI getPurl() {
+        return purl;
+    }
+
+    public Optional<URI> getLocation() {
+        return Optional.ofNullable(location);
+    }
+
+    /**
+     * @return location of the package sources without a sub-path, which identifies the cached download
+     */
+    public Optional<URI> getBaseLocation() {
+        return Optional.ofNullable(baseLocation);
+    }
+
+    /**
+     * @return expected SHA-256 checksum (in hexadecimal notation) of the downloaded archive
+     */
+    public Optional<String> getChecksum() {
+        return Optional.ofNullable(checksum);
+    }
+
+    public Job setChecksum(@NullOr String checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    public Instant getUpdated() {
+        return updated;
+    }
+
+    /**
+     * @return true if the job is still waiting or being processed
+     */
+    public boolean isActive() {
+        return state == State.QUEUED || state == State.RUNNING;
+    }
+
+    /**
+     * Marks the job as being processed.
+     */
+    public Job start() {
+        attempts++;
+        return setState(State.RUNNING);
+    }
+
+    /**
+     * Marks the job as processed.
+     */
+    public Job finish() {
+        return setState(State.DONE);
+    }
+
+    /**
+     * Marks the job as aborted.
+     */
+    public Job fail() {
+        return setState(State.FAILED);
+    }
+
+    /**
+     * Returns the job to the queue for another attempt.
+     */
+    public Job requeue() {
+        return setState(State.QUEUED);
+    }
+
+    /**
+     * Raises the priority of the job if the requested priority is more urgent.
+     */
+    public Job prioritize(Priority priority) {
+        if (priority.compareTo(this.priority) < 0) {
+            this.priority = priority;
+            updated = Instant.now();
+        }
+        return this;
+    }
+
+    /**
+     * Queues a finished job again for a new scan of the package.
+     *
+     * @param location (updated) source location
+     */
+    public Job resubmit(@NullOr URI location, Priority priority) {
+        setLocation(location);
+        this.priority = priority;
+        attempts = 0;
+        return setState(State.QUEUED);
+    }
+
+    private void setLocation(@NullOr URI location) {
+        this.location = location;
+        this.baseLocation = (location != null) ? DownloadCache.stripDirectoryPath(location) : null;
+    }
+
+    private Job setState(State state) {
+        this.state = state;
+        updated = Instant.now();
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return purl + " (" + state + ")";
+    }
+
+    public enum State {QUEUED, RUNNING, DONE, FAILED}
+}
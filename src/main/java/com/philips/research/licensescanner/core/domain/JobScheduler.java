@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.PersistentStore;
+import com.philips.research.licensescanner.core.domain.download.DownloadCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import javax.annotation.PostConstruct;
+import java.net.URI;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Spring component draining the persistent queue of scan jobs.
+ * <p>
+ * Jobs are only claimed from the queue when the scan pipeline can accept them,
+ * so queued jobs survive a restart of the service. Jobs for sources that are
+ * cached or already being processed are preferred, so sibling sub-paths of
+ * the same repository reuse a single download. The sources of the next queued
+ * jobs are prefetched while the pipeline is busy.
+ */
+@Component
+public class JobScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(JobScheduler.class);
+    private static final long POLL_INTERVAL_MS = 5000;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final PersistentStore store;
+    private final ScanPipeline pipeline;
+    private final DownloadCache cache;
+    private final Prefetcher prefetcher;
+    private final Executor executor;
+    private final FairShare share = new FairShare();
+    private final Map<URI, Integer> inProgress = new HashMap<>();
+    private final AtomicBoolean pollRequested = new AtomicBoolean();
+
+    public JobScheduler(PersistentStore store, ScanPipeline pipeline, DownloadCache cache, Prefetcher prefetcher,
+                        @Qualifier("schedulerExecutor") Executor executor) {
+        this.store = store;
+        this.pipeline = pipeline;
+        this.cache = cache;
+        this.prefetcher = prefetcher;
+        this.executor = executor;
+    }
+
+    /**
+     * Re-queues jobs that were interrupted by a previous shutdown.
+     */
+    @PostConstruct
+    public void recover() {
+        final var count = store.requeueRunningJobs();
+        if (count > 0) {
+            LOG.info("Re-queued {} interrupted scan jobs", count);
+        }
+    }
+
+    /**
+     * Claims as many queued jobs as the pipeline can accept, sharing the capacity between the priority classes,
+     * and prefetches the sources of the jobs that remain queued.
+     */
+    @Scheduled(fixedDelay = POLL_INTERVAL_MS)
+    public synchronized void poll() {
+        claim();
+        prefetcher.update(Set.copyOf(inProgress.keySet()));
+    }
+
+    /**
+     * Divides the available capacity between the priority classes, and claims the share of each class as a batch.
+     * The remaining capacity of classes that run out of jobs is divided again between the other classes.
+     */
+    private void claim() {
+        var available = pipeline.available();
+        if (available <= 0) {
+            return;
+        }
+        final var waiting = new HashMap<>(store.oldestQueuedJobs());
+        final var now = Instant.now();
+        while (available > 0 && !waiting.isEmpty()) {
+            final Map<Priority, Integer> shares = new EnumMap<>(Priority.class);
+            for (var i = 0; i < available; i++) {
+                final @NullOr Priority priority = share.next(waiting, now);
+                if (priority == null) {
+                    break;
+                }
+                shares.merge(priority, 1, Integer::sum);
+            }
+            for (var entry : shares.entrySet()) {
+                final var jobs = store.claimJobs(entry.getKey(), entry.getValue(), localLocations());
+                if (jobs.size() < entry.getValue()) {
+                    waiting.remove(entry.getKey());
+                }
+                jobs.forEach(this::submit);
+                available -= jobs.size();
+            }
+        }
+    }
+
+    private void submit(Job job) {
+        job.getBaseLocation().ifPresent(location -> inProgress.merge(location, 1, Integer::sum));
+        pipeline.submit(job).whenComplete((result, error) -> complete(job, error));
+    }
+
+    private Set<URI> localLocations() {
+        final var locations = new HashSet<>(cache.getLocations());
+        locations.addAll(inProgress.keySet());
+        return locations;
+    }
+
+    private void complete(Job job, @NullOr Throwable error) {
+        synchronized (this) {
+            job.getBaseLocation().ifPresent(location -> inProgress.computeIfPresent(location,
+                    (key, count) -> (count > 1) ? count - 1 : null));
+        }
+        if (error == null) {
+            job.finish();
+        } else {
+            LOG.error("Scan job {} failed:", job, error);
+            if (job.getAttempts() < MAX_ATTEMPTS) {
+                job.requeue();
+            } else {
+                job.fail();
+            }
+        }
+        store.updateJob(job);
+        requestPoll();
+    }
+
+    /**
+     * Polls from the scheduler executor instead of the (persistence stage) thread that completed a job.
+     */
+    private void requestPoll() {
+        if (pollRequested.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                pollRequested.set(false);
+                poll();
+            });
+        }
+    }
+}
@@ -5,18 +5,15 @@
 
 package com.philips.research.licensescanner.core.domain;
 
-import com.philips.research.licensescanner.ApplicationConfiguration;
-import com.philips.research.licensescanner.core.BusinessException;
 import com.philips.research.licensescanner.core.LicenseService;
 import com.philips.research.licensescanner.core.PersistentStore;
 import com.philips.research.licensescanner.core.domain.download.DownloadCache;
-import com.philips.research.licensescanner.core.domain.license.Detector;
 import com.philips.research.licensescanner.core.domain.license.License;
 import com.philips.research.licensescanner.core.domain.license.LicenseParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -41,16 +38,11 @@ public class LicenseInteractor implements LicenseService {
 
     private final PersistentStore store;
     private final DownloadCache cache;
-    private final Detector detector;
-    private final ApplicationConfiguration configuration;
 
     @Autowired
-    public LicenseInteractor(PersistentStore store, DownloadCache cache, Detector detector,
-                             ApplicationConfiguration configuration) {
+    public LicenseInteractor(PersistentStore store, DownloadCache cache) {
         this.store = store;
         this.cache = cache;
-        this.detector = detector;
-        this.configuration = configuration;
     }
 
     @Override
@@ -62,56 +54,28 @@ public class LicenseInteractor implements LicenseService {
 
     @Override
     public Optional<ScanDto> scanFor(URI purl) {
-        return store.getScan(purl)
+        return store.getScan(PurlNormalizer.normalize(purl))
                 .map(DtoConverter::toDto);
     }
 
     @Override
-    @Async("licenseDetectionExecutor")
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void scanLicense(URI purl, @NullOr URI location) {
-        @NullOr Scan scan = null;
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void scanLicense(URI purl, @NullOr URI location, @NullOr String checksum, Priority priority) {
+        final var normalized = PurlNormalizer.normalize(purl);
+        final @NullOr String hash = (checksum != null) ? DownloadCache.normalizeChecksum(checksum) : null;
         try {
-            if (store.getScan(purl).isEmpty()) {
-                scan = store.createScan(purl, location);
-                if (location != null && !location.toString().isBlank()) {
-                    scanPackage(location, scan);
-                    LOG.info("Detected license for {} is '{}'", purl, scan.getLicense());
-                } else {
-                    scan.setError("No location provided");
-                    LOG.info("No location provided for {}", purl);
-                }
-            }
-        } catch (BusinessException e) {
-            LOG.warn("Scanning failed: {}", e.getMessage());
-            if (scan != null) {
-                scan.setError(e.getMessage());
-            }
-        } catch (Exception e) {
-            LOG.error("Scanning failed:", e);
-            if (scan != null) {
-                scan.setError("Server failure");
-            }
-        }
-    }
-
-    private void scanPackage(URI location, Scan scan) {
-        try {
-            LOG.info("Scan {} from {}", scan.getPurl(), location);
-            final var sourcePath = cache.obtain(location);
-            final var path = resolveFragment(sourcePath, location.getFragment());
-            detector.scan(path, scan, configuration.getThresholdPercent());
-            if (scan.getLicense().equals(License.NONE)) {
-                scan.setError("Scan did not detect a license");
-            }
-        } finally {
-            cache.release(location);
+            final var job = store.queueJob(normalized, location, hash, priority);
+            LOG.info("Queued scan job {}", job);
+        } catch (DataIntegrityViolationException e) {
+            // Lost the race to create the job; attach to the winning job to merge the priority
+            final var job = store.queueJob(normalized, location, hash, priority);
+            LOG.info("Attached to concurrently queued scan job {}", job);
         }
     }
 
     @Override
     public Optional<ScanDto> getScan(URI purl) {
-        return store.getScan(purl).map(DtoConverter::toDto);
+        return store.getScan(PurlNormalizer.normalize(purl)).map(DtoConverter::toDto);
     }
 
     @Override
@@ -138,7 +102,7 @@ public class LicenseInteractor implements LicenseService {
     @Override
     public void contest(URI purl, @SuppressWarnings("NullableProblems") @NullOr String license) {
         final var contesting = (license != null) ? LicenseParser.parse(license) : License.NONE;
-        store.getScan(purl).ifPresentOrElse(scan -> {
+        store.getScan(PurlNormalizer.normalize(purl)).ifPresentOrElse(scan -> {
             scan.contest(contesting);
             LOG.info("Contested scan {} with license {}", scan, license);
         }, () -> LOG.warn("Ignored contested license for {}", purl));
@@ -146,7 +110,7 @@ public class LicenseInteractor implements LicenseService {
 
     @Override
     public void curateLicense(URI purl, @NullOr String license) {
-        store.getScan(purl)
+        store.getScan(PurlNormalizer.normalize(purl))
                 .ifPresent(scan -> {
                     scan.confirm((license != null) ? License.of(license) : scan.getLicense());
                     LOG.info("Curated {} to have license {}", scan, license);
@@ -155,7 +119,7 @@ public class LicenseInteractor implements LicenseService {
 
     @Override
     public void deleteScan(URI purl) {
-        store.getScan(purl)
+        store.getScan(PurlNormalizer.normalize(purl))
                 .ifPresent(scan -> {
                     store.deleteScan(scan);
                     LOG.info("Deleted {}", scan);
@@ -174,17 +138,18 @@ public class LicenseInteractor implements LicenseService {
 
     private void ignoreDetection(URI purl, String license, boolean ignored) {
         final var lic = LicenseParser.parse(license);
-        store.getScan(purl).ifPresent(scan -> {
+        store.getScan(PurlNormalizer.normalize(purl)).ifPresent(scan -> {
             scan.ignore(lic, ignored);
             LOG.info("Scan {}: license {} is now {}", purl, license, ignored ? "ignored" : "included");
         });
     }
 
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Optional<FileFragmentDto> sourceFragment(URI purl, String license, int margin) {
-        return store.getScan(purl)
+        return store.getScan(PurlNormalizer.normalize(purl))
                 .flatMap(scan -> scan.getDetection(LicenseParser.parse(license))
-                        .flatMap(det -> scan.getLocation()
+                        .flatMap(det -> scan.getSource()
                                 .flatMap(location -> fileFragmentDto(location, det, margin))
                         )
                 );
@@ -197,22 +162,35 @@ public class LicenseInteractor implements LicenseService {
         dto.firstLine = offset + 1;
         dto.focusStart = det.getStartLine() - offset - 1;
         dto.focusEnd = det.getEndLine() - offset;
+        final Path root;
         try {
-            var path = cache.obtain(location);
-            path = resolveFragment(path, location.getFragment()).resolve(dto.filename);
-            dto.lines = Files.lines(path)
-                    .skip(offset)
-                    .limit(Math.min(margin, det.getStartLine() - 1) + det.getLineCount() + margin)
-                    .collect(Collectors.toList());
+            root = cache.obtain(location);
+        } catch (Exception e) {
+            throw new LicenseException("Could not read file " + dto.filename);
+        }
+        try {
+            final var path = resolveFragment(root, location.getFragment()).resolve(dto.filename);
+            try (var lines = Files.lines(path)) {
+                dto.lines = lines
+                        .skip(offset)
+                        .limit(Math.min(margin, det.getStartLine() - 1) + det.getLineCount() + margin)
+                        .collect(Collectors.toList());
+            }
         } catch (IOException e) {
             throw new IllegalStateException("Could not load detection file " + dto.filename + " from " + location, e);
         } catch (Exception e) {
             throw new LicenseException("Could not read file " + dto.filename);
+        } finally {
+            cache.release(location);
         }
         return Optional.of(dto);
     }
 
-    private Path resolveFragment(Path path, @NullOr String fragment) {
+    /**
+     * @return path to the indicated part of the package sources
+     * @throws LicenseException if the path does not exist
+     */
+    static Path resolveFragment(Path path, @NullOr String fragment) {
         if (fragment != null) {
             path = path.resolve(fragment);
         }
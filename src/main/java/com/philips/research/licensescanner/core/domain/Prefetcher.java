@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.ApplicationConfiguration;
+import com.philips.research.licensescanner.core.PersistentStore;
+import com.philips.research.licensescanner.core.domain.download.DownloadCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Spring component downloading the sources of queued jobs before they are claimed by the scan pipeline.
+ * <p>
+ * The cache entry of every prefetched location is pinned by a claim, so it cannot be evicted before the job that
+ * needs it has been scanned. Prefetching stops when the cache reaches its low watermark, so prefetched sources never
+ * push out the sources of running jobs.
+ */
+@Component
+public class Prefetcher {
+    private static final Logger LOG = LoggerFactory.getLogger(Prefetcher.class);
+
+    private final PersistentStore store;
+    private final DownloadCache cache;
+    private final ApplicationConfiguration configuration;
+    private final Executor executor;
+    private final Map<URI, Pin> pins = new HashMap<>();
+
+    public Prefetcher(PersistentStore store, DownloadCache cache, ApplicationConfiguration configuration,
+                      @Qualifier("prefetchExecutor") Executor executor) {
+        this.store = store;
+        this.cache = cache;
+        this.configuration = configuration;
+        this.executor = executor;
+    }
+
+    /**
+     * Pins the sources of the next queued jobs, and releases the pins that are no longer needed.
+     *
+     * @param active base locations of the jobs that are being processed
+     */
+    public synchronized void update(Set<URI> active) {
+        final var count = configuration.getPrefetchJobs();
+        final var upcoming = (count > 0) ? store.peekJobs(count) : List.<Job>of();
+        final var needed = new HashSet<>(active);
+        upcoming.forEach(job -> job.getBaseLocation().ifPresent(needed::add));
+        pins.entrySet().removeIf(entry -> {
+            if (needed.contains(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().release();
+            return true;
+        });
+
+        var ahead = pins.keySet().stream().filter(base -> !active.contains(base)).count();
+        for (var job : upcoming) {
+            final @NullOr URI base = job.getBaseLocation().orElse(null);
+            final @NullOr URI location = job.getLocation().orElse(null);
+            if (base == null || location == null || pins.containsKey(base) || active.contains(base)) {
+                continue;
+            }
+            if (ahead >= count || !cache.hasRoom()) {
+                break;
+            }
+            final var target = configuration.isScanWholeRepository() ? base : location;
+            pins.put(base, new Pin(target, job.getChecksum().orElse(null)));
+            ahead++;
+        }
+    }
+
+    /**
+     * @return base locations that are currently pinned
+     */
+    synchronized Set<URI> getPinned() {
+        return Set.copyOf(pins.keySet());
+    }
+
+    /**
+     * Claim on a cache entry that is downloaded in the background.
+     */
+    private class Pin {
+        private final URI location;
+        private final CompletableFuture<Void> done;
+
+        Pin(URI location, @NullOr String checksum) {
+            this.location = location;
+            LOG.info("Prefetch sources from {}", location);
+            done = CompletableFuture.runAsync(() -> cache.obtain(location, checksum), executor);
+        }
+
+        /**
+         * Releases the claim on the cache entry after its download completed, unless the download failed.
+         */
+        void release() {
+            done.whenComplete((result, error) -> {
+                if (error != null) {
+                    LOG.info("Prefetching from {} failed: {}", location, error.getMessage());
+                    return;
+                }
+                cache.release(location);
+            });
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Normalizes package URLs, so equivalent notations of the same package yield the same URI.
+ * <p>
+ * This covers the case-insensitive scheme and type, the optional slashes after the scheme,
+ * and the ordering of qualifiers as defined by the package URL specification.
+ */
+abstract class PurlNormalizer {
+    private static final String SCHEME = "pkg:";
+
+    static URI normalize(URI purl) {
+        final var text = purl.toString().trim();
+        if (!text.regionMatches(true, 0, SCHEME, 0, SCHEME.length())) {
+            return purl;
+        }
+
+        var remainder = stripLeadingSlashes(text.substring(SCHEME.length()));
+        final var subpathPos = remainder.indexOf('#');
+        final var subpath = (subpathPos >= 0) ? remainder.substring(subpathPos) : "";
+        remainder = (subpathPos >= 0) ? remainder.substring(0, subpathPos) : remainder;
+        final var qualifierPos = remainder.indexOf('?');
+        final var qualifiers = (qualifierPos >= 0) ? sortedQualifiers(remainder.substring(qualifierPos + 1)) : "";
+        remainder = (qualifierPos >= 0) ? remainder.substring(0, qualifierPos) : remainder;
+        final var typePos = remainder.indexOf('/');
+        final var type = (typePos >= 0) ? remainder.substring(0, typePos) : remainder;
+        final var path = (typePos >= 0) ? remainder.substring(typePos) : "";
+
+        return URI.create(SCHEME + type.toLowerCase(Locale.ROOT) + stripTrailingSlashes(path) + qualifiers + subpath);
+    }
+
+    private static String stripLeadingSlashes(String text) {
+        var pos = 0;
+        while (pos < text.length() && text.charAt(pos) == '/') {
+            pos++;
+        }
+        return text.substring(pos);
+    }
+
+    private static String stripTrailingSlashes(String text) {
+        var end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '/') {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    private static String sortedQualifiers(String qualifiers) {
+        final var sorted = Arrays.stream(qualifiers.split("&"))
+                .filter(q -> !q.isBlank() && !q.endsWith("="))
+                .map(PurlNormalizer::lowercaseKey)
+                .sorted()
+                .collect(Collectors.joining("&"));
+        return sorted.isEmpty() ? "" : '?' + sorted;
+    }
+
+    private static String lowercaseKey(String qualifier) {
+        final var pos = qualifier.indexOf('=');
+        return (pos >= 0)
+                ? qualifier.substring(0, pos).toLowerCase(Locale.ROOT) + qualifier.substring(pos)
+                : qualifier.toLowerCase(Locale.ROOT);
+    }
+}
@@ -25,6 +25,8 @@ public class Scan {
     @SuppressWarnings("JpaAttributeTypeInspection")
     private @NullOr License license;
     private @NullOr String error;
+    private @NullOr String revision;
+    private @NullOr URI source;
     private @NullOr License contesting;
 
     public Scan(URI purl, @NullOr URI location) {
@@ -89,6 +91,18 @@ public class Scan {
         return Optional.ofNullable(location);
     }
 
+    /**
+     * @return location the sources were actually scanned from (like a package registry), defaulting to the location
+     */
+    public Optional<URI> getSource() {
+        return Optional.ofNullable((source != null) ? source : location);
+    }
+
+    public Scan setSource(@NullOr URI source) {
+        this.source = source;
+        return this;
+    }
+
     public Optional<String> getError() {
         return Optional.ofNullable(error);
     }
@@ -98,6 +112,18 @@ public class Scan {
         return this;
     }
 
+    /**
+     * @return identifier of the scanned revision (like a commit hash), if known
+     */
+    public Optional<String> getRevision() {
+        return Optional.ofNullable(revision);
+    }
+
+    public Scan setRevision(@NullOr String revision) {
+        this.revision = revision;
+        return this;
+    }
+
     public List<Detection> getDetections() {
         return new ArrayList<>(detections.values());
     }
@@ -123,6 +149,21 @@ public class Scan {
         return this;
     }
 
+    /**
+     * Takes over the results of another scan of the same package.
+     */
+    public Scan copyResults(Scan other) {
+        error = other.error;
+        revision = other.revision;
+        source = other.source;
+        other.detections.forEach((license, detection) -> {
+            final var copy = newDetection(license);
+            copy.copyEvidence(detection);
+            detections.put(license, copy);
+        });
+        return this;
+    }
+
     /**
      * Ugly hack to allow creation of a persistent version.
      */
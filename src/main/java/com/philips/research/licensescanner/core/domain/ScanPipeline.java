@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.ApplicationConfiguration;
+import com.philips.research.licensescanner.core.BusinessException;
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.PersistentStore;
+import com.philips.research.licensescanner.core.domain.download.DownloadCache;
+import com.philips.research.licensescanner.core.domain.download.DownloadException;
+import com.philips.research.licensescanner.core.domain.license.Detector;
+import com.philips.research.licensescanner.core.domain.license.DetectorException;
+import com.philips.research.licensescanner.core.domain.license.Findings;
+import com.philips.research.licensescanner.core.domain.license.License;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spring component executing scan jobs as a pipeline of stages.
+ * <p>
+ * Downloading (network and disk bound), license detection (CPU bound) and persistence of the scan results are
+ * performed by separate executors. This allows the next packages to be downloaded while the current packages are
+ * being scanned. Detection is only started when the core budget grants processes.
+ * <p>
+ * The number of jobs in the pipeline (from submission until their results are persisted) is limited to the
+ * capacity of the pipeline, so the queues of the stage executors never overflow. Downloads block while the maximum
+ * number of packages is waiting for detection.
+ * <p>
+ * Downloaded packages wait for detection by the priority class of their job, and within a class in order of their
+ * predicted detection cost, which is aged by the time they became ready. (This favors small packages without
+ * starving large packages.) The prediction also determines the
+ * timeout of the detection.
+ * <p>
+ * If no location is provided, or downloading from the location fails, the published archive of the package is
+ * downloaded from its package registry (if configured and supported for the package type). If the download from the
+ * location is slow, the registry download is started in parallel after a short delay. The first download to succeed
+ * is scanned, and the other download is cancelled.
+ * <p>
+ * If configured, the complete sources at a location are scanned only once. The scan of each package is then sliced
+ * from the cached findings for its sub-path, so sibling packages in a monorepo do not invoke the detector again.
+ */
+@Component
+public class ScanPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(ScanPipeline.class);
+    private static final int FINDINGS_CACHE_SIZE = 100;
+
+    private final PersistentStore store;
+    private final DownloadCache cache;
+    private final Detector detector;
+    private final CoreBudget budget;
+    private final ApplicationConfiguration configuration;
+    private final Executor downloadStage;
+    private final Executor detectionStage;
+    private final Executor persistenceStage;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Semaphore readySlots;
+    private final CostModel costModel = new CostModel();
+    private final FindingsCache findingsCache = new FindingsCache(FINDINGS_CACHE_SIZE);
+    private final Hedge hedge = new Hedge();
+    private final BlockingQueue<Task> ready = new PriorityBlockingQueue<>(11,
+            Comparator.comparing(Task::priority).thenComparingLong(Task::rank));
+
+    public ScanPipeline(PersistentStore store, DownloadCache cache, Detector detector, CoreBudget budget,
+                        ApplicationConfiguration configuration,
+                        @Qualifier("downloadExecutor") Executor downloadStage,
+                        @Qualifier("detectionExecutor") Executor detectionStage,
+                        @Qualifier("persistenceExecutor") Executor persistenceStage) {
+        this.store = store;
+        this.cache = cache;
+        this.detector = detector;
+        this.budget = budget;
+        this.configuration = configuration;
+        this.downloadStage = downloadStage;
+        this.detectionStage = detectionStage;
+        this.persistenceStage = persistenceStage;
+        readySlots = new Semaphore(2 * configuration.getDetectionThreads());
+    }
+
+    /**
+     * @return maximum number of jobs in the pipeline, which bounds the queue of every stage executor
+     */
+    public static int capacity(ApplicationConfiguration configuration) {
+        return 2 * (configuration.getDownloadThreads() + configuration.getDetectionThreads());
+    }
+
+    /**
+     * @return number of jobs that can be submitted without exceeding the capacity of the pipeline
+     */
+    public int available() {
+        return capacity(configuration) - inFlight.get();
+    }
+
+    /**
+     * Submits a job to the pipeline.
+     *
+     * @return future that completes after the scan results are persisted
+     */
+    public CompletableFuture<Void> submit(Job job) {
+        final var task = new Task(job);
+        inFlight.incrementAndGet();
+        try {
+            return CompletableFuture.runAsync(() -> download(task), downloadStage)
+                    .thenCompose(result -> schedule(task))
+                    .thenRunAsync(() -> persist(task), persistenceStage)
+                    .whenComplete((result, error) -> inFlight.decrementAndGet());
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void download(Task task) {
+        try {
+            if (store.getScan(task.scan.getPurl()).isPresent()) {
+                task.skip();
+                return;
+            }
+            final @NullOr URI location = locate(task);
+            if (location == null) {
+                task.scan.setError("No location provided");
+                LOG.info("No location provided for {}", task.scan.getPurl());
+                return;
+            }
+            task.location = location;
+            LOG.info("Scan {} from {}", task.scan.getPurl(), location);
+            if (configuration.isScanWholeRepository()) {
+                final var base = DownloadCache.stripDirectoryPath(location);
+                final @NullOr String revision = cache.getRevision(base).orElse(null);
+                final var findings = (revision != null) ? findingsCache.get(base, revision) : Optional.<Findings>empty();
+                if (findings.isPresent()) {
+                    LOG.info("Reusing findings of {} for {}", location, task.scan.getPurl());
+                    task.scan.setRevision(revision).setSource(location);
+                    findings.get().addTo(task.scan, location.getFragment());
+                    task.checkLicense();
+                    return;
+                }
+            }
+            final var source = hedge.first(candidates(task, location),
+                    Duration.ofSeconds(configuration.getHedgeDelay()), loser -> cache.release(loser.location));
+            task.location = source.location;
+            task.scan.setSource(source.location);
+            cache.getRevision(source.location).ifPresent(task.scan::setRevision);
+            task.root = source.root;
+            task.estimate(source.workspace, costModel);
+            task.path = source.path;
+        } catch (Exception e) {
+            task.fail(e);
+        }
+    }
+
+    /**
+     * @return location of the sources, or null if no location is available
+     */
+    private @NullOr URI locate(Task task) {
+        final @NullOr URI location = task.location;
+        if (location != null && !location.toString().isBlank()) {
+            return location;
+        }
+        final var purl = task.scan.getPurl();
+        return isRegistryFallback(purl) ? purl : null;
+    }
+
+    private boolean isRegistryFallback(URI purl) {
+        return configuration.isRegistryFallback() && cache.supports(purl);
+    }
+
+    /**
+     * @return alternative ways to obtain the sources, with the package registry as fallback for the location
+     */
+    private List<Callable<Source>> candidates(Task task, URI location) {
+        final List<Callable<Source>> candidates = new ArrayList<>();
+        candidates.add(() -> obtain(task, location));
+        final var purl = task.scan.getPurl();
+        if (!location.equals(purl) && isRegistryFallback(purl)) {
+            candidates.add(() -> obtain(task, purl));
+        }
+        return candidates;
+    }
+
+    /**
+     * Claims the sources from the cache, releasing the claim if the claimed sources cannot be used.
+     */
+    private Source obtain(Task task, URI location) {
+        final var root = cache.obtain(configuration.isScanWholeRepository()
+                ? DownloadCache.stripDirectoryPath(location) : location, task.checksum);
+        try {
+            final var path = LicenseInteractor.resolveFragment(root, location.getFragment());
+            final var workspace = Workspace.measure(configuration.isScanWholeRepository() ? root : path);
+            return new Source(location, root, path, workspace);
+        } catch (RuntimeException e) {
+            cache.release(location);
+            throw e;
+        }
+    }
+
+    /**
+     * Queues a downloaded task for detection, blocking while the maximum number of tasks is ready for detection.
+     *
+     * @return future that completes after detection
+     */
+    private CompletableFuture<Void> schedule(Task task) {
+        if (task.path == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        try {
+            readySlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            //noinspection ConstantConditions
+            cache.release(task.location);
+            throw new IllegalStateException("Interrupted while waiting for the detection stage", e);
+        }
+        ready.add(task);
+        try {
+            detectionStage.execute(this::detectNext);
+        } catch (RuntimeException e) {
+            if (ready.remove(task)) {
+                readySlots.release();
+                //noinspection ConstantConditions
+                cache.release(task.location);
+            }
+            throw e;
+        }
+        return task.detected;
+    }
+
+    /**
+     * Detects licenses for the cheapest ready task.
+     */
+    private void detectNext() {
+        final @NullOr Task task = ready.poll();
+        if (task != null) {
+            readySlots.release();
+            try {
+                detect(task);
+            } finally {
+                task.detected.complete(null);
+            }
+        }
+    }
+
+    private void detect(Task task) {
+        final @NullOr Path path = task.path;
+        final @NullOr Path root = task.root;
+        final @NullOr URI location = task.location;
+        if (path == null || root == null || location == null) {
+            return;
+        }
+        try {
+            if (configuration.isScanWholeRepository()) {
+                final var base = DownloadCache.stripDirectoryPath(location);
+                findingsCache.obtain(base, task.scan.getRevision().orElse(null), () -> detectFindings(task, root))
+                        .addTo(task.scan, location.getFragment());
+            } else {
+                detectFindings(task, path).addTo(task.scan);
+            }
+            task.checkLicense();
+        } catch (Exception e) {
+            task.fail(e);
+        } finally {
+            cache.release(location);
+        }
+    }
+
+    private Findings detectFindings(Task task, Path directory) {
+        try (var grant = budget.acquire()) {
+            final var processes = grant.getProcesses();
+            final var timeout = costModel.timeout(task.workspace, processes);
+            LOG.info("Detect licenses in {} of {} using {} processes (timeout {})",
+                    task.workspace, directory, processes, timeout);
+            final var start = System.nanoTime();
+            final var findings = detector.detect(directory, configuration.getThresholdPercent(), processes, timeout);
+            costModel.record(task.workspace, Duration.ofNanos(System.nanoTime() - start), processes);
+            return findings;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DetectorException("Interrupted while waiting for detection processes", e);
+        }
+    }
+
+    private void persist(Task task) {
+        if (task.skipped) {
+            return;
+        }
+        final var scan = store.storeScan(task.scan);
+        LOG.info("Detected license for {} is '{}'", scan.getPurl(), scan.getLicense());
+    }
+
+    /**
+     * Downloaded sources of a package.
+     */
+    private static class Source {
+        private final URI location;
+        private final Path root;
+        private final Path path;
+        private final Workspace workspace;
+
+        Source(URI location, Path root, Path path, Workspace workspace) {
+            this.location = location;
+            this.root = root;
+            this.path = path;
+            this.workspace = workspace;
+        }
+    }
+
+    /**
+     * Work item passed through the stages of the pipeline.
+     */
+    private static class Task {
+        private final @NullOr String checksum;
+        private final Priority priority;
+        private final Scan scan;
+        private final CompletableFuture<Void> detected = new CompletableFuture<>();
+        private volatile @NullOr URI location;
+        private volatile @NullOr Path root;
+        private volatile @NullOr Path path;
+        private volatile boolean skipped;
+        private volatile Workspace workspace = Workspace.EMPTY;
+        private volatile long rank;
+
+        Task(Job job) {
+            location = job.getLocation().orElse(null);
+            checksum = job.getChecksum().orElse(null);
+            priority = job.getPriority();
+            scan = new Scan(job.getPurl(), location);
+        }
+
+        /**
+         * Ranks the task by the sum of the time it became ready and its predicted cost.
+         */
+        void estimate(Workspace workspace, CostModel model) {
+            this.workspace = workspace;
+            rank = System.currentTimeMillis() + Math.round(model.predict(workspace) * 1000);
+        }
+
+        Priority priority() {
+            return priority;
+        }
+
+        long rank() {
+            return rank;
+        }
+
+        void checkLicense() {
+            if (scan.getLicense().equals(License.NONE)) {
+                scan.setError("Scan did not detect a license");
+            }
+        }
+
+        void skip() {
+            skipped = true;
+        }
+
+        void fail(Exception e) {
+            if (e instanceof BusinessException) {
+                LOG.warn("Scanning failed: {}", e.getMessage());
+                scan.setError(e.getMessage());
+            } else {
+                LOG.error("Scanning failed:", e);
+                scan.setError("Server failure");
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+
+/**
+ * Cheap size estimate of the source files of a package, used to predict the cost of license detection.
+ */
+final class Workspace {
+    static final Workspace EMPTY = new Workspace(0, 0, 0);
+
+    private static final int SAMPLE_SIZE = 1024;
+    private static final Set<String> VCS_DIRECTORIES = Set.of(".git", ".hg", ".svn");
+
+    private final int files;
+    private final long bytes;
+    private final long textBytes;
+
+    Workspace(int files, long bytes, long textBytes) {
+        this.files = files;
+        this.bytes = bytes;
+        this.textBytes = textBytes;
+    }
+
+    /**
+     * Measures the regular files in a directory tree, skipping version control metadata. Files are classified as text
+     * if their first kilobyte does not contain a NUL character.
+     */
+    static Workspace measure(Path directory) {
+        final var totals = new long[3];
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    return VCS_DIRECTORIES.contains(String.valueOf(dir.getFileName()))
+                            ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        totals[0]++;
+                        totals[1] += attributes.size();
+                        if (isText(path)) {
+                            totals[2] += attributes.size();
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return new Workspace((int) totals[0], totals[1], totals[2]);
+        } catch (IOException e) {
+            return EMPTY;
+        }
+    }
+
+    private static boolean isText(Path path) {
+        try (InputStream stream = Files.newInputStream(path)) {
+            final var sample = stream.readNBytes(SAMPLE_SIZE);
+            for (var b : sample) {
+                if (b == 0) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    int getFiles() {
+        return files;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getTextBytes() {
+        return textBytes;
+    }
+
+    @Override
+    public String toString() {
+        return files + " files, " + bytes + " bytes (" + textBytes + " text)";
+    }
+}
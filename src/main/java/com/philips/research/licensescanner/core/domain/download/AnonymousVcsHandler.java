@@ -11,31 +11,67 @@ import org.slf4j.LoggerFactory;
 import pl.tlinkowski.annotation.basic.NullOr;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Download handler for file and internet resources.
+ * <p>
+ * The SHA-256 checksum of the downloaded file is calculated while it is transferred.
  */
 public class AnonymousVcsHandler implements VcsHandler {
     private static final Logger LOG = LoggerFactory.getLogger(AnonymousVcsHandler.class);
     private static final Duration MAX_EXTRACT_DURATION = Duration.ofMinutes(10);
 
+    private final ArchiveExtractor extractor = new ArchiveExtractor();
+    private final HttpDownloader http = new HttpDownloader();
+    private final Map<Path, String> checksums = new ConcurrentHashMap<>();
+
     @Override
     public Path download(Path directory, URI location) {
         validateDirectory(directory);
-        copyFile(target(directory, location), location);
-        final var path = extractArchives(directory);
+        final var filename = filenameFor(location);
+        final var digest = sha256();
+        final Path path;
+        if (ArchiveExtractor.supports(filename)) {
+            path = streamArchive(directory.resolve(filename), location, digest);
+        } else {
+            copyFile(directory.resolve(filename).toFile(), location, digest);
+            path = extractArchives(directory);
+        }
         final @NullOr String fragment = location.getFragment();
+        final var result = (fragment != null) ? path.resolve(fragment) : path;
+
+        checksums.put(result, DownloadCache.hex(digest.digest()));
+        return result;
+    }
 
-        return (fragment != null) ? path.resolve(fragment) : path;
+    /**
+     * Reports the checksum of a download only once, as the result directory is owned by the caller.
+     */
+    @Override
+    public Optional<String> checksum(Path directory) {
+        return Optional.ofNullable(checksums.remove(directory));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
     }
 
     private void validateDirectory(Path directory) {
@@ -45,24 +81,33 @@ public class AnonymousVcsHandler implements VcsHandler {
         }
     }
 
-    private File target(Path directory, URI location) {
-        final var filename = filenameFor(location);
-        return directory.resolve(filename).toFile();
+    /**
+     * Extracts a supported archive while it is downloaded, using the layout produced by extractcode.
+     */
+    private Path streamArchive(Path target, URI fromUri, MessageDigest digest) {
+        LOG.info("Download and extract archive from {} to {}", fromUri, target);
+        try (InputStream stream = open(fromUri, target.getParent(), digest)) {
+            extractor.extract(stream, target.getFileName().toString(), target);
+            return target;
+        } catch (IOException e) {
+            throw new DownloadException("File transfer failed", e);
+        }
     }
 
-    private void copyFile(File target, URI fromUri) {
+    private void copyFile(File target, URI fromUri, MessageDigest digest) {
         LOG.info("Download file from {} to {}", fromUri, target);
-        try (FileOutputStream out = new FileOutputStream(target)) {
-            final var url = fromUri.toURL();
-            ReadableByteChannel inChannel = Channels.newChannel(url.openStream());
-            FileChannel outChannel = out.getChannel();
-            outChannel.transferFrom(inChannel, 0, Long.MAX_VALUE);
-            inChannel.close();
+        try (InputStream stream = open(fromUri, target.toPath().getParent(), digest)) {
+            Files.copy(stream, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException e) {
             throw new DownloadException("File transfer failed", e);
         }
     }
 
+    private InputStream open(URI location, Path directory, MessageDigest digest) throws IOException {
+        final var stream = HttpDownloader.supports(location) ? http.open(location, directory) : location.toURL().openStream();
+        return new DigestInputStream(stream, digest);
+    }
+
     private String filenameFor(URI uri) {
         if ("file".equals(uri.getScheme())) {
             return new File(uri.getSchemeSpecificPart()).getName();
@@ -73,6 +118,9 @@ public class AnonymousVcsHandler implements VcsHandler {
         return (pos >= 0) ? path.substring(pos + 1) : path;
     }
 
+    /**
+     * Extracts any (exotic) archive formats not handled natively.
+     */
     private Path extractArchives(Path directory) {
         //noinspection SpellCheckingInspection
         final var baseDir = directory.toFile();
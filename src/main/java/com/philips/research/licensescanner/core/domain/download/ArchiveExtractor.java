@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming extractor for common archive formats.
+ * <p>
+ * Archives are extracted while they are read, without storing the archive itself. Limits on the number of files and
+ * the total extracted size protect against decompression bombs.
+ */
+class ArchiveExtractor {
+    static final long MAX_FILES = 250_000;
+    static final long MAX_BYTES = 16L * 1024 * 1024 * 1024;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveExtractor.class);
+    private static final long MB = 1024L * 1024L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final List<Suffix> SUFFIXES = List.of(
+            new Suffix(".zip", Format.ZIP),
+            new Suffix(".jar", Format.ZIP),
+            new Suffix(".tar", Format.TAR),
+            new Suffix(".tar.gz", Format.TAR_GZ),
+            new Suffix(".tgz", Format.TAR_GZ),
+            new Suffix(".crate", Format.TAR_GZ),
+            new Suffix(".tar.bz2", Format.TAR_BZ2),
+            new Suffix(".tbz2", Format.TAR_BZ2),
+            new Suffix(".tar.xz", Format.TAR_XZ),
+            new Suffix(".txz", Format.TAR_XZ));
+
+    private final long maxFiles;
+    private final long maxBytes;
+
+    ArchiveExtractor() {
+        this(MAX_FILES, MAX_BYTES);
+    }
+
+    ArchiveExtractor(long maxFiles, long maxBytes) {
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return true if the archive format of the file is supported
+     */
+    static boolean supports(String filename) {
+        return format(filename) != null;
+    }
+
+    /**
+     * Extracts an archive from a stream. The stream is read to its end, so a checksum over the stream covers any
+     * trailing data (like the central directory of a zip file).
+     *
+     * @param stream   archive content
+     * @param filename name of the archive file, indicating its format
+     * @param target   directory to extract the archive to
+     * @throws DownloadException if the archive exceeds the limits
+     */
+    void extract(InputStream stream, String filename, Path target) throws IOException {
+        final @NullOr Format format = format(filename);
+        if (format == null) {
+            throw new IllegalArgumentException("Unsupported archive format: " + filename);
+        }
+        LOG.info("Extract {} archive to {}", format, target);
+        Files.createDirectories(target);
+        final var root = target.toAbsolutePath().normalize();
+        final var buffer = new byte[BUFFER_SIZE];
+        long files = 0;
+        long bytes = 0;
+        final var input = new BufferedInputStream(stream, BUFFER_SIZE);
+        try (var archive = open(input, format)) {
+            ArchiveEntry entry;
+            while ((entry = archive.getNextEntry()) != null) {
+                final var path = root.resolve(entry.getName()).normalize();
+                if (!path.startsWith(root)) {
+                    throw new DownloadException("Archive entry '" + entry.getName() + "' is outside the archive");
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(path);
+                    continue;
+                }
+                if (isLink(entry) || !archive.canReadEntryData(entry)) {
+                    LOG.debug("Skipped archive entry '{}'", entry.getName());
+                    continue;
+                }
+                if (++files > maxFiles) {
+                    throw new DownloadException("Archive contains more than " + maxFiles + " files");
+                }
+                Files.createDirectories(path.getParent());
+                try (var out = Files.newOutputStream(path)) {
+                    int count;
+                    while ((count = archive.read(buffer)) >= 0) {
+                        bytes += count;
+                        if (bytes > maxBytes) {
+                            throw new DownloadException("Archive expands to more than " + maxBytes / MB + " MB");
+                        }
+                        out.write(buffer, 0, count);
+                    }
+                }
+            }
+            input.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private static boolean isLink(ArchiveEntry entry) {
+        return entry instanceof TarArchiveEntry && (((TarArchiveEntry) entry).isSymbolicLink() || ((TarArchiveEntry) entry).isLink());
+    }
+
+    private static @NullOr Format format(String filename) {
+        final var name = filename.toLowerCase(Locale.ROOT);
+        return SUFFIXES.stream()
+                .filter(suffix -> name.endsWith(suffix.suffix))
+                .map(suffix -> suffix.format)
+                .findFirst().orElse(null);
+    }
+
+    private static ArchiveInputStream open(InputStream stream, Format format) throws IOException {
+        switch (format) {
+            case ZIP:
+                return new ZipArchiveInputStream(stream, StandardCharsets.UTF_8.name(), true, true);
+            case TAR_GZ:
+                return new TarArchiveInputStream(new GzipCompressorInputStream(stream, true));
+            case TAR_BZ2:
+                return new TarArchiveInputStream(new BZip2CompressorInputStream(stream, true));
+            case TAR_XZ:
+                return new TarArchiveInputStream(new XZCompressorInputStream(stream, true));
+            default:
+                return new TarArchiveInputStream(stream);
+        }
+    }
+
+    private enum Format {ZIP, TAR, TAR_GZ, TAR_BZ2, TAR_XZ}
+
+    private static class Suffix {
+        final String suffix;
+        final Format format;
+
+        Suffix(String suffix, Format format) {
+            this.suffix = suffix;
+            this.format = format;
+        }
+    }
+}
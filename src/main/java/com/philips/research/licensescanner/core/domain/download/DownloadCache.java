@@ -9,83 +9,478 @@ import com.philips.research.licensescanner.ApplicationConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
-import org.springframework.util.FileSystemUtils;
 import pl.tlinkowski.annotation.basic.NullOr;
 
 import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
  * Cache for the source code of packages.
  * <p>
  * Avoids downloading the same VCS archive multiple times if various paths
- * of the same archive are accessed sequentially.
+ * of the same archive are accessed sequentially. Downloads of different
+ * locations proceed in parallel, while concurrent requests for the same
+ * location wait for the single download in progress. Downloads run on
+ * background threads of the cache, so an interrupted request only drops its
+ * own claim without affecting the other requests for the location. If the
+ * last request drops its claim before the download completes, the download is
+ * interrupted (killing any download process) and its entry is discarded.
+ * <p>
+ * The disk space of the cache is bounded by a quota, which is the configured
+ * cache quota minus the part reserved for git mirrors. (The working directory
+ * therefore stays within the configured quota.) The size of every entry
+ * is measured after download, and unused entries are evicted (least recently
+ * used first) down to a low watermark when the quota is exceeded. A new
+ * download only starts when the cache has room for a configured estimate of
+ * its size, which is reserved until the download completes and its actual size
+ * is known. (Concurrent downloads therefore cannot overshoot the quota by more
+ * than their excess over the estimate.)
+ * <p>
+ * Entries are keyed by the normalized location without its sub-path, so
+ * equivalent notations share the cached sources. The sources are downloaded
+ * from the location as it was requested, because the original transport and
+ * credentials may be required to access the repository.
+ * <p>
+ * Cached sources survive a restart of the service. Every entry is stored in a
+ * directory named after the hash of its location, and a manifest with the size
+ * and a fingerprint of the file listing (names and sizes, not contents) of the
+ * sources is written when the download completes. At startup, all complete
+ * entries with a matching fingerprint are reloaded in the background, and
+ * leftovers of interrupted downloads are removed. (Requests for sources wait
+ * until the entries are reloaded.) A lock file prevents other instances from
+ * using the same cache directory.
+ * <p>
+ * Locations that refer to a moving revision (like a branch) are checked
+ * against the current revision of the location when they are requested, and
+ * an outdated entry is downloaded again. (An outdated entry that is still in
+ * use is replaced as soon as it is released.)
+ * <p>
+ * If the download handler supports it, only the sub-path of the requested
+ * location is downloaded. The entry is extended when other sub-paths of the
+ * same location are requested.
+ * <p>
+ * Entries of downloaded archives are indexed by the SHA-256 checksum of the
+ * archive. A request that provides the checksum of a cached archive is served
+ * from that entry, even if its location differs, without downloading or
+ * extracting the archive again.
+ * <p>
+ * Failed downloads that are likely to fail again (because the location or
+ * version was not found, timed out or requires authentication) are
+ * remembered for a configurable period per failure class, and repeated
+ * requests for the same location and revision fail immediately.
+ * <p>
+ * Evicted entries are moved into a trash directory and deleted by a low
+ * priority background thread, so eviction never blocks a download on the
+ * deletion of (large) source trees.
  */
 @Component
 public class DownloadCache {
     private static final Logger LOG = LoggerFactory.getLogger(DownloadCache.class);
+    private static final long MB = 1024L * 1024L;
+    private static final long ADMISSION_POLL_MS = 1000;
+    private static final String CACHE_DIRECTORY = "license-scanner-cache";
+    private static final String LOCK_FILE = CACHE_DIRECTORY + ".lock";
+    private static final String TRASH_DIRECTORY = "license-scanner-trash";
+    private static final String ORPHAN_PREFIX = "licenses-";
+    private static final String MANIFEST = "manifest.properties";
+    private static final String SOURCES = "sources";
+    private static final Pattern ENTRY_NAME = Pattern.compile("[0-9a-f]{64}");
 
-    private final Object lock = new Object();
     private final Downloader downloader;
     private final Path workDirectory;
-    private final List<CacheEntry> cache = new ArrayList<>();
+    private final FileChannel lockFile;
+    private final Trash trash;
+    private final NegativeCache failures;
+    private final Map<URI, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final Map<String, CacheEntry> checksums = new ConcurrentHashMap<>();
+    private final ExecutorService downloads = Executors.newCachedThreadPool(runnable -> {
+        final var thread = new Thread(runnable, "cache-download");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong used = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
     private final int cacheSize;
+    private final long quota;
+    private final long lowWatermark;
+    private final long reservation;
+    private final CompletableFuture<Void> restored;
 
     public DownloadCache(Downloader downloader, ApplicationConfiguration configuration) {
         this.downloader = downloader;
         this.cacheSize = configuration.getCacheSize();
+        this.quota = (configuration.getCacheQuota() - configuration.getMirrorQuota()) * MB;
+        this.lowWatermark = quota * configuration.getCacheLowWatermark() / 100;
+        this.reservation = Math.min(configuration.getDownloadReserve() * MB, quota);
+        this.failures = new NegativeCache(Map.of(
+                DownloadException.Failure.NOT_FOUND, Duration.ofMinutes(configuration.getNotFoundTtl()),
+                DownloadException.Failure.TIMEOUT, Duration.ofMinutes(configuration.getTimeoutTtl()),
+                DownloadException.Failure.AUTHENTICATION, Duration.ofMinutes(configuration.getAuthenticationTtl())));
         try {
-            workDirectory = Files.createTempDirectory(configuration.getTempDir(), "licenses-");
+            workDirectory = Files.createDirectories(configuration.getTempDir().resolve(CACHE_DIRECTORY));
             LOG.info("Cache directory is " + workDirectory);
         } catch (IOException e) {
             throw new DownloadException("Failed to create a working directory", e);
         }
+        lockFile = lock(configuration.getTempDir().resolve(LOCK_FILE));
+        trash = new Trash(configuration.getTempDir().resolve(TRASH_DIRECTORY));
+        sweep(configuration.getTempDir());
+        restored = CompletableFuture.runAsync(this::reload, downloads);
+    }
+
+    /**
+     * Claims exclusive use of the cache directory by this instance.
+     *
+     * @return open channel of the locked file
+     */
+    private static FileChannel lock(Path path) {
+        try {
+            final var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                final @NullOr FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    return channel;
+                }
+            } catch (OverlappingFileLockException e) {
+                // Locked by another cache in this process
+            }
+            channel.close();
+            throw new DownloadException("The cache directory is in use by another instance (locked by " + path + ")");
+        } catch (IOException e) {
+            throw new DownloadException("Failed to lock the cache directory", e);
+        }
+    }
+
+    /**
+     * Releases the cache directory for use by another instance.
+     */
+    @PreDestroy
+    public void close() {
+        try {
+            lockFile.close();
+        } catch (IOException e) {
+            LOG.warn("Could not release the lock on the cache directory");
+        }
+    }
+
+    /**
+     * Discards the working directories left behind by (crashed) instances that did not use a persistent cache.
+     */
+    private void sweep(Path tempDir) {
+        try (var stream = Files.list(tempDir)) {
+            stream.filter(path -> path.getFileName().toString().startsWith(ORPHAN_PREFIX))
+                    .filter(Files::isDirectory)
+                    .collect(Collectors.toList())
+                    .forEach(path -> {
+                        LOG.info("Removing orphaned working directory {}", path);
+                        trash.discard(path);
+                    });
+        } catch (IOException e) {
+            LOG.warn("Could not scan {} for orphaned working directories", tempDir);
+        }
+    }
+
+    /**
+     * Restores the complete entries left by a previous run, and removes all other content of the cache directory.
+     */
+    private void reload() {
+        final List<Path> content;
+        try (var stream = Files.list(workDirectory)) {
+            content = stream.sorted(Comparator.comparing(DownloadCache::lastModified)).collect(Collectors.toList());
+        } catch (IOException e) {
+            LOG.error("Failed to read the cache directory; starting with an empty cache", e);
+            return;
+        }
+        for (var path : content) {
+            final @NullOr CacheEntry entry = ENTRY_NAME.matcher(path.getFileName().toString()).matches()
+                    ? restore(path) : null;
+            if (entry != null) {
+                cache.put(entry.location, entry);
+                entry.index();
+            } else {
+                LOG.info("Removing incomplete cache content {}", path);
+                trash.discard(path);
+            }
+        }
+        LOG.info("Restored {} cached locations using {} MB", cache.size(), used.get() / MB);
+        cleanup();
+    }
+
+    /**
+     * Blocks until the entries of a previous run are restored.
+     */
+    void awaitRestore() {
+        try {
+            restored.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DownloadException("Interrupted while restoring the cache", e);
+        } catch (ExecutionException e) {
+            LOG.error("Failed to restore the cache", e.getCause());
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path.resolve(MANIFEST));
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
     }
 
     /**
      * Obtains a cache entry with the package source files.
      *
-     * @param location location to download the sources from
+     * @param location location to download the sources from, including the sub-path that must be available
      * @return root directory of the package source files
      */
     public Path obtain(URI location) {
-        synchronized (lock) {
-            URI baseLocation = stripDirectoryPath(location);
+        return obtain(location, null);
+    }
 
+    /**
+     * Obtains a cache entry with the package source files, verifying the checksum of the downloaded archive.
+     *
+     * @param location location to download the sources from, including the sub-path that must be available
+     * @param checksum expected (normalized) SHA-256 checksum of the archive, or null if unknown
+     * @return root directory of the package source files
+     * @throws DownloadException if the download failed (recently), or the checksum does not match the archive.
+     *                           (The cache entry is not claimed if obtaining fails, and a mismatching entry is
+     *                           removed from the cache as soon as it is no longer used.)
+     */
+    public Path obtain(URI location, @NullOr String checksum) {
+        final URI baseLocation = stripDirectoryPath(location);
+        final URI source = withoutFragment(location);
+
+        failures.check(baseLocation);
+        awaitRestore();
+        if (checksum != null) {
+            reuse(baseLocation, checksum);
+        }
+        revalidate(baseLocation, source);
+        final var entry = claimEntry(baseLocation, source);
+        try {
             cleanup();
-            final var entry = findOrCreateEntry(baseLocation);
-            entry.claim();
-            return entry.getRoot();
+            final var root = entry.getRoot(subPath(location));
+            entry.verify(checksum);
+            return root;
+        } catch (RuntimeException e) {
+            release(entry);
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the location to a cached entry of an archive with the same checksum.
+     */
+    private void reuse(URI location, String checksum) {
+        final @NullOr CacheEntry source = checksums.get(checksum);
+        if (source != null && !source.location.equals(location)) {
+            cache.computeIfAbsent(location, key -> {
+                LOG.info("Reuse cached archive of {} for {}", source.location, location);
+                return source;
+            });
+        }
+    }
+
+    /**
+     * Replaces a complete entry if its location currently refers to another revision than the cached revision.
+     *
+     * @return the entry if it is still valid, or null if there is no (valid) entry
+     */
+    private @NullOr CacheEntry revalidate(URI location, URI source) {
+        final @NullOr CacheEntry entry = cache.get(location);
+        if (entry == null || entry.isStale()) {
+            return null;
+        }
+        final @NullOr String revision = entry.revision;
+        if (revision == null || !entry.isComplete() || !entry.location.equals(location)) {
+            return entry;
+        }
+        try {
+            final @NullOr String current = downloader.currentRevision(source).orElse(null);
+            if (current == null || current.equals(revision)) {
+                return entry;
+            }
+            LOG.info("Cached revision {} of {} was replaced by {}", revision, location, current);
+            entry.stale = true;
+            remove(entry);
+            return null;
+        } catch (RuntimeException e) {
+            LOG.warn("Could not check the current revision of {}: {}", location, e.getMessage());
+            return entry;
+        }
+    }
+
+    /**
+     * @return checksum in lowercase hexadecimal notation without "sha256:" prefix
+     */
+    public static String normalizeChecksum(String checksum) {
+        final var lower = checksum.trim().toLowerCase(Locale.ROOT);
+        return lower.startsWith("sha256:") ? lower.substring("sha256:".length()) : lower;
+    }
+
+    /**
+     * @return sub-path of the location, or null for the complete sources
+     */
+    private static @NullOr String subPath(URI location) {
+        final @NullOr String fragment = location.getFragment();
+        if (fragment == null) {
+            return null;
+        }
+        final var path = fragment.replaceAll("^/+|/+$", "");
+        return path.isEmpty() ? null : path;
+    }
+
+    private CacheEntry claimEntry(URI location, URI source) {
+        while (true) {
+            final var entry = cache.computeIfAbsent(location, key -> new CacheEntry(key, source));
+            if (entry.claim()) {
+                return entry;
+            }
+            // Entry was disposed concurrently; replace it by a fresh one once it released its directory
+            entry.awaitRemoval();
+            cache.remove(location, entry);
         }
     }
 
     private void cleanup() {
-        final var dispose = cache.stream()
+        evict(quota);
+    }
+
+    /**
+     * Evicts unused entries until the cache is within its size and the indicated number of bytes.
+     */
+    private void evict(long target) {
+        if (entries() <= cacheSize && used.get() <= target) {
+            return;
+        }
+        final var candidates = cache.values().stream()
+                .distinct()
                 .filter(entry -> !entry.isUsed())
-                .limit(Math.max(0, cache.size() - cacheSize))
+                .sorted(Comparator.comparingLong(CacheEntry::lastUsed))
                 .collect(Collectors.toList());
-        for (var entry : dispose) {
+        for (var entry : candidates) {
+            if (entries() <= cacheSize && used.get() <= target) {
+                break;
+            }
+            remove(entry);
+        }
+    }
+
+    /**
+     * @return number of cache entries, not counting locations that reuse another entry
+     */
+    private long entries() {
+        return cache.values().stream().distinct().count();
+    }
+
+    /**
+     * Removes an unused entry, blocking concurrent creation of a new entry for the same location until its
+     * directory is released.
+     */
+    private void remove(CacheEntry entry) {
+        final var removed = new AtomicBoolean();
+        cache.computeIfPresent(entry.location, (location, current) -> {
+            if (current != entry || !entry.retire()) {
+                return current;
+            }
+            removed.set(entry.detach());
+            return null;
+        });
+        if (removed.get()) {
             entry.dispose();
-            cache.remove(entry);
         }
     }
 
-    private CacheEntry findOrCreateEntry(URI location) {
-        final var entry = cache.stream()
-                .filter(e -> e.location.equals(location))
-                .findFirst()
-                .orElseGet(() -> new CacheEntry(location));
-        cache.remove(entry);
-        cache.add(entry);
-        return entry;
+    /**
+     * Blocks until the cache has room for the estimated size of a download, and reserves that size.
+     *
+     * @return number of reserved bytes
+     */
+    private long admit(URI location) {
+        lock.lock();
+        try {
+            while (!fits(reservation)) {
+                evict(Math.min(lowWatermark, quota - reservation - 1));
+                if (fits(reservation)) {
+                    break;
+                }
+                LOG.info("Waiting for cache space to download {}", location);
+                //noinspection ResultOfMethodCallIgnored
+                released.await(ADMISSION_POLL_MS, TimeUnit.MILLISECONDS);
+            }
+            used.addAndGet(reservation);
+            return reservation;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DownloadException("Interrupted while waiting for cache space", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the bytes fit below the quota, or if the cache is empty
+     */
+    private boolean fits(long bytes) {
+        final var current = used.get();
+        return current == 0 || current + bytes < quota;
+    }
+
+    /**
+     * @return true if sources can be downloaded from the location
+     */
+    public boolean supports(URI location) {
+        return downloader.supports(location);
+    }
+
+    /**
+     * @return true if sources can be added without exceeding the low watermark or the maximum number of entries
+     */
+    public boolean hasRoom() {
+        return used.get() < lowWatermark && entries() < cacheSize;
+    }
+
+    /**
+     * @return number of bytes used by cached sources
+     */
+    public long getUsedBytes() {
+        return used.get();
     }
 
     /**
@@ -94,83 +489,499 @@ public class DownloadCache {
      * @param location VCS URL
      */
     public void release(URI location) {
-        final var baseLocation = stripDirectoryPath(location);
-        synchronized (lock) {
-            cache.stream()
-                    .filter(entry -> entry.location.equals(baseLocation))
-                    .findFirst()
-                    .ifPresent(CacheEntry::release);
+        final var entry = cache.get(stripDirectoryPath(location));
+        if (entry != null) {
+            release(entry);
         }
     }
 
-    private URI stripDirectoryPath(URI location) {
+    private void release(CacheEntry entry) {
+        entry.release();
+        entry.abandon();
+        if (entry.isStale()) {
+            remove(entry);
+        }
+        lock.lock();
         try {
-            return new URI(location.getScheme(), location.getRawSchemeSpecificPart(), null);
-        } catch (URISyntaxException e) {
-            throw new IllegalArgumentException("location is not a valid URL");
+            released.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 
-    @PreDestroy
-    public void destroy() {
+    /**
+     * @return location of the (cached) archive for a location, which is the normalized location without its
+     * sub-path fragment
+     */
+    public static URI stripDirectoryPath(URI location) {
+        final var normalized = LocationNormalizer.normalize(location);
+        if (normalized.getRawFragment() == null) {
+            return normalized;
+        }
+        final var text = normalized.toString();
+        return URI.create(text.substring(0, text.indexOf('#')));
+    }
+
+    /**
+     * @return location without its sub-path fragment, keeping the notation used for downloading
+     */
+    private static URI withoutFragment(URI location) {
+        if (location.getRawFragment() == null) {
+            return location;
+        }
+        final var text = location.toString();
+        return URI.create(text.substring(0, text.indexOf('#')));
+    }
+
+    /**
+     * @param location location of the sources
+     * @return identifier of the cached revision (like a commit hash), if known
+     */
+    public Optional<String> getRevision(URI location) {
+        final @NullOr CacheEntry entry = revalidate(stripDirectoryPath(location), withoutFragment(location));
+        return (entry != null) ? Optional.ofNullable(entry.revision) : Optional.empty();
+    }
+
+    /**
+     * @return base locations that are cached or being downloaded
+     */
+    public Set<URI> getLocations() {
+        return Set.copyOf(cache.keySet());
+    }
+
+    /**
+     * @return name of the cache directory for a location
+     */
+    static String entryName(URI location) {
+        return hash(location.toString());
+    }
+
+    /**
+     * @return hexadecimal SHA-256 hash of the text
+     */
+    static String hash(String text) {
         try {
-            LOG.info("Cleaning up the cache directory");
-            FileSystemUtils.deleteRecursively(workDirectory);
-        } catch (IOException e) {
-            LOG.error("Failed to remove caches from {}", workDirectory);
+            final var digest = MessageDigest.getInstance("SHA-256");
+            return hex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        return String.format("%0" + 2 * bytes.length + "x", new BigInteger(1, bytes));
+    }
+
+    /**
+     * @return entry restored from the manifest in the directory, or null if the entry is not complete or corrupt
+     */
+    private @NullOr CacheEntry restore(Path directory) {
+        final var manifest = new Properties();
+        try (var reader = Files.newBufferedReader(directory.resolve(MANIFEST))) {
+            manifest.load(reader);
+            final var location = URI.create(manifest.getProperty("location", ""));
+            final var source = URI.create(manifest.getProperty("source", location.toString()));
+            final var root = directory.resolve(manifest.getProperty("root", ""));
+            if (!location.equals(stripDirectoryPath(location))
+                    || !entryName(location).equals(directory.getFileName().toString()) || !root.startsWith(directory)) {
+                return null;
+            }
+            final var contents = Contents.of(directory.resolve(SOURCES));
+            if (!contents.fingerprint.equals(manifest.getProperty("listing", manifest.getProperty("checksum")))) {
+                LOG.warn("File listing of cached {} was modified", location);
+                return null;
+            }
+            final @NullOr Set<String> paths = manifest.containsKey("complete") ? null
+                    : manifest.stringPropertyNames().stream()
+                    .filter(key -> key.startsWith("path."))
+                    .map(manifest::getProperty)
+                    .collect(Collectors.toSet());
+            final var entry = new CacheEntry(location, source, directory, root, contents.size, paths);
+            entry.revision = manifest.getProperty("revision");
+            entry.archive = manifest.getProperty("archive");
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            return null;
         }
     }
 
     private class CacheEntry {
+        private static final int DISPOSED = -1;
+
         private final URI location;
-        private final Path store;
-        private int usage = 0;
-        private @NullOr Path root;
+        private final URI source;
+        private final CompletableFuture<Path> root = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final AtomicInteger usage = new AtomicInteger();
+        private final AtomicBoolean disposed = new AtomicBoolean();
+        private volatile Path store;
+        private volatile long lastUsed;
+        private volatile long size;
+        private volatile long reserved;
+        private @NullOr Set<String> paths;
+        private volatile @NullOr String revision;
+        private volatile @NullOr String archive;
+        private volatile boolean stale;
+        private final Object cancellation = new Object();
+        private @NullOr Thread downloading;
 
-        CacheEntry(URI location) {
+        CacheEntry(URI location, URI source) {
             LOG.info("Create cache for {}", location);
             this.location = location;
-            store = workDirectory.resolve(UUID.randomUUID().toString());
-            if (!store.toFile().mkdir()) {
+            this.source = source;
+            store = workDirectory.resolve(entryName(location));
+            if (Files.exists(store)) {
+                trash.discard(store);
+            }
+            if (!store.resolve(SOURCES).toFile().mkdirs()) {
                 throw new IllegalStateException("Failed to create cache directory " + store);
             }
         }
 
-        synchronized Path getRoot() {
+        private CacheEntry(URI location, URI source, Path store, Path root, long size, @NullOr Set<String> paths) {
+            this.location = location;
+            this.source = source;
+            this.store = store;
+            this.size = size;
+            this.paths = paths;
+            started.set(true);
+            this.root.complete(root);
+            lastUsed = clock.incrementAndGet();
+            used.addAndGet(size);
+        }
+
+        /**
+         * Downloads the sources if this is the first claim, or waits for the download in progress.
+         *
+         * @param subPath path within the sources that must be available, or null for the complete sources
+         */
+        Path getRoot(@NullOr String subPath) {
+            if (started.compareAndSet(false, true)) {
+                inBackground(() -> download(subPath)).whenComplete((path, error) -> {
+                    if (error != null) {
+                        root.completeExceptionally((error instanceof CompletionException) ? error.getCause() : error);
+                    } else {
+                        root.complete(path);
+                    }
+                });
+            }
+            final var path = await(root);
+            if (!includes(subPath)) {
+                await(inBackground(() -> include(path, subPath)));
+            }
+            return path;
+        }
+
+        /**
+         * Runs a shared task on a background thread under its own claim, so interrupting a requesting thread (or
+         * releasing its claim) does not affect the other requests. The claim is released before the task completes.
+         */
+        private CompletableFuture<Path> inBackground(Supplier<Path> task) {
+            usage.incrementAndGet();
+            return CompletableFuture.supplyAsync(task, downloads)
+                    .whenComplete((result, error) -> DownloadCache.this.release(this));
+        }
+
+        /**
+         * Blocks until a disposed entry has completed its download, so it no longer uses its directory.
+         */
+        void awaitRemoval() {
+            if (!started.get()) {
+                return;
+            }
+            try {
+                root.handle((path, error) -> path).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DownloadException("Interrupted while waiting for the removal of the cache for " + location, e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Path await(CompletableFuture<Path> future) {
             try {
-                if (root == null) {
-                    root = downloader.download(store, location);
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DownloadException("Interrupted while waiting for the sources of " + location, e);
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof RuntimeException)
+                        ? (RuntimeException) e.getCause()
+                        : new DownloadException("Failed to obtain the sources of " + location, e.getCause());
+            }
+        }
+
+        private Path download(@NullOr String subPath) {
+            try {
+                synchronized (cancellation) {
+                    if (usage.compareAndSet(1, DISPOSED)) {
+                        throw new DownloadException("Download of " + location + " was abandoned");
+                    }
+                    downloading = Thread.currentThread();
                 }
-                return root;
+                reserved = admit(location);
+                synchronized (this) {
+                    paths = (subPath != null) ? new HashSet<>(Set.of(subPath)) : null;
+                }
+                final var path = downloader.download(store.resolve(SOURCES), source, subPath);
+                revision = downloader.revision(path, source).orElse(null);
+                archive = downloader.checksum(path, source).orElse(null);
+                final var contents = Contents.of(store.resolve(SOURCES));
+                writeManifest(path, contents);
+                size = contents.size;
+                used.addAndGet(size - reserved);
+                reserved = 0;
+                LOG.info("Cached {} MB for {}", size / MB, location);
+                index();
+                if (used.get() > quota) {
+                    evict(lowWatermark);
+                }
+                return path;
             } catch (Exception e) {
-                synchronized (lock) {
-                    cache.remove(this);
-                    dispose();
+                failures.record(location, e);
+                usage.set(DISPOSED);
+                cache.computeIfPresent(location, (key, current) -> (current == this && detach()) ? null : current);
+                dispose();
+                throw (e instanceof RuntimeException) ? (RuntimeException) e
+                        : new DownloadException("Failed to cache the sources of " + location, e);
+            } finally {
+                synchronized (cancellation) {
+                    downloading = null;
+                    // Drop a cancellation that arrived after the download completed
+                    //noinspection ResultOfMethodCallIgnored
+                    Thread.interrupted();
                 }
-                throw e;
             }
         }
 
-        synchronized boolean isUsed() {
-            return usage > 0;
+        /**
+         * Interrupts the download in progress if only the claim of the download itself is left, blocking further
+         * claims of the entry.
+         */
+        void abandon() {
+            synchronized (cancellation) {
+                final @NullOr Thread thread = downloading;
+                if (thread != null && usage.compareAndSet(1, DISPOSED)) {
+                    LOG.info("Cancel abandoned download of {}", location);
+                    thread.interrupt();
+                }
+            }
         }
 
-        synchronized void claim() {
-            usage++;
-            LOG.info("Claim #{} of cache for {}", usage, location);
+        /**
+         * Registers the entry under the checksum of its archive.
+         */
+        void index() {
+            final @NullOr String checksum = archive;
+            if (checksum != null) {
+                checksums.put(checksum, this);
+            }
         }
 
-        synchronized void release() {
-            LOG.info("Release #{} of cache for {}", usage, location);
-            usage--;
+        /**
+         * Marks the entry stale if the checksum does not match, so it is disposed when it is no longer used.
+         *
+         * @param checksum expected checksum of the archive, or null if unknown
+         * @throws DownloadException if the checksum does not match
+         */
+        void verify(@NullOr String checksum) {
+            final @NullOr String actual = archive;
+            if (checksum == null || checksum.equals(actual)) {
+                return;
+            }
+            if (actual == null) {
+                LOG.warn("Cannot verify the checksum of sources from {}", location);
+                return;
+            }
+            stale = true;
+            checksums.remove(actual, this);
+            throw new DownloadException("Checksum of the archive from " + location + " does not match");
         }
 
-        void dispose() {
+        boolean isStale() {
+            return stale;
+        }
+
+        boolean isComplete() {
+            return root.isDone() && !root.isCompletedExceptionally();
+        }
+
+        /**
+         * @return true if the (partial) download contains the sub-path
+         */
+        private synchronized boolean includes(@NullOr String subPath) {
+            final @NullOr Set<String> included = paths;
+            return included == null || (subPath != null && included.stream()
+                    .anyMatch(prefix -> subPath.equals(prefix) || subPath.startsWith(prefix + '/')));
+        }
+
+        /**
+         * Extends a partial download with the sub-path, if it is not yet included.
+         *
+         * @return root directory of the sources
+         */
+        private synchronized Path include(Path path, @NullOr String subPath) {
+            if (includes(subPath)) {
+                return path;
+            }
+            LOG.info("Extend cache for {} with sub-path '{}'", location, subPath);
+            downloader.include(path, source, subPath);
+            if (subPath != null) {
+                //noinspection ConstantConditions
+                paths.add(subPath);
+            } else {
+                paths = null;
+            }
             try {
-                LOG.info("Dispose cache for {}", location);
-                FileSystemUtils.deleteRecursively(store);
+                final var contents = Contents.of(store.resolve(SOURCES));
+                writeManifest(path, contents);
+                used.addAndGet(contents.size - size);
+                size = contents.size;
             } catch (IOException e) {
-                LOG.warn("Could not remove cache directory " + store);
+                throw new DownloadException("Failed to update cache for " + location, e);
+            }
+            return path;
+        }
+
+        /**
+         * Marks the entry as complete by (atomically) writing its manifest.
+         */
+        private synchronized void writeManifest(Path path, Contents contents) throws IOException {
+            final var manifest = new Properties();
+            manifest.setProperty("location", location.toString());
+            manifest.setProperty("source", source.toString());
+            manifest.setProperty("root", store.relativize(path).toString());
+            manifest.setProperty("size", Long.toString(contents.size));
+            manifest.setProperty("listing", contents.fingerprint);
+            final @NullOr String commit = revision;
+            if (commit != null) {
+                manifest.setProperty("revision", commit);
+            }
+            final @NullOr String checksum = archive;
+            if (checksum != null) {
+                manifest.setProperty("archive", checksum);
+            }
+            final @NullOr Set<String> included = paths;
+            if (included == null) {
+                manifest.setProperty("complete", "true");
+            } else {
+                var index = 0;
+                for (var subPath : included) {
+                    manifest.setProperty("path." + index++, subPath);
+                }
+            }
+            final var temp = store.resolve(MANIFEST + ".tmp");
+            try (var writer = Files.newBufferedWriter(temp)) {
+                manifest.store(writer, "Cached sources");
+            }
+            Files.move(temp, store.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        long lastUsed() {
+            return lastUsed;
+        }
+
+        boolean isUsed() {
+            return usage.get() > 0;
+        }
+
+        /**
+         * @return false if the entry was already disposed
+         */
+        boolean claim() {
+            int count;
+            do {
+                count = usage.get();
+                if (count == DISPOSED) {
+                    return false;
+                }
+            } while (!usage.compareAndSet(count, count + 1));
+            lastUsed = clock.incrementAndGet();
+            touch();
+            LOG.info("Claim #{} of cache for {}", count + 1, location);
+            return true;
+        }
+
+        /**
+         * Records the use of a complete entry, to restore the usage order after a restart.
+         */
+        private void touch() {
+            if (root.isDone()) {
+                try {
+                    Files.setLastModifiedTime(store.resolve(MANIFEST), FileTime.from(Instant.now()));
+                } catch (IOException e) {
+                    LOG.debug("Could not touch manifest of {}", location);
+                }
+            }
+        }
+
+        void release() {
+            final var count = usage.getAndUpdate(c -> (c > 0) ? c - 1 : c);
+            LOG.info("Release #{} of cache for {}", count, location);
+        }
+
+        /**
+         * @return true if the (unused) entry is now blocked for further claims
+         */
+        boolean retire() {
+            return usage.compareAndSet(0, DISPOSED);
+        }
+
+        /**
+         * Moves the directory into the trash, so a new entry for the same location can be created.
+         *
+         * @return true
+         */
+        boolean detach() {
+            store = trash.move(store);
+            return true;
+        }
+
+        void dispose() {
+            if (!disposed.compareAndSet(false, true)) {
+                return;
+            }
+            used.addAndGet(-(size + reserved));
+            reserved = 0;
+            LOG.info("Dispose cache for {}", location);
+            cache.values().removeIf(entry -> entry == this);
+            final @NullOr String checksum = archive;
+            if (checksum != null) {
+                checksums.remove(checksum, this);
+            }
+            trash.delete(store);
+        }
+    }
+
+    /**
+     * Total size and a fingerprint of the listing (names and sizes) of all files in a directory. The fingerprint
+     * detects incomplete and added or removed files, but not files whose content was modified in place.
+     */
+    private static final class Contents {
+        final long size;
+        final String fingerprint;
+
+        private Contents(long size, String fingerprint) {
+            this.size = size;
+            this.fingerprint = fingerprint;
+        }
+
+        static Contents of(Path directory) throws IOException {
+            try (var stream = Files.walk(directory)) {
+                final var files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                final var digest = MessageDigest.getInstance("SHA-256");
+                long size = 0;
+                for (var file : files) {
+                    final var length = Files.size(file);
+                    size += length;
+                    digest.update((directory.relativize(file) + "\t" + length + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                return new Contents(size, hex(digest.digest()));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not supported", e);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
         }
     }
@@ -6,16 +6,56 @@
 package com.philips.research.licensescanner.core.domain.download;
 
 import com.philips.research.licensescanner.core.BusinessException;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.util.Optional;
 
 /**
  * Exception thrown in case downloading of package sources failed.
  */
 public class DownloadException extends BusinessException {
+    private final @NullOr Failure failure;
+
     public DownloadException(String message) {
+        this(message, (Failure) null);
+    }
+
+    public DownloadException(String message, @NullOr Failure failure) {
         super(message);
+        this.failure = failure;
     }
 
     public DownloadException(String message, Throwable cause) {
+        this(message, null, cause);
+    }
+
+    public DownloadException(String message, @NullOr Failure failure, Throwable cause) {
         super(message, cause);
+        this.failure = failure;
+    }
+
+    /**
+     * @return class of the failure, if it is known to persist for some time
+     */
+    public Optional<Failure> getFailure() {
+        return Optional.ofNullable(failure);
+    }
+
+    /**
+     * Classes of download failures that are likely to repeat when retried soon.
+     */
+    public enum Failure {
+        /**
+         * The location, or the requested version at the location, does not exist.
+         */
+        NOT_FOUND,
+        /**
+         * The location did not respond in time.
+         */
+        TIMEOUT,
+        /**
+         * The location requires credentials.
+         */
+        AUTHENTICATION
     }
 }
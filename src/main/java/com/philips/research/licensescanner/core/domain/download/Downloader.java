@@ -5,13 +5,17 @@
 
 package com.philips.research.licensescanner.core.domain.download;
 
+import com.philips.research.licensescanner.ApplicationConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import pl.tlinkowski.annotation.basic.NullOr;
 
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Version control handler API.
@@ -25,6 +29,50 @@ interface VcsHandler {
      * @return base directory of the download result
      */
     Path download(Path directory, URI location);
+
+    /**
+     * Downloads package sources, limited to a sub-path (and the files in the root) if the handler supports it.
+     *
+     * @param subPath path within the sources that must be downloaded, or null for the complete sources
+     * @return base directory of the download result
+     */
+    default Path download(Path directory, URI location, @NullOr String subPath) {
+        return download(directory, location);
+    }
+
+    /**
+     * Extends a limited download with another sub-path.
+     *
+     * @param directory base directory of the download result
+     * @param subPath   path within the sources to add, or null to complete the sources
+     */
+    default void include(Path directory, @NullOr String subPath) {
+    }
+
+    /**
+     * @param directory base directory of the download result
+     * @return identifier of the downloaded revision (like a commit hash), if known
+     */
+    default Optional<String> revision(Path directory) {
+        return Optional.empty();
+    }
+
+    /**
+     * @param directory base directory of the download result
+     * @return hexadecimal SHA-256 checksum of the downloaded archive, if the sources were downloaded as a single file
+     */
+    default Optional<String> checksum(Path directory) {
+        return Optional.empty();
+    }
+
+    /**
+     * @param location download location using the format of {@link #download(Path, URI)}
+     * @return identifier of the revision the location currently refers to (like the commit of a branch), if it can
+     * be determined without downloading the sources
+     */
+    default Optional<String> currentRevision(URI location) {
+        return Optional.empty();
+    }
 }
 
 /**
@@ -32,18 +80,33 @@ interface VcsHandler {
  */
 @Component
 public class Downloader {
+    private static final String MIRROR_DIRECTORY = "license-scanner-mirrors";
+    private static final String MIRROR_TRASH_DIRECTORY = "license-scanner-mirror-trash";
+    private static final long MB = 1024L * 1024L;
+    private static final String PURL_SCHEME = "pkg";
+
     private final Map<String, VcsHandler> registry = new HashMap<>();
 
     @Autowired
-    public Downloader() {
-        register("", new AnonymousVcsHandler());
-        register("git", new GitVcsHandler());
+    public Downloader(ApplicationConfiguration configuration) {
+        final var files = new AnonymousVcsHandler();
+        register("", files);
+        register("git", new GitVcsHandler(configuration.getTempDir().resolve(MIRROR_DIRECTORY),
+                configuration.getTempDir().resolve(MIRROR_TRASH_DIRECTORY), configuration.getMirrorQuota() * MB));
+        registerRegistry("npm", RegistryVcsHandler.Layout.NPM, configuration.getNpmRegistry(), files);
+        registerRegistry("pypi", RegistryVcsHandler.Layout.PYPI, configuration.getPypiRegistry(), files);
+        registerRegistry("maven", RegistryVcsHandler.Layout.MAVEN, configuration.getMavenRegistry(), files);
+        registerRegistry("cargo", RegistryVcsHandler.Layout.CARGO, configuration.getCargoRegistry(), files);
+    }
+
+    private void registerRegistry(String type, RegistryVcsHandler.Layout layout, URI registry, VcsHandler files) {
+        register(PURL_SCHEME + ':' + type, new RegistryVcsHandler(layout, registry, files));
     }
 
     /**
      * Registers a download handler for a single tool.
      *
-     * @param tool tool identifier
+     * @param tool tool identifier, or "pkg:" followed by the package type for downloads from a package registry
      */
     void register(String tool, VcsHandler handler) {
         registry.put(tool, handler);
@@ -52,7 +115,8 @@ public class Downloader {
     /**
      * Downloads the source of a package from the provided location.
      *
-     * @param location download location using the format {@code <vcs_tool>+<transport>://<host_name>[/<path_to_repository>][@<revision_tag_or_branch>][#<sub_path>]}
+     * @param location download location using the format {@code <vcs_tool>+<transport>://<host_name>[/<path_to_repository>][@<revision_tag_or_branch>][#<sub_path>]},
+     *                 or a package URL to download the published archive from its package registry
      * @return path to the downloaded sources
      * @throws DownloadException if downloading failed or no handler matches the location.
      */
@@ -63,10 +127,67 @@ public class Downloader {
         return handler.download(directory, uri);
     }
 
+    /**
+     * Downloads the source of a package from the provided location, limited to a sub-path if possible.
+     *
+     * @param subPath path within the sources that must be downloaded, or null for the complete sources
+     * @return path to the downloaded sources
+     * @throws DownloadException if downloading failed or no handler matches the location.
+     */
+    public Path download(Path directory, URI location, @NullOr String subPath) {
+        if (subPath == null) {
+            return download(directory, location);
+        }
+        return validHandler(location).download(directory, downloadUri(location), subPath);
+    }
+
+    /**
+     * Extends a download that was limited to a sub-path.
+     *
+     * @param directory path to the downloaded sources
+     * @param location  download location of the sources
+     * @param subPath   path within the sources to add, or null to complete the sources
+     */
+    public void include(Path directory, URI location, @NullOr String subPath) {
+        validHandler(location).include(directory, subPath);
+    }
+
+    /**
+     * @param directory path to the downloaded sources
+     * @param location  download location of the sources
+     * @return identifier of the downloaded revision, if known
+     */
+    public Optional<String> revision(Path directory, URI location) {
+        return validHandler(location).revision(directory);
+    }
+
+    /**
+     * @param directory path to the downloaded sources
+     * @param location  download location of the sources
+     * @return hexadecimal SHA-256 checksum of the downloaded archive, if known
+     */
+    public Optional<String> checksum(Path directory, URI location) {
+        return validHandler(location).checksum(directory);
+    }
+
+    /**
+     * @param location download location of the sources
+     * @return identifier of the revision the location currently refers to, if it can be determined without
+     * downloading the sources
+     */
+    public Optional<String> currentRevision(URI location) {
+        return validHandler(location).currentRevision(downloadUri(location));
+    }
+
+    /**
+     * @return true if a handler is registered for the location
+     */
+    public boolean supports(URI location) {
+        return location.getScheme() != null && registry.containsKey(tool(location));
+    }
+
     private VcsHandler validHandler(URI location) {
-        final var scheme = location.getScheme();
-        final var pos = scheme.indexOf('+');
-        final var tool = (pos >= 0) ? scheme.substring(0, pos) : "";
+        final var tool = tool(location);
 
         final var handler = registry.get(tool);
         if (handler == null) {
@@ -75,6 +196,17 @@ public class Downloader {
         return handler;
     }
 
+    private static String tool(URI location) {
+        final var scheme = location.getScheme();
+        if (PURL_SCHEME.equalsIgnoreCase(scheme)) {
+            final var path = location.getSchemeSpecificPart().replaceAll("^/+", "");
+            final var pos = path.indexOf('/');
+            return PURL_SCHEME + ':' + ((pos >= 0) ? path.substring(0, pos) : path).toLowerCase(Locale.ROOT);
+        }
+        final var pos = scheme.indexOf('+');
+        return (pos >= 0) ? scheme.substring(0, pos) : "";
+    }
+
     private URI downloadUri(URI location) {
         final var pos = location.getScheme().indexOf('+');
         if (pos >= 0) {
@@ -7,33 +7,199 @@ package com.philips.research.licensescanner.core.domain.download;
 
 import com.philips.research.licensescanner.core.command.ShellCommand;
 import com.philips.research.licensescanner.core.command.ShellException;
+import com.philips.research.licensescanner.core.command.ShellTimeoutException;
+import com.philips.research.licensescanner.core.domain.download.DownloadException.Failure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pl.tlinkowski.annotation.basic.NullOr;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * GIT version control downloader.
  * Expects command line "git" to be installed.
+ * <p>
+ * The requested version is resolved to a commit using a (briefly cached) listing of the references of the remote
+ * repository (unless it is a full commit hash), and only that commit is fetched into a local bare mirror of the repository. The commit is checked out
+ * from the mirror as a lightweight repository that shares the objects of the mirror. Scanning another version of a
+ * known repository therefore only costs the transfer of the changed objects.
+ * <p>
+ * To limit network and disk usage, large blobs are only fetched on demand, checkouts can be limited to a sub-path
+ * (and the files in the root of the repository), and Git LFS content is not retrieved. The least recently used
+ * mirrors are removed when the mirrors exceed their disk quota. (Checkouts from a removed mirror fetch missing
+ * objects from the remote repository on demand.) Removed mirrors are moved into a trash directory, and deleted in the
+ * background.
  */
 public class GitVcsHandler implements VcsHandler {
     public static final Logger LOG = LoggerFactory.getLogger(GitVcsHandler.class);
+    private static final Duration TIMEOUT = Duration.ofMinutes(5);
+    private static final Duration REFERENCES_TTL = Duration.ofMinutes(5);
+    private static final String BLOB_FILTER = "blob:limit=1m";
+    private static final Pattern COMMIT = Pattern.compile("[0-9a-f]{40}");
+    private static final Pattern ABBREVIATED_COMMIT = Pattern.compile("[0-9a-f]{4,39}");
+    private static final long MB = 1024L * 1024L;
 
-    private final ShellCommand git = new ShellCommand("git").setTimeout(Duration.ofMinutes(5));
+    private final Path mirrors;
+    private final Trash trash;
+    private final long quota;
+    private final Map<Path, Mirror> known = new HashMap<>();
+    private final Map<String, References> remotes = new ConcurrentHashMap<>();
+    private long clock;
+
+    /**
+     * @param mirrors directory holding the mirrors of all repositories
+     * @param trash   directory for removed mirrors that are deleted in the background
+     * @param quota   maximum number of bytes used by the mirrors
+     */
+    public GitVcsHandler(Path mirrors, Path trash, long quota) {
+        this.mirrors = mirrors;
+        this.trash = new Trash(trash);
+        this.quota = quota;
+        restore();
+    }
+
+    /**
+     * Registers the mirrors left by a previous run.
+     */
+    private void restore() {
+        try (var stream = Files.list(mirrors)) {
+            stream.filter(Files::isDirectory).forEach(path -> {
+                final var mirror = new Mirror(path);
+                mirror.size = size(path);
+                known.put(path, mirror);
+            });
+        } catch (IOException e) {
+            // No mirrors yet
+        }
+    }
 
     @Override
     public Path download(Path directory, URI location) {
-        git.setDirectory(directory.toFile());
+        return download(directory, location, null);
+    }
 
-        checkout(directory, repositoryFrom(location), versionFrom(location));
+    @Override
+    public Path download(Path directory, URI location, @NullOr String subPath) {
+        final var repository = repositoryFrom(location);
+        final var version = versionFrom(location);
+        final var path = mirrors.resolve(DownloadCache.hash(repository));
+
+        final @NullOr String resolved = resolve(repository, version).orElse(null);
+        final var mirror = claim(path);
+        try {
+            final String commit;
+            synchronized (mirror) {
+                prepare(path, repository);
+                commit = fetch(path, version, resolved);
+                mirror.size = size(path);
+            }
+            checkout(path, directory, repository, commit, subPath);
+        } finally {
+            release(mirror);
+        }
+        evict();
 
         return directory;
     }
 
+    /**
+     * Blocks the mirror from eviction until it is released.
+     */
+    private Mirror claim(Path path) {
+        synchronized (known) {
+            final var mirror = known.computeIfAbsent(path, Mirror::new);
+            mirror.users++;
+            mirror.lastUsed = ++clock;
+            return mirror;
+        }
+    }
+
+    /**
+     * Releases a claimed mirror, forgetting it if its creation failed.
+     */
+    private void release(Mirror mirror) {
+        synchronized (known) {
+            mirror.users--;
+            if (mirror.users == 0 && !mirror.path.toFile().exists()) {
+                known.remove(mirror.path, mirror);
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used unclaimed mirrors until the mirrors fit their quota.
+     */
+    private void evict() {
+        synchronized (known) {
+            var total = known.values().stream().mapToLong(mirror -> mirror.size).sum();
+            if (total <= quota) {
+                return;
+            }
+            final var candidates = known.values().stream()
+                    .filter(mirror -> mirror.users == 0)
+                    .sorted(Comparator.comparingLong(mirror -> mirror.lastUsed))
+                    .collect(Collectors.toList());
+            for (var mirror : candidates) {
+                if (total <= quota) {
+                    break;
+                }
+                LOG.info("Evict mirror {} of {} MB", mirror.path, mirror.size / MB);
+                known.remove(mirror.path);
+                trash.discard(mirror.path);
+                total -= mirror.size;
+            }
+        }
+    }
+
+    private static long size(Path directory) {
+        try (var stream = Files.walk(directory)) {
+            return stream.filter(Files::isRegularFile)
+                    .mapToLong(path -> path.toFile().length())
+                    .sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void include(Path directory, @NullOr String subPath) {
+        try {
+            if (subPath != null) {
+                git(directory).execute("sparse-checkout", "add", subPath);
+            } else {
+                git(directory).execute("sparse-checkout", "disable");
+            }
+        } catch (ShellException e) {
+            throw new DownloadException("Checkout of sub-path '" + subPath + "' failed", e);
+        }
+    }
+
+    @Override
+    public Optional<String> revision(Path directory) {
+        return revision(directory, "HEAD");
+    }
+
+    @Override
+    public Optional<String> currentRevision(URI location) {
+        final var version = versionFrom(location);
+        if (ABBREVIATED_COMMIT.matcher(version).matches()) {
+            return Optional.empty();
+        }
+        return resolve(repositoryFrom(location), version);
+    }
+
     private String repositoryFrom(URI location) {
         final var raw = location.getRawSchemeSpecificPart();
         final var pos = raw.indexOf('@');
@@ -57,51 +223,242 @@ public class GitVcsHandler implements VcsHandler {
         return (pos >= 0) ? raw.substring(pos + 1) : "";
     }
 
-    private void checkout(Path target, String repository, String version) {
-        if (version.isBlank()) {
-            checkoutDefaultBranch(target, repository);
-        } else {
-            checkoutVersion(target, repository, version);
+    private ShellCommand git(Path directory) {
+        return new ShellCommand("git").setDirectory(directory.toFile()).setTimeout(TIMEOUT)
+                .setCaptureErrors(true)
+                .setEnvironment("GIT_LFS_SKIP_SMUDGE", "1")
+                .setEnvironment("GIT_TERMINAL_PROMPT", "0");
+    }
+
+    /**
+     * Resolves a version to a commit using the references of the remote repository.
+     * Full commit hashes are used as-is, without listing the references.
+     *
+     * @return commit hash, or empty if the version is not a branch, tag or full commit hash
+     */
+    private Optional<String> resolve(String repository, String version) {
+        if (COMMIT.matcher(version).matches()) {
+            return Optional.of(version);
+        }
+        var references = remotes.get(repository);
+        final var cached = references != null && references.expires.isAfter(Instant.now());
+        if (!cached) {
+            references = listReferences(repository);
+        }
+        final var commit = references.resolve(version);
+        if (commit.isEmpty() && cached) {
+            // The version may have been published after the references were listed
+            return listReferences(repository).resolve(version);
         }
+        return commit;
     }
 
-    private void checkoutDefaultBranch(Path target, String repository) {
+    private References listReferences(String repository) {
         try {
-            LOG.info("Checkout default branch from {} to {}", repository, target);
-            git.execute("clone", "--depth=1", repository, target);
+            Files.createDirectories(mirrors);
+            LOG.info("List references of {}", repository);
+            final var output = git(mirrors).query("ls-remote", repository, "HEAD", "refs/heads/*", "refs/tags/*");
+            final var references = new References(output, Instant.now().plus(REFERENCES_TTL));
+            remotes.values().removeIf(value -> value.expires.isBefore(Instant.now()));
+            remotes.put(repository, references);
+            return references;
         } catch (ShellException e) {
-            throw new DownloadException("Checkout of default branch failed", e);
+            throw new DownloadException("Checkout failed to list the references of " + repository, failure(e), e);
+        } catch (IOException e) {
+            throw new DownloadException("Checkout failed to list the references of " + repository, e);
         }
     }
 
-    private void checkoutVersion(Path target, String repository, String version) {
+    /**
+     * Creates the bare mirror of a repository, if it does not exist yet.
+     */
+    private void prepare(Path mirror, String repository) {
+        if (mirror.resolve("HEAD").toFile().exists()) {
+            return;
+        }
         try {
-            checkoutBranchOrTag(target, repository, version, 'v' + version);
-        } catch (DownloadException e) {
-            LOG.info("Checkout by version branch or tag failed; attempting checkout by commit");
-            checkoutCommit(target, repository, version);
+            LOG.info("Create mirror of {} in {}", repository, mirror);
+            Files.createDirectories(mirror);
+            git(mirror).execute("init", "--bare", "--quiet")
+                    .execute("config", "remote.origin.url", repository)
+                    .execute("config", "remote.origin.promisor", "true")
+                    .execute("config", "remote.origin.partialclonefilter", BLOB_FILTER)
+                    .execute("config", "gc.pruneExpire", "never");
+        } catch (IOException | ShellException e) {
+            trash.discard(mirror);
+            throw new DownloadException("Checkout failed to create a mirror of " + repository, e);
         }
     }
 
-    private void checkoutBranchOrTag(Path target, String repository, String... tags) {
-        for (var tag : tags) {
-            try {
-                git.execute("clone", "--depth=1", repository, "--branch", tag, target);
-                LOG.info("Checked out branch/tag '{}' from {} to {}", tag, repository, target);
-                return;
-            } catch (ShellException e) {
-                LOG.info("Failed to checkout from branch or tag '{}'", tag);
-            }
+    /**
+     * Makes the commit for a version available in the mirror.
+     *
+     * @param resolved commit resolved from the remote references, if any
+     * @return commit hash
+     */
+    private String fetch(Path mirror, String version, @NullOr String resolved) {
+        if (resolved != null) {
+            return fetchCommit(mirror, resolved);
         }
-        throw new DownloadException("Failed to checkout by branch/tag");
+        if (ABBREVIATED_COMMIT.matcher(version).matches()) {
+            fetchHistory(mirror);
+            return revision(mirror, version)
+                    .orElseThrow(() -> new DownloadException("Checkout by commit failed",
+                            DownloadException.Failure.NOT_FOUND));
+        }
+        throw new DownloadException("Checkout failed: no branch, tag or commit matches '" + version + "'",
+                DownloadException.Failure.NOT_FOUND);
     }
 
-    private void checkoutCommit(Path target, String repository, String commitHash) {
+    /**
+     * Fetches a single commit without its history, unless it is already in the mirror.
+     */
+    private String fetchCommit(Path mirror, String commit) {
+        if (isFetched(mirror, commit)) {
+            LOG.info("Commit '{}' is already in mirror {}", commit, mirror);
+            return commit;
+        }
         try {
-            LOG.info("Checking out commit '{}' from {} to {}", commitHash, repository, target);
-            git.execute("clone", repository, target).execute("checkout", commitHash);
+            LOG.info("Fetch commit '{}' into mirror {}", commit, mirror);
+            git(mirror).execute("fetch", "--quiet", "--depth=1", "--filter=" + BLOB_FILTER,
+                    "origin", '+' + commit + ":refs/revisions/" + commit);
+            return commit;
+        } catch (ShellException e) {
+            throw new DownloadException("Checkout by commit failed", failure(e), e);
+        }
+    }
+
+    /**
+     * Classifies a failed git command from its error output.
+     *
+     * @return class of the failure, or null if the failure is not known to persist (like an interrupt)
+     */
+    private static @NullOr Failure failure(ShellException exception) {
+        if (exception instanceof ShellTimeoutException) {
+            return Failure.TIMEOUT;
+        }
+        if (exception.getCause() != null) {
+            return null;
+        }
+        final var message = String.valueOf(exception.getMessage()).toLowerCase(Locale.ROOT);
+        if (message.contains("authentication failed") || message.contains("could not read username")) {
+            return Failure.AUTHENTICATION;
+        }
+        if (message.contains("not found") || message.contains("does not exist")) {
+            return Failure.NOT_FOUND;
+        }
+        return null;
+    }
+
+    /**
+     * Fetches the complete history of all branches and tags, to resolve abbreviated commit hashes.
+     */
+    private void fetchHistory(Path mirror) {
+        try {
+            LOG.info("Fetch history into mirror {}", mirror);
+            final var args = new ArrayList<Object>(List.of("fetch", "--quiet", "--filter=" + BLOB_FILTER));
+            if (mirror.resolve("shallow").toFile().exists()) {
+                args.add("--unshallow");
+            }
+            args.addAll(List.of("origin", "+refs/heads/*:refs/heads/*", "+refs/tags/*:refs/tags/*"));
+            git(mirror).execute(args);
         } catch (ShellException e) {
             throw new DownloadException("Checkout by commit failed", e);
         }
     }
+
+    /**
+     * Checks the reference to a fetched commit, because resolving a missing object triggers a fetch from the remote.
+     */
+    private boolean isFetched(Path mirror, String commit) {
+        try {
+            git(mirror).execute("show-ref", "--verify", "--quiet", "refs/revisions/" + commit);
+            return true;
+        } catch (ShellException e) {
+            return false;
+        }
+    }
+
+    private Optional<String> revision(Path directory, String name) {
+        try {
+            return Optional.of(git(directory).query("rev-parse", "--verify", "--quiet", name + "^{commit}").trim());
+        } catch (ShellException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Checks out a commit using the objects of the mirror, fetching omitted large blobs from the remote repository
+     * when needed.
+     */
+    private void checkout(Path mirror, Path target, String repository, String commit, @NullOr String subPath) {
+        try {
+            LOG.info("Checkout commit '{}' from {} to {}", commit, mirror, target);
+            final var git = git(target).execute("init", "--quiet");
+            final var metadata = target.resolve(".git");
+            Files.writeString(metadata.resolve("objects").resolve("info").resolve("alternates"),
+                    mirror.resolve("objects").toAbsolutePath() + "\n");
+            final var shallow = mirror.resolve("shallow");
+            if (shallow.toFile().exists()) {
+                Files.copy(shallow, metadata.resolve("shallow"));
+            }
+            git.execute("config", "remote.origin.url", repository)
+                    .execute("config", "remote.origin.promisor", "true")
+                    .execute("config", "remote.origin.partialclonefilter", BLOB_FILTER);
+            if (subPath != null) {
+                git.execute("sparse-checkout", "set", "--cone", subPath);
+            }
+            git.execute("checkout", "--quiet", "--detach", commit);
+        } catch (IOException | ShellException e) {
+            throw new DownloadException("Checkout of commit '" + commit + "' failed", e);
+        }
+    }
+
+    /**
+     * Usage administration of the local mirror of a repository.
+     */
+    private static class Mirror {
+        private final Path path;
+        private int users;
+        private long lastUsed;
+        private volatile long size;
+
+        Mirror(Path path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * Branches and tags of a remote repository.
+     */
+    private static class References {
+        private final Map<String, String> commits = new HashMap<>();
+        private final Instant expires;
+
+        References(String listing, Instant expires) {
+            this.expires = expires;
+            listing.lines()
+                    .map(line -> line.split("\t"))
+                    .filter(parts -> parts.length == 2)
+                    .forEach(parts -> commits.put(parts[1], parts[0]));
+        }
+
+        /**
+         * @return commit for the version, preferring (annotated) tags over branches
+         */
+        Optional<String> resolve(String version) {
+            if (version.isBlank()) {
+                return Optional.ofNullable(commits.get("HEAD"));
+            }
+            for (var name : List.of(version, 'v' + version)) {
+                for (var reference : List.of("refs/tags/" + name + "^{}", "refs/tags/" + name, "refs/heads/" + name)) {
+                    final @NullOr String commit = commits.get(reference);
+                    if (commit != null) {
+                        return Optional.of(commit);
+                    }
+                }
+            }
+            return Optional.empty();
+        }
+    }
 }
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import com.philips.research.licensescanner.core.domain.download.DownloadException.Failure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pooled HTTP client for downloading (large) files.
+ * <p>
+ * Connections are reused across downloads and negotiate HTTP/2 where possible. Dropped transfers are resumed using
+ * range requests, and large files are fetched in parallel segments if the server supports ranges.
+ */
+class HttpDownloader {
+    static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    static final Duration READ_TIMEOUT = Duration.ofMinutes(2);
+    static final long SEGMENT_THRESHOLD = 64L * 1024 * 1024;
+    static final int SEGMENTS = 4;
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpDownloader.class);
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MS = 500;
+
+    private final HttpClient client;
+    private final Duration readTimeout;
+    private final long segmentThreshold;
+    private final ExecutorService segments = Executors.newCachedThreadPool(daemon("http-segment"));
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(daemon("http-watchdog"));
+
+    HttpDownloader() {
+        this(CONNECT_TIMEOUT, READ_TIMEOUT, SEGMENT_THRESHOLD);
+    }
+
+    HttpDownloader(Duration connectTimeout, Duration readTimeout, long segmentThreshold) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .build();
+        this.readTimeout = readTimeout;
+        this.segmentThreshold = segmentThreshold;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            final var thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return true if the location can be downloaded by this client
+     */
+    static boolean supports(URI location) {
+        return "http".equalsIgnoreCase(location.getScheme()) || "https".equalsIgnoreCase(location.getScheme());
+    }
+
+    /**
+     * Opens a stream on the content of the location, transparently resuming the transfer after a dropped connection.
+     * Large files are fetched in parallel segments, which are spooled to temporary files until they are read.
+     *
+     * @param location  HTTP(S) URI of the file
+     * @param directory directory to hold the temporary files of the segments
+     * @return content stream
+     */
+    InputStream open(URI location, Path directory) throws IOException {
+        final var transfer = new Transfer(location, null, 0, -1);
+        transfer.start();
+        final var length = transfer.length;
+        if (length < segmentThreshold || !transfer.ranges) {
+            return transfer;
+        }
+
+        final var size = (length + SEGMENTS - 1) / SEGMENTS;
+        LOG.info("Download {} bytes from {} in {} segments", length, location, SEGMENTS);
+        transfer.end = size;
+        final List<InputStream> parts = new ArrayList<>();
+        parts.add(transfer);
+        for (long start = size; start < length; start += size) {
+            parts.add(new Segment(directory, location, transfer.validator, start, Math.min(start + size, length)));
+        }
+        return new SequenceInputStream(Collections.enumeration(parts)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                for (var part : parts) {
+                    part.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Resumable stream on a byte range of a resource.
+     */
+    private class Transfer extends InputStream {
+        private final URI location;
+        private long position;
+        private long end;
+        private long length = -1;
+        private boolean ranges;
+        private @NullOr String validator;
+        private volatile @NullOr InputStream body;
+        private @NullOr ScheduledFuture<?> watch;
+        private volatile long lastRead;
+        private volatile boolean stalled;
+        private volatile boolean closed;
+        private int attempts;
+
+        Transfer(URI location, @NullOr String validator, long start, long end) {
+            this.location = location;
+            this.validator = validator;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Connects to the server, retrying temporary failures.
+         */
+        void start() throws IOException {
+            while (true) {
+                try {
+                    connect();
+                    return;
+                } catch (IOException e) {
+                    if (++attempts >= MAX_ATTEMPTS || e instanceof InterruptedIOException) {
+                        throw e;
+                    }
+                    LOG.warn("Retry download of {}: {}", location, e.getMessage());
+                    pause(attempts);
+                }
+            }
+        }
+
+        /**
+         * Requests the remaining content of the range.
+         *
+         * @throws DownloadException if the request cannot succeed by retrying
+         */
+        void connect() throws IOException {
+            final var builder = HttpRequest.newBuilder(location).timeout(readTimeout).GET();
+            if (position > 0 || end >= 0) {
+                builder.header("Range", "bytes=" + position + "-" + ((end >= 0) ? String.valueOf(end - 1) : ""));
+                if (validator != null) {
+                    builder.header("If-Range", validator);
+                }
+            }
+            final HttpResponse<InputStream> response;
+            try {
+                response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download of " + location + " was interrupted");
+            }
+            final var status = response.statusCode();
+            if (status != 200 && status != 206) {
+                response.body().close();
+                final var message = "Server responded with status " + status + " for " + location;
+                if (status < 500 && status != 429) {
+                    throw new DownloadException(message, failure(status));
+                }
+                throw new IOException(message);
+            }
+            final var headers = response.headers();
+            final @NullOr String tag = headers.firstValue("ETag")
+                    .or(() -> headers.firstValue("Last-Modified"))
+                    .filter(value -> !value.startsWith("W/"))
+                    .orElse(null);
+            if (validator != null && tag != null && !validator.equals(tag)) {
+                response.body().close();
+                throw new DownloadException("Content of " + location + " changed during download");
+            }
+            validator = tag;
+            ranges = status == 206 || headers.firstValue("Accept-Ranges").map("bytes"::equalsIgnoreCase).orElse(false);
+            final var stream = response.body();
+            if (status == 200) {
+                length = headers.firstValueAsLong("Content-Length").orElse(-1);
+                skip(stream, position);
+            } else if (length < 0) {
+                length = headers.firstValue("Content-Range")
+                        .map(range -> range.substring(range.lastIndexOf('/') + 1))
+                        .filter(total -> !total.equals("*"))
+                        .map(Long::parseLong).orElse(-1L);
+            }
+            body = stream;
+            lastRead = System.nanoTime();
+            stalled = false;
+            final var period = Math.max(1, readTimeout.toMillis() / 2);
+            watch = watchdog.scheduleAtFixedRate(this::checkProgress, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        private @NullOr Failure failure(int status) {
+            switch (status) {
+                case 401:
+                case 403:
+                case 407:
+                    return Failure.AUTHENTICATION;
+                case 404:
+                case 410:
+                    return Failure.NOT_FOUND;
+                default:
+                    return null;
+            }
+        }
+
+        private void skip(InputStream stream, long count) throws IOException {
+            var remaining = count;
+            while (remaining > 0) {
+                final var skipped = stream.skip(remaining);
+                if (skipped > 0) {
+                    remaining -= skipped;
+                } else if (stream.read() >= 0) {
+                    remaining--;
+                } else {
+                    throw new EOFException("Content of " + location + " is shorter than expected");
+                }
+            }
+        }
+
+        private void checkProgress() {
+            if (System.nanoTime() - lastRead > readTimeout.toNanos()) {
+                stalled = true;
+                closeQuietly(body);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            final var buffer = new byte[1];
+            return (read(buffer, 0, 1) < 0) ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int len) throws IOException {
+            while (true) {
+                if (closed) {
+                    throw new IOException("Download of " + location + " was aborted");
+                }
+                final var limit = (end >= 0) ? end : length;
+                if (limit >= 0 && position >= limit) {
+                    return -1;
+                }
+                try {
+                    if (body == null) {
+                        connect();
+                    }
+                    //noinspection ConstantConditions
+                    final var count = body.read(buffer, offset, (int) ((limit >= 0) ? Math.min(len, limit - position) : len));
+                    if (stalled) {
+                        throw new IOException("Read timed out");
+                    }
+                    if (count < 0) {
+                        if (limit >= 0) {
+                            throw new EOFException("Connection closed before end of content");
+                        }
+                        return -1;
+                    }
+                    position += count;
+                    lastRead = System.nanoTime();
+                    return count;
+                } catch (IOException e) {
+                    disconnect();
+                    if (closed || ++attempts >= MAX_ATTEMPTS || e instanceof InterruptedIOException) {
+                        throw e;
+                    }
+                    LOG.warn("Resume download of {} at byte {}: {}", location, position, e.getMessage());
+                    pause(attempts);
+                }
+            }
+        }
+
+        private void pause(int attempt) throws InterruptedIOException {
+            try {
+                Thread.sleep(RETRY_DELAY_MS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download of " + location + " was interrupted");
+            }
+        }
+
+        private void disconnect() {
+            final var timer = watch;
+            if (timer != null) {
+                timer.cancel(false);
+                watch = null;
+            }
+            closeQuietly(body);
+            body = null;
+        }
+
+        private void closeQuietly(@NullOr InputStream stream) {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    LOG.debug("Failed to close connection to {}", location, e);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            disconnect();
+        }
+    }
+
+    /**
+     * Byte range of a resource that is fetched in the background into a temporary file.
+     */
+    private class Segment extends InputStream {
+        private final Path spool;
+        private final Transfer transfer;
+        private final CompletableFuture<Void> done;
+        private @NullOr InputStream stream;
+
+        Segment(Path directory, URI location, @NullOr String validator, long start, long end) throws IOException {
+            spool = Files.createTempFile(directory, "segment-", ".part");
+            transfer = new Transfer(location, validator, start, end);
+            done = CompletableFuture.runAsync(() -> {
+                try (transfer) {
+                    Files.copy(transfer, spool, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    throw new DownloadException("Segment download failed", e);
+                }
+            }, segments);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return stream().read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int len) throws IOException {
+            return stream().read(buffer, offset, len);
+        }
+
+        private InputStream stream() throws IOException {
+            if (stream == null) {
+                try {
+                    done.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Segment download was interrupted");
+                } catch (ExecutionException e) {
+                    final var cause = (e.getCause() instanceof DownloadException) ? e.getCause().getCause() : e.getCause();
+                    throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+                }
+                stream = Files.newInputStream(spool);
+            }
+            return stream;
+        }
+
+        @Override
+        public void close() throws IOException {
+            transfer.close();
+            if (stream != null) {
+                stream.close();
+            }
+            try {
+                done.join();
+            } catch (CompletionException e) {
+                LOG.debug("Aborted segment download: {}", e.getMessage());
+            }
+            Files.deleteIfExists(spool);
+        }
+    }
+}
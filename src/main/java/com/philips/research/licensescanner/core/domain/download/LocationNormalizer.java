@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Normalizes source locations, so equivalent notations of the same sources yield the same URI.
+ * <p>
+ * This covers the case-insensitive scheme and host, default ports, percent-encoding of unreserved characters, dot
+ * segments and redundant slashes in the path and sub-path. For the repositories of well-known public hosting
+ * services, all git transports are replaced by anonymous HTTPS, and the optional ".git" suffix is removed. (Other
+ * servers may require the exact transport and path.)
+ * <p>
+ * The normalized location identifies the sources for caching and de-duplication only. Sources are downloaded from
+ * the original location, because a private repository requires its transport and credentials.
+ */
+public abstract class LocationNormalizer {
+    private static final Set<String> FORGES = Set.of("github.com", "gitlab.com", "bitbucket.org");
+    private static final String FORGE_SCHEME = "git+https";
+    private static final Map<String, Integer> DEFAULT_PORTS = Map.of("http", 80, "https", 443, "ssh", 22, "git", 9418);
+    private static final String GIT_SUFFIX = ".git";
+
+    /**
+     * @return canonical notation of the location, or the location itself if it is not a hierarchical URL
+     */
+    public static URI normalize(URI location) {
+        if (location.isOpaque() || location.getScheme() == null || location.getHost() == null) {
+            return location;
+        }
+        final var host = location.getHost().toLowerCase(Locale.ROOT);
+        var scheme = location.getScheme().toLowerCase(Locale.ROOT);
+        var userInfo = location.getRawUserInfo();
+        final var git = scheme.equals("git") || scheme.startsWith("git+");
+        final var forge = git && FORGES.contains(host);
+        if (forge) {
+            scheme = FORGE_SCHEME;
+            userInfo = null;
+        }
+        final var transport = scheme.substring(scheme.indexOf('+') + 1);
+        final var port = (location.getPort() == DEFAULT_PORTS.getOrDefault(transport, -1)) ? -1 : location.getPort();
+
+        var path = normalizeEscapes((location.getRawPath() != null) ? location.getRawPath() : "");
+        var version = "";
+        final var at = git ? path.indexOf('@') : -1;
+        if (at >= 0) {
+            version = path.substring(at);
+            path = path.substring(0, at);
+        }
+        path = normalizePath(path);
+        if (forge && path.endsWith(GIT_SUFFIX)) {
+            path = path.substring(0, path.length() - GIT_SUFFIX.length());
+        }
+
+        final var text = new StringBuilder(scheme).append("://");
+        if (userInfo != null) {
+            text.append(userInfo).append('@');
+        }
+        text.append(host);
+        if (port >= 0) {
+            text.append(':').append(port);
+        }
+        text.append(path).append(version);
+        if (location.getRawQuery() != null) {
+            text.append('?').append(location.getRawQuery());
+        }
+        final @NullOr String fragment = normalizeFragment(location.getRawFragment());
+        if (fragment != null) {
+            text.append('#').append(fragment);
+        }
+        try {
+            return URI.create(text.toString());
+        } catch (IllegalArgumentException e) {
+            return location;
+        }
+    }
+
+    /**
+     * Removes dot segments, empty segments and trailing slashes from an absolute path.
+     */
+    private static String normalizePath(String path) {
+        final Deque<String> segments = new ArrayDeque<>();
+        for (var segment : path.split("/")) {
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+        return segments.isEmpty() ? "" : '/' + String.join("/", segments);
+    }
+
+    /**
+     * @return sub-path without redundant slashes, or null if it is empty
+     */
+    private static @NullOr String normalizeFragment(@NullOr String fragment) {
+        if (fragment == null) {
+            return null;
+        }
+        final var path = normalizeEscapes(fragment).replaceAll("/{2,}", "/").replaceAll("^/+|/+$", "");
+        return path.isEmpty() ? null : path;
+    }
+
+    /**
+     * Decodes percent-encoded unreserved characters, and uses uppercase hexadecimal digits for all other escapes.
+     */
+    private static String normalizeEscapes(String raw) {
+        if (raw.indexOf('%') < 0) {
+            return raw;
+        }
+        final var result = new StringBuilder();
+        for (var i = 0; i < raw.length(); i++) {
+            final var c = raw.charAt(i);
+            if (c == '%' && i + 2 < raw.length() && isHex(raw.charAt(i + 1)) && isHex(raw.charAt(i + 2))) {
+                final var hex = raw.substring(i + 1, i + 3);
+                final var value = (char) Integer.parseInt(hex, 16);
+                if (isUnreserved(value)) {
+                    result.append(value);
+                } else {
+                    result.append('%').append(hex.toUpperCase(Locale.ROOT));
+                }
+                i += 2;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static boolean isHex(char c) {
+        return Character.digit(c, 16) >= 0;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+}
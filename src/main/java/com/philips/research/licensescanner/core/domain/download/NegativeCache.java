@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import com.philips.research.licensescanner.core.command.ShellTimeoutException;
+import com.philips.research.licensescanner.core.domain.download.DownloadException.Failure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.io.FileNotFoundException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time-limited memory of failed downloads, so repeated attempts for the same location fail fast.
+ * <p>
+ * Only failures that are likely to persist are remembered, each for the duration configured for its class.
+ * Cancelled or interrupted downloads are never remembered.
+ */
+class NegativeCache {
+    private static final Logger LOG = LoggerFactory.getLogger(NegativeCache.class);
+    static final int MAX_ENTRIES = 10_000;
+
+    private final Map<Failure, Duration> ttl;
+    private final Map<URI, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl duration a failure is remembered per failure class
+     */
+    NegativeCache(Map<Failure, Duration> ttl) {
+        this.ttl = new EnumMap<>(ttl);
+    }
+
+    /**
+     * @throws DownloadException with the remembered failure if downloading from the location recently failed
+     */
+    void check(URI location) {
+        final @NullOr Entry entry = entries.get(location);
+        if (entry == null) {
+            return;
+        }
+        if (entry.expires.isBefore(Instant.now())) {
+            entries.remove(location, entry);
+            return;
+        }
+        LOG.info("Skip download from {} after recent failure: {}", location, entry.message);
+        throw new DownloadException(entry.message, entry.failure);
+    }
+
+    /**
+     * Remembers the failure of a download, if it is likely to persist.
+     */
+    void record(URI location, Throwable exception) {
+        classify(exception).ifPresent(failure -> {
+            final var duration = ttl.getOrDefault(failure, Duration.ZERO);
+            if (duration.isZero() || duration.isNegative()) {
+                return;
+            }
+            if (entries.size() >= MAX_ENTRIES) {
+                final var now = Instant.now();
+                entries.values().removeIf(entry -> entry.expires.isBefore(now));
+                if (entries.size() >= MAX_ENTRIES) {
+                    return;
+                }
+            }
+            LOG.info("Remember {} failure of {} for {}", failure, location, duration);
+            final var message = String.valueOf(exception.getMessage());
+            entries.put(location, new Entry(failure, message, Instant.now().plus(duration)));
+        });
+    }
+
+    /**
+     * @return class of a failure that is likely to persist, if any
+     */
+    static Optional<Failure> classify(@NullOr Throwable exception) {
+        if (isInterrupt(exception)) {
+            return Optional.empty();
+        }
+        for (var cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DownloadException && ((DownloadException) cause).getFailure().isPresent()) {
+                return ((DownloadException) cause).getFailure();
+            }
+            if (cause instanceof SocketTimeoutException || cause instanceof HttpTimeoutException
+                    || cause instanceof ShellTimeoutException) {
+                return Optional.of(Failure.TIMEOUT);
+            }
+            if (cause instanceof UnknownHostException || cause instanceof FileNotFoundException
+                    || cause instanceof NoSuchFileException) {
+                return Optional.of(Failure.NOT_FOUND);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return true if the failure was caused by cancelling or interrupting the download
+     */
+    private static boolean isInterrupt(@NullOr Throwable exception) {
+        for (var cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof CancellationException
+                    || cause instanceof ClosedByInterruptException
+                    || (cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Entry {
+        final Failure failure;
+        final String message;
+        final Instant expires;
+
+        Entry(Failure failure, String message, Instant expires) {
+            this.failure = failure;
+            this.message = message;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Download handler for the published source archive of a package in a package registry.
+ * <p>
+ * The location is the package URL, which is translated into the download URL of the archive below the configured base
+ * URL of the registry. The archive itself is downloaded as a plain file.
+ */
+class RegistryVcsHandler implements VcsHandler {
+    private final Layout layout;
+    private final URI registry;
+    private final VcsHandler files;
+
+    /**
+     * @param layout   file layout of the registry
+     * @param registry base URL of the registry
+     * @param files    handler to download the archive file
+     */
+    RegistryVcsHandler(Layout layout, URI registry, VcsHandler files) {
+        this.layout = layout;
+        this.registry = registry;
+        this.files = files;
+    }
+
+    @Override
+    public Path download(Path directory, URI location) {
+        return files.download(directory, archive(location));
+    }
+
+    @Override
+    public Optional<String> checksum(Path directory) {
+        return files.checksum(directory);
+    }
+
+    /**
+     * @param purl package URL
+     * @return download URL of the source archive of the package
+     */
+    URI archive(URI purl) {
+        final var text = purl.getRawSchemeSpecificPart().replaceAll("^/+", "");
+        final var query = text.indexOf('?');
+        final var path = (query >= 0) ? text.substring(0, query) : text;
+        final var at = path.lastIndexOf('@');
+        final var slash = path.lastIndexOf('/');
+        if (at < slash || slash < 0) {
+            throw new DownloadException("Package URL " + purl + " has no version");
+        }
+        final var type = path.indexOf('/');
+        final @NullOr String namespace = (slash > type) ? path.substring(type + 1, slash) : null;
+        final var name = path.substring(slash + 1, at);
+        final var version = path.substring(at + 1);
+        if (name.isEmpty() || version.isEmpty()) {
+            throw new DownloadException("Package URL " + purl + " has no name or version");
+        }
+
+        final var base = registry.toString().replaceAll("/+$", "");
+        return URI.create(base + '/' + layout.path(namespace, name, version));
+    }
+
+    /**
+     * Location of source archives within a registry, using (percent-encoded) package URL elements.
+     */
+    enum Layout {
+        NPM {
+            @Override
+            String path(@NullOr String namespace, String name, String version) {
+                final var scope = (namespace != null) ? namespace.replace("%40", "@") + '/' : "";
+                return scope + name + "/-/" + name + '-' + version + ".tgz";
+            }
+        },
+        PYPI {
+            @Override
+            String path(@NullOr String namespace, String name, String version) {
+                return name.charAt(0) + "/" + name + '/' + name + '-' + version + ".tar.gz";
+            }
+        },
+        MAVEN {
+            @Override
+            String path(@NullOr String namespace, String name, String version) {
+                if (namespace == null) {
+                    throw new DownloadException("Maven package URL requires a group namespace");
+                }
+                return namespace.replace('.', '/') + '/' + name + '/' + version + '/' + name + '-' + version + "-sources.jar";
+            }
+        },
+        CARGO {
+            @Override
+            String path(@NullOr String namespace, String name, String version) {
+                return name + '/' + name + '-' + version + ".crate";
+            }
+        };
+
+        abstract String path(@NullOr String namespace, String name, String version);
+    }
+}
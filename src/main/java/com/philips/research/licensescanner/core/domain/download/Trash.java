@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Background deletion of discarded files and directories.
+ * <p>
+ * Discarded content is atomically moved into a trash directory, and deleted by a low-priority background thread that
+ * pauses regularly to limit its I/O load. Content left in the trash by a previous run is deleted at startup.
+ */
+class Trash {
+    private static final Logger LOG = LoggerFactory.getLogger(Trash.class);
+    private static final int FILES_PER_PAUSE = 1000;
+    private static final long PAUSE_MS = 20;
+
+    private final Path directory;
+    private final ExecutorService reaper = Executors.newSingleThreadExecutor(runnable -> {
+        final var thread = new Thread(runnable, "trash-reaper");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    Trash(Path directory) {
+        try {
+            this.directory = Files.createDirectories(directory);
+            try (var stream = Files.list(directory)) {
+                stream.collect(Collectors.toList()).forEach(this::delete);
+            }
+        } catch (IOException e) {
+            throw new DownloadException("Failed to create the trash directory", e);
+        }
+    }
+
+    /**
+     * Moves a file or directory into the trash, without deleting it.
+     *
+     * @return new path of the content, or the original path if it could not be moved
+     */
+    Path move(Path path) {
+        final var target = directory.resolve(path.getFileName() + "-" + UUID.randomUUID());
+        try {
+            return Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return path;
+        } catch (IOException e) {
+            LOG.warn("Could not move {} to the trash", path);
+            return path;
+        }
+    }
+
+    /**
+     * Moves a file or directory into the trash, and schedules its deletion.
+     */
+    void discard(Path path) {
+        delete(move(path));
+    }
+
+    /**
+     * Schedules the deletion of a file or directory in the background.
+     */
+    void delete(Path path) {
+        reaper.execute(() -> reap(path));
+    }
+
+    /**
+     * Blocks until all content that was discarded before is deleted.
+     */
+    void flush() throws InterruptedException {
+        try {
+            reaper.submit(() -> {
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void reap(Path path) {
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<>() {
+                private int count;
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    if (++count % FILES_PER_PAUSE == 0) {
+                        pause();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            LOG.debug("Deleted {}", path);
+        } catch (NoSuchFileException e) {
+            // Already gone
+        } catch (InterruptedIOException e) {
+            LOG.info("Interrupted deletion of {}", path);
+        } catch (IOException e) {
+            LOG.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void pause() throws InterruptedIOException {
+        try {
+            Thread.sleep(PAUSE_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
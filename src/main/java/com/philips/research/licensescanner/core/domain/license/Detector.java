@@ -5,20 +5,21 @@
 
 package com.philips.research.licensescanner.core.domain.license;
 
-import com.philips.research.licensescanner.core.domain.Scan;
-
 import java.nio.file.Path;
+import java.time.Duration;
 
 /**
  * License scanner interface API.
  */
 public interface Detector {
     /**
-     * Scans copyright information from a directory of package files.
+     * Detects licenses per file in a directory of package files.
      *
-     * @param directory      location of the package files
-     * @param scan           scan result
+     * @param directory      root of the files to scan
      * @param scoreThreshold minimal percentage detection certainty
+     * @param processes      number of parallel processes the detector may use
+     * @param timeout        maximum duration of the scan
+     * @return detections with file paths relative to the directory
      */
-    void scan(Path directory, Scan scan, int scoreThreshold);
+    Findings detect(Path directory, int scoreThreshold, int processes, Duration timeout);
 }
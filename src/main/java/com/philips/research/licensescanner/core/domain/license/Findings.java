@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.license;
+
+import com.philips.research.licensescanner.core.domain.Scan;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-file license detections in a directory tree, which can be sliced by sub-directory.
+ */
+public class Findings {
+    private final List<Finding> findings = new ArrayList<>();
+
+    /**
+     * Registers a license detected in a file.
+     *
+     * @param file path relative to the scanned directory
+     */
+    public Findings add(License license, int score, File file, int startLine, int endLine) {
+        findings.add(new Finding(license, score, file.getPath().replace(File.separatorChar, '/'), startLine, endLine));
+        return this;
+    }
+
+    /**
+     * @return number of findings
+     */
+    public int size() {
+        return findings.size();
+    }
+
+    /**
+     * Adds all findings to a scan.
+     */
+    public void addTo(Scan scan) {
+        addTo(scan, null);
+    }
+
+    /**
+     * Adds the findings in a sub-directory to a scan, with file paths relative to the sub-directory.
+     *
+     * @param subPath (optional) sub-directory relative to the scanned directory
+     */
+    public void addTo(Scan scan, @NullOr String subPath) {
+        final var prefix = normalized(subPath);
+        for (var finding : findings) {
+            final @NullOr String path = relative(finding.path, prefix);
+            if (path != null) {
+                scan.addDetection(finding.license, finding.score, new File(path), finding.startLine, finding.endLine);
+            }
+        }
+    }
+
+    private static String normalized(@NullOr String subPath) {
+        var prefix = (subPath != null) ? subPath.replace('\\', '/') : "";
+        while (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        while (prefix.endsWith("/")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        return prefix;
+    }
+
+    private static @NullOr String relative(String path, String prefix) {
+        if (prefix.isEmpty()) {
+            return path;
+        }
+        if (path.startsWith(prefix + '/')) {
+            return path.substring(prefix.length() + 1);
+        }
+        return null;
+    }
+
+    private static class Finding {
+        final License license;
+        final int score;
+        final String path;
+        final int startLine;
+        final int endLine;
+
+        Finding(License license, int score, String path, int startLine, int endLine) {
+            this.license = license;
+            this.score = score;
+            this.path = path;
+            this.startLine = startLine;
+            this.endLine = endLine;
+        }
+    }
+}
@@ -7,12 +7,16 @@ package com.philips.research.licensescanner.core.domain.license.scancode;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.philips.research.licensescanner.core.command.ShellCommand;
-import com.philips.research.licensescanner.core.domain.Scan;
 import com.philips.research.licensescanner.core.domain.license.Detector;
 import com.philips.research.licensescanner.core.domain.license.DetectorException;
+import com.philips.research.licensescanner.core.domain.license.Findings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 
@@ -23,25 +27,45 @@ import java.time.Duration;
  */
 @Component
 public class ScanCodeDetector implements Detector {
+    private static final Logger LOG = LoggerFactory.getLogger(ScanCodeDetector.class);
     private static final String RESULT_FILE = "scancode.json";
-    private static final Duration MAX_SCAN_DURATION = Duration.ofMinutes(30);
+    private static final Duration MAX_FILE_DURATION = Duration.ofMinutes(30);
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
+    /**
+     * Scans the directory, writing the result file outside the scanned directory so the (cached) sources are not
+     * modified.
+     */
     @Override
-    public void scan(Path directory, Scan scan, int scoreThreshold) {
-        new ShellCommand("scancode")
-                .setDirectory(directory.toFile())
-                .setTimeout(MAX_SCAN_DURATION)
-                .execute("--license", "-n2", "--verbose", "--timeout=" + MAX_SCAN_DURATION.toSeconds(), "--only-findings",
-                        "--license-score", scoreThreshold, "--strip-root", "--ignore", "test*", "--ignore", RESULT_FILE,
-                        "--json-pp", RESULT_FILE, ".");
-        parseResult(directory, scan);
+    public Findings detect(Path directory, int scoreThreshold, int processes, Duration timeout) {
+        final Path output;
+        try {
+            output = Files.createTempDirectory("scancode-");
+        } catch (IOException e) {
+            throw new DetectorException("Failed to create ScanCode output directory", e);
+        }
+        try {
+            final var result = output.resolve(RESULT_FILE);
+            new ShellCommand("scancode")
+                    .setDirectory(directory.toFile())
+                    .setTimeout(timeout)
+                    .execute("--license", "-n" + processes, "--verbose", "--timeout=" + MAX_FILE_DURATION.toSeconds(), "--only-findings",
+                            "--license-score", scoreThreshold, "--strip-root", "--ignore", "test*",
+                            "--json-pp", result.toAbsolutePath(), ".");
+            return parseResult(result);
+        } finally {
+            try {
+                FileSystemUtils.deleteRecursively(output);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete ScanCode output directory {}", output);
+            }
+        }
     }
 
-    private void parseResult(Path directory, Scan scan) {
+    private Findings parseResult(Path result) {
         try {
-            final var scanResult = MAPPER.readValue(directory.resolve(RESULT_FILE).toFile(), ScanCodeJson.class);
-            scanResult.addScanResultsTo(scan);
+            final var scanResult = MAPPER.readValue(result.toFile(), ScanCodeJson.class);
+            return scanResult.getFindings();
         } catch (IOException e) {
             throw new DetectorException("Failed to read ScanCode result file", e);
         }
@@ -8,6 +8,7 @@ package com.philips.research.licensescanner.core.domain.license.scancode;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.philips.research.licensescanner.core.domain.Scan;
+import com.philips.research.licensescanner.core.domain.license.Findings;
 import com.philips.research.licensescanner.core.domain.license.License;
 import com.philips.research.licensescanner.core.domain.license.LicenseParser;
 import pl.tlinkowski.annotation.basic.NullOr;
@@ -30,7 +31,16 @@ class ScanCodeJson {
      * Adds all (mapped) license expressions from each file to the scan.
      */
     public void addScanResultsTo(Scan scan) {
-        files.forEach(f -> f.addLicenseExpressionsTo(scan));
+        getFindings().addTo(scan);
+    }
+
+    /**
+     * @return all (mapped) license expressions per file
+     */
+    public Findings getFindings() {
+        final var findings = new Findings();
+        files.forEach(f -> f.addLicenseExpressionsTo(findings));
+        return findings;
     }
 }
 
@@ -45,7 +55,7 @@ class FileJson {
     @NullOr
     String path = "";
 
-    void addLicenseExpressionsTo(Scan scan) {
+    void addLicenseExpressionsTo(Findings findings) {
         buildDictionary();
 
         expressions.forEach(exp -> {
@@ -53,7 +63,7 @@ class FileJson {
             scanner.scan(exp);
 
             var file = new File(path != null ? path : ".");
-            scan.addDetection(scanner.license, scanner.score, file, scanner.startLine, scanner.endLine);
+            findings.add(scanner.license, scanner.score, file, scanner.startLine, scanner.endLine);
         });
     }
 
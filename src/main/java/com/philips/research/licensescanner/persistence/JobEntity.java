@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.persistence;
+
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.domain.Job;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.net.URI;
+
+/**
+ * JPA entity for persisting a scan job.
+ */
+@Entity
+@SuppressWarnings("JpaDataSourceORMInspection")
+@Table(name = "jobs")
+class JobEntity extends Job {
+    @Id
+    @GeneratedValue
+    private @NullOr Long id;
+
+    public JobEntity() {
+        //noinspection ConstantConditions
+        this(null, null, Priority.NORMAL);
+    }
+
+    JobEntity(URI purl, @NullOr URI location, Priority priority) {
+        super(purl, location, priority);
+    }
+
+    @NullOr Long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.persistence;
+
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.domain.Job;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Spring JPA query definitions for scan jobs.
+ */
+interface JobRepository extends JpaRepository<JobEntity, Long> {
+    Optional<JobEntity> findByPurl(URI purl);
+
+    @Query("SELECT j.id FROM JobEntity j WHERE j.state = :state AND j.priority = :priority "
+            + "ORDER BY j.created ASC, j.id ASC")
+    List<Long> findIdsByStateAndPriority(@Param("state") Job.State state, @Param("priority") Priority priority,
+                                         Pageable page);
+
+    @Query("SELECT j.id FROM JobEntity j WHERE j.state = :state AND j.priority = :priority "
+            + "AND j.baseLocation IN :locations ORDER BY j.created ASC, j.id ASC")
+    List<Long> findIdsByStateAndPriorityAndBaseLocation(@Param("state") Job.State state,
+                                                        @Param("priority") Priority priority,
+                                                        @Param("locations") Collection<URI> locations,
+                                                        Pageable page);
+
+    List<JobEntity> findByStateAndPriorityOrderByCreatedAscIdAsc(Job.State state, Priority priority, Pageable page);
+
+    /**
+     * @return pairs of priority and oldest creation time
+     */
+    @Query("SELECT j.priority, MIN(j.created) FROM JobEntity j WHERE j.state = :state GROUP BY j.priority")
+    List<Object[]> findOldestByState(@Param("state") Job.State state);
+
+    /**
+     * Conditionally changes the state of a job, which acts as an atomic claim.
+     *
+     * @return 0 if the job was no longer in the expected state
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JobEntity j SET j.state = :to, j.attempts = j.attempts + :increment, j.updated = :now "
+            + "WHERE j.id = :id AND j.state = :from")
+    int transition(@Param("id") Long id, @Param("from") Job.State from, @Param("to") Job.State to,
+                   @Param("increment") int increment, @Param("now") Instant now);
+
+    /**
+     * Conditionally raises the priority of a job, without touching any other column.
+     *
+     * @param lower priorities that are less urgent than the new priority
+     * @return 0 if the job already had the priority or a more urgent priority
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JobEntity j SET j.priority = :priority, j.updated = :now WHERE j.id = :id AND j.priority IN :lower")
+    int prioritize(@Param("id") Long id, @Param("priority") Priority priority,
+                   @Param("lower") Collection<Priority> lower, @Param("now") Instant now);
+
+    /**
+     * Conditionally queues a finished job again for a new scan.
+     *
+     * @return 0 if the job was no longer in the expected state
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JobEntity j SET j.state = :to, j.location = :location, j.baseLocation = :baseLocation, "
+            + "j.checksum = :checksum, j.priority = :priority, j.attempts = 0, j.updated = :now "
+            + "WHERE j.id = :id AND j.state = :from")
+    int resubmit(@Param("id") Long id, @Param("from") Job.State from, @Param("to") Job.State to,
+                 @Param("location") @NullOr URI location, @Param("baseLocation") @NullOr URI baseLocation,
+                 @Param("checksum") @NullOr String checksum, @Param("priority") Priority priority,
+                 @Param("now") Instant now);
+
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JobEntity j SET j.state = :to, j.updated = :now WHERE j.state = :from")
+    int transitionAll(@Param("from") Job.State from, @Param("to") Job.State to, @Param("now") Instant now);
+}
@@ -5,16 +5,18 @@
 
 package com.philips.research.licensescanner.persistence;
 
+import com.philips.research.licensescanner.core.LicenseService.Priority;
 import com.philips.research.licensescanner.core.PersistentStore;
+import com.philips.research.licensescanner.core.domain.Job;
 import com.philips.research.licensescanner.core.domain.Scan;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import pl.tlinkowski.annotation.basic.NullOr;
 
 import java.net.URI;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 /**
  * Spring component implementing the persistence of packages.
@@ -25,9 +27,12 @@ public class PersistentDatabase implements PersistentStore {
     static DetectionRepository detectionRepository;
 
     private final ScanRepository scanRepository;
+    private final JobRepository jobRepository;
 
-    public PersistentDatabase(ScanRepository scanRepository, DetectionRepository detectionRepository) {
+    public PersistentDatabase(ScanRepository scanRepository, DetectionRepository detectionRepository,
+                              JobRepository jobRepository) {
         this.scanRepository = scanRepository;
+        this.jobRepository = jobRepository;
         PersistentDatabase.detectionRepository = detectionRepository;
     }
 
@@ -51,14 +56,21 @@ public class PersistentDatabase implements PersistentStore {
     }
 
     @Override
-    public Scan createScan(URI purl, @NullOr URI location) {
-        final var entity = new ScanEntity(purl, location);
-        return scanRepository.save(entity);
+    @Transactional
+    public Scan storeScan(Scan scan) {
+        final var entity = new ScanEntity(scan.getPurl(), scan.getLocation().orElse(null));
+        return scanRepository.save(entity).copyResults(scan);
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Optional<Scan> getScan(URI purl) {
-        return scanRepository.findFirstByPurlOrderByTimestampDesc(purl).map(scan -> scan);
+        return scanRepository.findFirstByPurlOrderByTimestampDesc(purl)
+                .map(scan -> {
+                    // Load the detections for use outside the transaction
+                    scan.getDetections();
+                    return scan;
+                });
     }
 
     @Override
@@ -97,6 +109,103 @@ public class PersistentDatabase implements PersistentStore {
         return scanRepository.countByContestingIsNotNull();
     }
 
+    @Override
+    @Transactional
+    public Job queueJob(URI purl, @NullOr URI location, @NullOr String checksum, Priority priority) {
+        final var existing = jobRepository.findByPurl(purl);
+        if (existing.isEmpty()) {
+            final var job = new JobEntity(purl, location, priority);
+            job.setChecksum(checksum);
+            return jobRepository.saveAndFlush(job);
+        }
+        final var job = existing.get();
+        //noinspection ConstantConditions
+        final long id = job.getId();
+        if (job.isActive() || !resubmit(id, job.getState(), new Job(purl, location, priority).setChecksum(checksum))) {
+            prioritize(id, priority);
+        }
+        return jobRepository.findById(id).orElseThrow();
+    }
+
+    /**
+     * Raises the priority of the job using a conditional update, so concurrent state changes are preserved.
+     */
+    private void prioritize(long id, Priority priority) {
+        final var lower = EnumSet.noneOf(Priority.class);
+        Arrays.stream(Priority.values()).filter(value -> value.compareTo(priority) > 0).forEach(lower::add);
+        if (!lower.isEmpty()) {
+            jobRepository.prioritize(id, priority, lower, Instant.now());
+        }
+    }
+
+    /**
+     * Queues a finished job again using a conditional update, in case the job was concurrently resubmitted.
+     *
+     * @param template new content of the job
+     * @return false if the job was no longer in the expected state
+     */
+    private boolean resubmit(long id, Job.State from, Job template) {
+        return jobRepository.resubmit(id, from, Job.State.QUEUED, template.getLocation().orElse(null),
+                template.getBaseLocation().orElse(null), template.getChecksum().orElse(null),
+                template.getPriority(), template.getUpdated()) > 0;
+    }
+
+    @Override
+    public Map<Priority, Instant> oldestQueuedJobs() {
+        final var oldest = new EnumMap<Priority, Instant>(Priority.class);
+        jobRepository.findOldestByState(Job.State.QUEUED)
+                .forEach(row -> oldest.put((Priority) row[0], (Instant) row[1]));
+        return oldest;
+    }
+
+    @Override
+    @Transactional
+    public List<Job> claimJobs(Priority priority, int count, Collection<URI> preferred) {
+        final var now = Instant.now();
+        final var candidates = new LinkedHashSet<Long>();
+        if (!preferred.isEmpty()) {
+            candidates.addAll(jobRepository.findIdsByStateAndPriorityAndBaseLocation(
+                    Job.State.QUEUED, priority, preferred, PageRequest.of(0, count)));
+        }
+        if (candidates.size() < count) {
+            candidates.addAll(jobRepository.findIdsByStateAndPriority(Job.State.QUEUED, priority, PageRequest.of(0, count)));
+        }
+        final var claimed = new ArrayList<Long>();
+        for (var id : candidates) {
+            if (claimed.size() < count && jobRepository.transition(id, Job.State.QUEUED, Job.State.RUNNING, 1, now) > 0) {
+                claimed.add(id);
+            }
+        }
+        final var jobs = new ArrayList<Job>();
+        jobRepository.findAllById(claimed).forEach(jobs::add);
+        return jobs;
+    }
+
+    @Override
+    public List<Job> peekJobs(int count) {
+        final var jobs = new ArrayList<Job>();
+        for (var priority : Priority.values()) {
+            if (jobs.size() >= count) {
+                break;
+            }
+            jobs.addAll(jobRepository.findByStateAndPriorityOrderByCreatedAscIdAsc(
+                    Job.State.QUEUED, priority, PageRequest.of(0, count - jobs.size())));
+        }
+        return jobs;
+    }
+
+    @Override
+    @Transactional
+    public void updateJob(Job job) {
+        jobRepository.transition(((JobEntity) job).getId(), Job.State.RUNNING, job.getState(), 0, job.getUpdated());
+    }
+
+    @Override
+    @Transactional
+    public int requeueRunningJobs() {
+        return jobRepository.transitionAll(Job.State.RUNNING, Job.State.QUEUED, Instant.now());
+    }
+
     private List<Scan> toScans(List<ScanEntity> list) {
         //noinspection unchecked
         return (List<Scan>) (Object) list;
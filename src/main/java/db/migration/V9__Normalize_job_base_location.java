@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.net.URI;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recalculates the base location of all jobs as the normalized location without its sub-path, replacing the
+ * (unnormalized) base locations that were split from the raw location by the V5 migration.
+ * <p>
+ * The normalization is a frozen copy of the location normalizer at the time of this migration, so the migration
+ * yields the same result if the normalizer evolves.
+ */
+@SuppressWarnings("unused")
+public class V9__Normalize_job_base_location extends BaseJavaMigration {
+    private static final Set<String> FORGES = Set.of("github.com", "gitlab.com", "bitbucket.org");
+    private static final Map<String, Integer> DEFAULT_PORTS = Map.of("http", 80, "https", 443, "ssh", 22, "git", 9418);
+    private static final String GIT_SUFFIX = ".git";
+
+    @Override
+    public void migrate(Context context) throws SQLException {
+        final var connection = context.getConnection();
+        try (var query = connection.createStatement();
+             var update = connection.prepareStatement("UPDATE jobs SET base_location = ? WHERE id = ?");
+             var rows = query.executeQuery("SELECT id, location FROM jobs WHERE location IS NOT NULL")) {
+            while (rows.next()) {
+                update.setString(1, baseLocation(rows.getString("location")));
+                update.setLong(2, rows.getLong("id"));
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+    }
+
+    private static String baseLocation(String location) {
+        try {
+            return normalize(URI.create(location));
+        } catch (IllegalArgumentException e) {
+            final var pos = location.indexOf('#');
+            return (pos >= 0) ? location.substring(0, pos) : location;
+        }
+    }
+
+    /**
+     * @return normalized notation of the location without its sub-path fragment
+     */
+    private static String normalize(URI location) {
+        if (location.isOpaque() || location.getScheme() == null || location.getHost() == null) {
+            final var text = location.toString();
+            final var pos = text.indexOf('#');
+            return (pos >= 0) ? text.substring(0, pos) : text;
+        }
+        final var host = location.getHost().toLowerCase(Locale.ROOT);
+        var scheme = location.getScheme().toLowerCase(Locale.ROOT);
+        var userInfo = location.getRawUserInfo();
+        final var git = scheme.equals("git") || scheme.startsWith("git+");
+        final var forge = git && FORGES.contains(host);
+        if (forge) {
+            scheme = "git+https";
+            userInfo = null;
+        }
+        final var transport = scheme.substring(scheme.indexOf('+') + 1);
+        final var port = (location.getPort() == DEFAULT_PORTS.getOrDefault(transport, -1)) ? -1 : location.getPort();
+
+        var path = normalizeEscapes((location.getRawPath() != null) ? location.getRawPath() : "");
+        var version = "";
+        final var at = git ? path.indexOf('@') : -1;
+        if (at >= 0) {
+            version = path.substring(at);
+            path = path.substring(0, at);
+        }
+        path = normalizePath(path);
+        if (forge && path.endsWith(GIT_SUFFIX)) {
+            path = path.substring(0, path.length() - GIT_SUFFIX.length());
+        }
+
+        final var text = new StringBuilder(scheme).append("://");
+        if (userInfo != null) {
+            text.append(userInfo).append('@');
+        }
+        text.append(host);
+        if (port >= 0) {
+            text.append(':').append(port);
+        }
+        text.append(path).append(version);
+        if (location.getRawQuery() != null) {
+            text.append('?').append(location.getRawQuery());
+        }
+        return URI.create(text.toString()).toString();
+    }
+
+    private static String normalizePath(String path) {
+        final Deque<String> segments = new ArrayDeque<>();
+        for (var segment : path.split("/")) {
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+        return segments.isEmpty() ? "" : '/' + String.join("/", segments);
+    }
+
+    private static String normalizeEscapes(String raw) {
+        if (raw.indexOf('%') < 0) {
+            return raw;
+        }
+        final var result = new StringBuilder();
+        for (var i = 0; i < raw.length(); i++) {
+            final var c = raw.charAt(i);
+            if (c == '%' && i + 2 < raw.length() && Character.digit(raw.charAt(i + 1), 16) >= 0
+                    && Character.digit(raw.charAt(i + 2), 16) >= 0) {
+                final var hex = raw.substring(i + 1, i + 3);
+                final var value = (char) Integer.parseInt(hex, 16);
+                if ((value >= 'a' && value <= 'z') || (value >= 'A' && value <= 'Z') || (value >= '0' && value <= '9')
+                        || value == '-' || value == '.' || value == '_' || value == '~') {
+                    result.append(value);
+                } else {
+                    result.append('%').append(hex.toUpperCase(Locale.ROOT));
+                }
+                i += 2;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+CREATE TABLE jobs
+(
+    id       BIGINT       NOT NULL,
+    purl     CLOB         NOT NULL,
+    location CLOB,
+    state    VARCHAR(255) NOT NULL,
+    attempts INTEGER      NOT NULL,
+    created  TIMESTAMP    NOT NULL,
+    updated  TIMESTAMP    NOT NULL
+);
+ALTER TABLE jobs
+    ADD CONSTRAINT pk_jobs PRIMARY KEY (id);
+
+CREATE INDEX ix_jobs__state_created ON jobs (state, created);
@@ -0,0 +1,14 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+ALTER TABLE jobs
+    ALTER COLUMN purl SET DATA TYPE VARCHAR(2048);
+
+DELETE
+FROM jobs
+WHERE id NOT IN (SELECT MAX(id) FROM jobs GROUP BY purl);
+
+ALTER TABLE jobs
+    ADD CONSTRAINT uq_jobs__purl UNIQUE (purl);
@@ -0,0 +1,11 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+ALTER TABLE jobs
+    ADD COLUMN priority VARCHAR(255) DEFAULT 'NORMAL' NOT NULL;
+
+DROP INDEX ix_jobs__state_created;
+
+CREATE INDEX ix_jobs__state_priority_created ON jobs (state, priority, created);
@@ -0,0 +1,15 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+ALTER TABLE jobs
+    ADD COLUMN base_location VARCHAR(2048);
+
+UPDATE jobs
+SET base_location = CASE
+                        WHEN LOCATE('#', location) > 0 THEN LEFT(location, LOCATE('#', location) - 1)
+                        ELSE location END
+WHERE location IS NOT NULL;
+
+CREATE INDEX ix_jobs__state_priority_base_location ON jobs (state, priority, base_location);
@@ -0,0 +1,7 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+ALTER TABLE jobs
+    ADD COLUMN checksum VARCHAR(64);
@@ -21,6 +21,7 @@ class ApplicationConfigurationTest {
         assertThat(config.getTempDir().toFile().isDirectory()).isTrue();
         assertThat(config.getThresholdPercent()).isNotZero();
         assertThat(config.getCacheSize()).isNotZero();
+        assertThat(config.isRegistryFallback()).isFalse();
     }
 }
 
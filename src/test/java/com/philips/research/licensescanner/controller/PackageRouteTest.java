@@ -6,6 +6,7 @@
 package com.philips.research.licensescanner.controller;
 
 import com.philips.research.licensescanner.core.LicenseService;
+import com.philips.research.licensescanner.core.LicenseService.Priority;
 import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
@@ -53,7 +54,7 @@ class PackageRouteTest extends AbstractRouteTest {
                     .andExpect(status().isOk())
                     .andExpect(jsonPath("$.license").value(LICENSE));
 
-            verify(service, never()).scanLicense(PURL, LOCATION);
+            verify(service, never()).scanLicense(any(), any(), any(), any());
         }
 
         @Test
@@ -67,7 +68,7 @@ class PackageRouteTest extends AbstractRouteTest {
                     .andExpect(jsonPath("$.license").doesNotExist())
                     .andExpect(jsonPath("$.location").value(LOCATION.toString()));
 
-            verify(service).scanLicense(PURL, LOCATION);
+            verify(service).scanLicense(PURL, LOCATION, null, Priority.NORMAL);
         }
 
         @Test
@@ -83,7 +84,52 @@ class PackageRouteTest extends AbstractRouteTest {
                     .andExpect(jsonPath("$.purl").value(PURL.toString()));
 
             verify(service).deleteScan(PURL);
-            verify(service).scanLicense(PURL, LOCATION);
+            verify(service).scanLicense(PURL, LOCATION, null, Priority.NORMAL);
+        }
+
+        @Test
+        void schedulesScanWithPriority() throws Exception {
+            final var body = new JSONObject().put("purl", PURL).put("location", LOCATION).put("priority", "interactive");
+
+            mockMvc.perform(post(PACKAGE_URL)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(body.toString()))
+                    .andExpect(status().isOk());
+
+            verify(service).scanLicense(PURL, LOCATION, null, Priority.INTERACTIVE);
+        }
+
+        @Test
+        void schedulesScanWithChecksum() throws Exception {
+            final var checksum = "sha256:" + "ab".repeat(32);
+            final var body = new JSONObject().put("purl", PURL).put("location", LOCATION).put("checksum", checksum);
+
+            mockMvc.perform(post(PACKAGE_URL)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(body.toString()))
+                    .andExpect(status().isOk());
+
+            verify(service).scanLicense(PURL, LOCATION, checksum, Priority.NORMAL);
+        }
+
+        @Test
+        void badRequest_malformedChecksum() throws Exception {
+            final var body = new JSONObject().put("purl", PURL).put("checksum", "md5:1234");
+
+            mockMvc.perform(post(PACKAGE_URL)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(body.toString()))
+                    .andExpect(status().isBadRequest());
+        }
+
+        @Test
+        void badRequest_unknownPriority() throws Exception {
+            final var body = new JSONObject().put("purl", PURL).put("priority", "urgent");
+
+            mockMvc.perform(post(PACKAGE_URL)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(body.toString()))
+                    .andExpect(status().isBadRequest());
         }
     }
 
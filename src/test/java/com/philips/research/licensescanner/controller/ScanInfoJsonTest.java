@@ -20,8 +20,10 @@ import java.util.stream.Collectors;
 
 class ScanInfoJsonTest {
     private static final URI LOCATION = URI.create("http://example.com");
+    private static final URI SOURCE = URI.create("pkg:package@version");
     private static final Instant TIMESTAMP = Instant.now();
     private static final String ERROR = "Error";
+    private static final String REVISION = "Revision";
     private static final URI PURL = URI.create("pkg:package@version");
     private static final String ID = "pkg%3Apackage%40version";
     private static final String LICENSE = "License";
@@ -33,6 +35,8 @@ class ScanInfoJsonTest {
         dto.purl = PURL;
         dto.timestamp = TIMESTAMP;
         dto.location = LOCATION;
+        dto.source = SOURCE;
+        dto.revision = REVISION;
         dto.contesting = LICENSE;
         dto.isConfirmed = true;
         dto.error = ERROR;
@@ -43,6 +47,8 @@ class ScanInfoJsonTest {
                 .put("id", ID)
                 .put("timestamp", DateTimeFormatter.ISO_INSTANT.format(TIMESTAMP))
                 .put("location", LOCATION.toString())
+                .put("source", SOURCE.toString())
+                .put("revision", REVISION)
                 .put("contesting", LICENSE)
                 .put("confirmed", true)
                 .put("error", ERROR)
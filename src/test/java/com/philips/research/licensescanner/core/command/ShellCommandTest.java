@@ -8,8 +8,10 @@ package com.philips.research.licensescanner.core.command;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.nio.file.Files;
 import java.time.Duration;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 
@@ -27,6 +29,22 @@ class ShellCommandTest {
                 .execute("test");
     }
 
+    @Test
+    void capturesCommandOutput() {
+        final var output = new ShellCommand("echo").query("Hello");
+
+        assertThat(output).isEqualTo("Hello\n");
+    }
+
+    @Test
+    void setsEnvironmentVariables() {
+        final var output = new ShellCommand("printenv")
+                .setEnvironment("SHELL_COMMAND_TEST", "Value")
+                .query("SHELL_COMMAND_TEST");
+
+        assertThat(output).isEqualTo("Value\n");
+    }
+
     @Test
     void throws_commandNotFound() {
         assertThatThrownBy(() -> new ShellCommand("not_found").execute())
@@ -41,10 +59,42 @@ class ShellCommandTest {
                 .hasMessageContaining("failed with status 1");
     }
 
+    @Test
+    void reportsErrorOutput_capturingErrors() {
+        assertThatThrownBy(() -> new ShellCommand("cat").setCaptureErrors(true).execute("not_a_file.txt"))
+                .isInstanceOf(ShellException.class)
+                .hasMessageContaining("failed with status 1: ")
+                .hasMessageContaining("not_a_file.txt");
+    }
+
     @Test
     void throws_commandTimedOut() {
         assertThatThrownBy(() -> new ShellCommand("sleep").execute("5").setTimeout(Duration.ofSeconds(0)).execute())
-                .isInstanceOf(ShellException.class)
+                .isInstanceOf(ShellTimeoutException.class)
                 .hasMessageContaining("Aborted 'sleep' after");
     }
+
+    @Test
+    void destroysProcess_interrupted() throws Exception {
+        final var marker = Files.createTempDirectory("shell-").resolve("marker");
+        final var thread = Thread.currentThread();
+        final var interrupter = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+                thread.interrupt();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        });
+        interrupter.start();
+
+        assertThatThrownBy(() -> new ShellCommand("sh").execute("-c", "sleep 1; touch " + marker))
+                .isInstanceOf(ShellException.class)
+                .hasMessageContaining("interrupted");
+        assertThat(Thread.interrupted()).isTrue();
+        interrupter.join();
+        Thread.sleep(1500);
+        assertThat(marker.toFile()).doesNotExist();
+        Files.delete(marker.getParent());
+    }
 }
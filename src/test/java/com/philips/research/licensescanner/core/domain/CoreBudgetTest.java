@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.ApplicationConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CoreBudgetTest {
+    private static final int CORES = 8;
+    private static final int MAX_PER_SCAN = 3;
+    private static final long MEMORY_MB = 100;
+    private static final long MB = 1024L * 1024L;
+
+    private final CoreBudget.Host host = mock(CoreBudget.Host.class);
+    private final CoreBudget budget = new CoreBudget(new ApplicationConfiguration()
+            .setMaxScanProcesses(MAX_PER_SCAN)
+            .setScanProcessMemory(MEMORY_MB), host);
+
+    @BeforeEach
+    void beforeEach() {
+        when(host.cores()).thenReturn(CORES);
+        when(host.load()).thenReturn(-1.0);
+        when(host.freeMemory()).thenReturn(-1L);
+    }
+
+    @Test
+    void grantsMaximumProcessesPerScan() throws Exception {
+        try (var grant = budget.acquire()) {
+            assertThat(grant.getProcesses()).isEqualTo(MAX_PER_SCAN);
+            assertThat(budget.granted()).isEqualTo(MAX_PER_SCAN);
+        }
+        assertThat(budget.granted()).isZero();
+    }
+
+    @Test
+    void grantsRemainingCores() throws Exception {
+        budget.acquire();
+        budget.acquire();
+
+        assertThat(budget.acquire().getProcesses()).isEqualTo(CORES - 2 * MAX_PER_SCAN);
+    }
+
+    @Test
+    void reducesBudgetForForeignLoad() throws Exception {
+        when(host.load()).thenReturn(CORES - 1.0);
+
+        assertThat(budget.acquire().getProcesses()).isEqualTo(1);
+    }
+
+    @Test
+    void ignoresLoadOfGrantedProcesses() throws Exception {
+        budget.acquire();
+        when(host.load()).thenReturn((double) MAX_PER_SCAN);
+
+        assertThat(budget.acquire().getProcesses()).isEqualTo(MAX_PER_SCAN);
+    }
+
+    @Test
+    void limitsBudgetToFreeMemory() throws Exception {
+        when(host.freeMemory()).thenReturn(2 * MEMORY_MB * MB);
+
+        assertThat(budget.acquire().getProcesses()).isEqualTo(2);
+    }
+
+    @Test
+    void admitsSingleProcess_overloadedHost() throws Exception {
+        when(host.load()).thenReturn(4.0 * CORES);
+        when(host.freeMemory()).thenReturn(0L);
+
+        assertThat(budget.acquire().getProcesses()).isEqualTo(1);
+    }
+
+    @Test
+    void blocksUntilTokensAreReleased() throws Exception {
+        when(host.cores()).thenReturn(MAX_PER_SCAN);
+        final var first = budget.acquire();
+
+        final var second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertThat(second).isNotDone();
+
+        first.close();
+        assertThat(second.get(5, TimeUnit.SECONDS).getProcesses()).isEqualTo(MAX_PER_SCAN);
+    }
+
+    @Test
+    void releasesGrantOnlyOnce() throws Exception {
+        final var grant = budget.acquire();
+
+        grant.close();
+        grant.close();
+
+        assertThat(budget.granted()).isZero();
+    }
+}
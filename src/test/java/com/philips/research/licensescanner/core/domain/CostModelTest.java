@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class CostModelTest {
+    private static final Workspace SMALL = new Workspace(0, 1_000, 1_000);
+    private static final Workspace LARGE = new Workspace(0, 1_000_000, 1_000_000);
+
+    private final CostModel model = new CostModel();
+
+    @Test
+    void predictsCostFromTextSize() {
+        assertThat(model.predict(LARGE)).isGreaterThan(model.predict(SMALL));
+    }
+
+    @Test
+    void usesMaximumTimeout_noHistory() {
+        assertThat(model.timeout(SMALL, 1)).isEqualTo(CostModel.MAX_TIMEOUT);
+    }
+
+    @Test
+    void learnsSecondsPerByte() {
+        model.record(LARGE, Duration.ofSeconds(50), 2);
+
+        assertThat(model.predict(LARGE)).isCloseTo(100.0, within(0.1));
+    }
+
+    @Test
+    void smoothsObservations() {
+        model.record(LARGE, Duration.ofSeconds(100), 1);
+        model.record(LARGE, Duration.ofSeconds(200), 1);
+
+        assertThat(model.predict(LARGE)).isCloseTo(120.0, within(0.1));
+    }
+
+    @Test
+    void sizesTimeoutFromPrediction() {
+        model.record(LARGE, Duration.ofMinutes(2), 1);
+
+        assertThat(model.timeout(LARGE, 1)).isEqualTo(Duration.ofMinutes(8));
+        assertThat(model.timeout(LARGE, 4)).isEqualTo(CostModel.MIN_TIMEOUT);
+        assertThat(model.timeout(new Workspace(0, 100_000_000, 100_000_000), 1)).isEqualTo(CostModel.MAX_TIMEOUT);
+    }
+
+    @Test
+    void ignoresWorkspacesWithoutText() {
+        model.record(new Workspace(1, 100, 0), Duration.ofMinutes(1), 1);
+
+        assertThat(model.timeout(SMALL, 1)).isEqualTo(CostModel.MAX_TIMEOUT);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FairShareTest {
+    private static final Instant NOW = Instant.now();
+
+    private final FairShare share = new FairShare();
+
+    private Map<Priority, Integer> select(Map<Priority, Instant> waiting, int count) {
+        final var counts = new EnumMap<Priority, Integer>(Priority.class);
+        for (var i = 0; i < count; i++) {
+            //noinspection ConstantConditions
+            counts.merge(share.next(waiting, NOW), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Test
+    void selectsNothing_noWaitingJobs() {
+        assertThat(share.next(Map.of(), NOW)).isNull();
+    }
+
+    @Test
+    void selectsMostUrgentClassFirst() {
+        final var waiting = Map.of(Priority.BULK, NOW, Priority.NORMAL, NOW, Priority.INTERACTIVE, NOW);
+
+        assertThat(share.next(waiting, NOW)).isEqualTo(Priority.INTERACTIVE);
+    }
+
+    @Test
+    void servesClassesProportionalToWeight() {
+        final var waiting = Map.of(Priority.BULK, NOW, Priority.NORMAL, NOW, Priority.INTERACTIVE, NOW);
+
+        final var counts = select(waiting, 21);
+
+        assertThat(counts).containsEntry(Priority.INTERACTIVE, 16)
+                .containsEntry(Priority.NORMAL, 4)
+                .containsEntry(Priority.BULK, 1);
+    }
+
+    @Test
+    void servesSingleWaitingClass() {
+        final var counts = select(Map.of(Priority.BULK, NOW), 5);
+
+        assertThat(counts).containsOnly(Map.entry(Priority.BULK, 5));
+    }
+
+    @Test
+    void increasesShareOfLongWaitingClass() {
+        final var old = NOW.minus(FairShare.AGING_PERIOD.multipliedBy(15));
+        final var waiting = Map.of(Priority.BULK, old, Priority.INTERACTIVE, NOW);
+
+        final var counts = select(waiting, 32);
+
+        assertThat(counts).containsEntry(Priority.INTERACTIVE, 16)
+                .containsEntry(Priority.BULK, 16);
+    }
+}
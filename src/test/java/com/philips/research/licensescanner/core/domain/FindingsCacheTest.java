@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.core.domain.license.Findings;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FindingsCacheTest {
+    private static final URI LOCATION = URI.create("git+https://example.com/repo@1.0");
+    private static final URI OTHER = URI.create("git+https://example.com/other@1.0");
+    private static final String REVISION = "revision";
+
+    private final FindingsCache cache = new FindingsCache(1);
+    private final Findings findings = new Findings();
+
+    @Test
+    void cachesFindings() {
+        assertThat(cache.get(LOCATION, REVISION)).isEmpty();
+
+        assertThat(cache.obtain(LOCATION, REVISION, () -> findings)).isSameAs(findings);
+
+        assertThat(cache.get(LOCATION, REVISION)).contains(findings);
+        assertThat(cache.obtain(LOCATION, REVISION, Findings::new)).isSameAs(findings);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedLocation() {
+        cache.obtain(LOCATION, REVISION, () -> findings);
+        cache.obtain(OTHER, REVISION, Findings::new);
+
+        assertThat(cache.get(LOCATION, REVISION)).isEmpty();
+    }
+
+    @Test
+    void separatesRevisionsOfLocation() {
+        cache.obtain(LOCATION, REVISION, () -> findings);
+
+        assertThat(cache.get(LOCATION, "other")).isEmpty();
+        assertThat(cache.obtain(LOCATION, "other", Findings::new)).isNotSameAs(findings);
+    }
+
+    @Test
+    void keepsDetectionInProgress() throws Exception {
+        final var started = new CountDownLatch(1);
+        final var proceed = new CountDownLatch(1);
+        final var running = CompletableFuture.supplyAsync(() -> cache.obtain(LOCATION, REVISION, () -> {
+            started.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return findings;
+        }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        cache.obtain(OTHER, REVISION, Findings::new);
+        proceed.countDown();
+
+        assertThat(running.get(5, TimeUnit.SECONDS)).isSameAs(findings);
+        assertThat(cache.obtain(LOCATION, REVISION, Findings::new)).isSameAs(findings);
+    }
+
+    @Test
+    void dropsFailedDetection() {
+        assertThatThrownBy(() -> cache.obtain(LOCATION, REVISION, () -> {
+            throw new IllegalStateException("Failed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(cache.obtain(LOCATION, REVISION, () -> findings)).isSameAs(findings);
+    }
+
+    @Test
+    void sharesConcurrentDetection() throws Exception {
+        final var started = new CountDownLatch(1);
+        final var proceed = new CountDownLatch(1);
+        final var count = new AtomicInteger();
+        final var first = CompletableFuture.supplyAsync(() -> cache.obtain(LOCATION, REVISION, () -> {
+            count.incrementAndGet();
+            started.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return findings;
+        }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        final var second = CompletableFuture.supplyAsync(() -> cache.obtain(LOCATION, REVISION, () -> {
+            count.incrementAndGet();
+            return new Findings();
+        }));
+        proceed.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(findings);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isSameAs(findings);
+        assertThat(count).hasValue(1);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HedgeTest {
+    private static final Duration STAGGER = Duration.ofMillis(100);
+    private static final Duration LONG = Duration.ofSeconds(10);
+
+    private final Hedge hedge = new Hedge();
+    private final List<String> discarded = new CopyOnWriteArrayList<>();
+
+    @Test
+    void returnsSingleCandidate() {
+        final var result = hedge.first(List.<Callable<String>>of(() -> "single"), STAGGER, discarded::add);
+
+        assertThat(result).isEqualTo("single");
+    }
+
+    @Test
+    void returnsFastPrimaryWithoutStartingOthers() throws Exception {
+        final var started = new CountDownLatch(1);
+
+        final var result = hedge.first(List.<Callable<String>>of(() -> "primary", () -> {
+            started.countDown();
+            return "secondary";
+        }), LONG, discarded::add);
+
+        assertThat(result).isEqualTo("primary");
+        assertThat(started.await(200, TimeUnit.MILLISECONDS)).isFalse();
+    }
+
+    @Test
+    void startsNextCandidateAfterStagger() {
+        final var start = System.nanoTime();
+
+        final var result = hedge.first(List.<Callable<String>>of(() -> slow("primary", LONG), () -> "secondary"),
+                STAGGER, discarded::add);
+
+        assertThat(result).isEqualTo("secondary");
+        assertThat(System.nanoTime() - start).isBetween(STAGGER.toNanos(), LONG.toNanos());
+    }
+
+    @Test
+    void startsNextCandidateImmediately_failure() {
+        final var start = System.nanoTime();
+
+        final var result = hedge.first(List.<Callable<String>>of(() -> {
+            throw new IllegalArgumentException("Failed");
+        }, () -> "secondary"), LONG, discarded::add);
+
+        assertThat(result).isEqualTo("secondary");
+        assertThat(System.nanoTime() - start).isLessThan(LONG.toNanos());
+    }
+
+    @Test
+    void cancelsLosingCandidates() throws Exception {
+        final var interrupted = new CountDownLatch(1);
+        final Callable<String> blocking = () -> {
+            try {
+                return slow("primary", LONG);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+        };
+
+        final var result = hedge.first(List.<Callable<String>>of(blocking, () -> "secondary"), STAGGER, discarded::add);
+
+        assertThat(result).isEqualTo("secondary");
+        assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void discardsLateSuccess() throws Exception {
+        final var release = new CountDownLatch(1);
+        final Callable<String> uninterruptible = () -> {
+            var done = false;
+            while (!done) {
+                try {
+                    done = release.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Ignore cancellation
+                }
+            }
+            return "late";
+        };
+
+        final var result = hedge.first(List.<Callable<String>>of(uninterruptible, () -> "secondary"),
+                STAGGER, discarded::add);
+        release.countDown();
+
+        assertThat(result).isEqualTo("secondary");
+        Thread.sleep(200);
+        assertThat(discarded).containsExactly("late");
+    }
+
+    @Test
+    void throwsPrimaryFailure_allCandidatesFailed() {
+        assertThatThrownBy(() -> hedge.first(List.<Callable<String>>of(() -> {
+            Thread.sleep(200);
+            throw new IllegalArgumentException("Primary");
+        }, () -> {
+            throw new IllegalStateException("Secondary");
+        }), STAGGER, discarded::add))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Primary");
+    }
+
+    private String slow(String result, Duration duration) throws InterruptedException {
+        Thread.sleep(duration.toMillis());
+        return result;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.PersistentStore;
+import com.philips.research.licensescanner.core.domain.download.DownloadCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class JobSchedulerTest {
+    private static final URI PURL = URI.create("pkg:package@version");
+    private static final URI LOCATION = URI.create("git+https://example.com");
+    private static final URI CACHED = URI.create("git+https://example.com/cached");
+    private static final int AVAILABLE = 3;
+
+    private final PersistentStore store = mock(PersistentStore.class);
+    private final ScanPipeline pipeline = mock(ScanPipeline.class);
+    private final DownloadCache cache = mock(DownloadCache.class);
+    private final Prefetcher prefetcher = mock(Prefetcher.class);
+    private final JobScheduler scheduler = new JobScheduler(store, pipeline, cache, prefetcher, Runnable::run);
+    private final Job job = new Job(PURL, LOCATION, Priority.NORMAL).start();
+
+    @BeforeEach
+    void beforeEach() {
+        when(pipeline.available()).thenReturn(AVAILABLE);
+        when(pipeline.submit(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(store.oldestQueuedJobs()).thenReturn(Map.of(Priority.NORMAL, Instant.now())).thenReturn(Map.of());
+        when(store.claimJobs(any(), anyInt(), any())).thenReturn(List.of());
+        when(cache.getLocations()).thenReturn(Set.of());
+    }
+
+    private List<Job> jobs(Priority priority, int count) {
+        return Stream.generate(() -> new Job(PURL, LOCATION, priority).start())
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void requeuesInterruptedJobs() {
+        scheduler.recover();
+
+        verify(store).requeueRunningJobs();
+    }
+
+    @Test
+    void skipsPolling_pipelineFull() {
+        when(pipeline.available()).thenReturn(0);
+
+        scheduler.poll();
+
+        verify(store, never()).claimJobs(any(), anyInt(), any());
+    }
+
+    @Test
+    void prefetchesQueuedJobs_pipelineFull() {
+        when(pipeline.available()).thenReturn(0);
+
+        scheduler.poll();
+
+        verify(prefetcher).update(Set.of());
+    }
+
+    @Test
+    void submitsClaimedJobsToPipeline() {
+        when(store.claimJobs(eq(Priority.NORMAL), eq(AVAILABLE), any())).thenReturn(List.of(job)).thenReturn(List.of());
+
+        scheduler.poll();
+
+        verify(pipeline).submit(job);
+        verify(store).updateJob(job);
+        assertThat(job.getState()).isEqualTo(Job.State.DONE);
+    }
+
+    @Test
+    void pollsFromSchedulerExecutor_jobCompleted() {
+        final var polls = new ArrayList<Runnable>();
+        final var queued = new JobScheduler(store, pipeline, cache, prefetcher, polls::add);
+        when(store.claimJobs(eq(Priority.NORMAL), eq(AVAILABLE), any())).thenReturn(List.of(job)).thenReturn(List.of());
+
+        queued.poll();
+
+        verify(store).updateJob(job);
+        verify(store, times(1)).oldestQueuedJobs();
+        assertThat(polls).hasSize(1);
+        polls.get(0).run();
+        verify(store, times(2)).oldestQueuedJobs();
+    }
+
+    @Test
+    void claimsNoMoreJobsThanAvailable() {
+        final var now = Instant.now();
+        when(store.oldestQueuedJobs()).thenReturn(Map.of(Priority.NORMAL, now, Priority.BULK, now));
+        when(pipeline.submit(any())).thenReturn(new CompletableFuture<>());
+        when(store.claimJobs(any(), anyInt(), any())).thenAnswer(invocation -> jobs(invocation.getArgument(0),
+                invocation.getArgument(1)));
+
+        scheduler.poll();
+
+        verify(pipeline, times(AVAILABLE)).submit(any());
+    }
+
+    @Test
+    void sharesCapacityBetweenPriorities() {
+        final var now = Instant.now();
+        when(store.oldestQueuedJobs()).thenReturn(Map.of(Priority.INTERACTIVE, now, Priority.BULK, now));
+        when(pipeline.available()).thenReturn(17);
+        when(pipeline.submit(any())).thenReturn(new CompletableFuture<>());
+        when(store.claimJobs(any(), anyInt(), any())).thenAnswer(invocation -> jobs(invocation.getArgument(0),
+                invocation.getArgument(1)));
+
+        scheduler.poll();
+
+        verify(store).claimJobs(eq(Priority.INTERACTIVE), eq(16), any());
+        verify(store).claimJobs(eq(Priority.BULK), eq(1), any());
+        verify(pipeline, times(17)).submit(any());
+    }
+
+    @Test
+    void servesOtherPriority_emptyClass() {
+        final var now = Instant.now();
+        final var bulk = new Job(PURL, LOCATION, Priority.BULK).start();
+        when(store.oldestQueuedJobs()).thenReturn(Map.of(Priority.INTERACTIVE, now, Priority.BULK, now));
+        when(pipeline.submit(any())).thenReturn(new CompletableFuture<>());
+        when(store.claimJobs(eq(Priority.BULK), anyInt(), any())).thenReturn(List.of(bulk)).thenReturn(List.of());
+
+        scheduler.poll();
+
+        verify(pipeline).submit(bulk);
+        verify(store).claimJobs(eq(Priority.BULK), eq(AVAILABLE), any());
+    }
+
+    @Test
+    void requeuesFailedJob() {
+        when(store.claimJobs(eq(Priority.NORMAL), eq(AVAILABLE), any())).thenReturn(List.of(job)).thenReturn(List.of());
+        when(pipeline.submit(job)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Database failure")));
+
+        scheduler.poll();
+
+        assertThat(job.getState()).isEqualTo(Job.State.QUEUED);
+        verify(store).updateJob(job);
+    }
+
+    @Test
+    void failsJobAfterMaximumAttempts() {
+        job.requeue().start().requeue().start();
+        when(store.claimJobs(eq(Priority.NORMAL), eq(AVAILABLE), any())).thenReturn(List.of(job)).thenReturn(List.of());
+        when(pipeline.submit(job)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Database failure")));
+
+        scheduler.poll();
+
+        assertThat(job.getState()).isEqualTo(Job.State.FAILED);
+    }
+
+    @Test
+    void prefersCachedLocations() {
+        when(cache.getLocations()).thenReturn(Set.of(CACHED));
+
+        scheduler.poll();
+
+        verify(store).claimJobs(Priority.NORMAL, AVAILABLE, Set.of(CACHED));
+    }
+
+    @Test
+    void prefersLocationsInProgress() {
+        final var sibling = new Job(PURL, URI.create(LOCATION + "#sub/path"), Priority.NORMAL).start();
+        when(pipeline.submit(sibling)).thenReturn(new CompletableFuture<>());
+        when(store.oldestQueuedJobs()).thenReturn(Map.of(Priority.NORMAL, Instant.now()));
+        when(store.claimJobs(eq(Priority.NORMAL), eq(AVAILABLE), any())).thenReturn(List.of(sibling)).thenReturn(List.of());
+        scheduler.poll();
+
+        scheduler.poll();
+
+        verify(store).claimJobs(Priority.NORMAL, AVAILABLE, Set.of(LOCATION));
+    }
+
+    @Test
+    void prefetchesWithLocationsInProgress() {
+        when(pipeline.submit(job)).thenReturn(new CompletableFuture<>());
+        when(store.claimJobs(eq(Priority.NORMAL), eq(AVAILABLE), any())).thenReturn(List.of(job)).thenReturn(List.of());
+
+        scheduler.poll();
+
+        verify(prefetcher).update(Set.of(LOCATION));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JobTest {
+    private static final URI PURL = URI.create("pkg:package@version");
+    private static final URI LOCATION = URI.create("git+https://example.com");
+
+    private final Job job = new Job(PURL, LOCATION, Priority.NORMAL);
+
+    @Test
+    void createsInstance() {
+        final var now = Instant.now();
+        assertThat(job.getPurl()).isEqualTo(PURL);
+        assertThat(job.getLocation()).contains(LOCATION);
+        assertThat(job.getPriority()).isEqualTo(Priority.NORMAL);
+        assertThat(job.getState()).isEqualTo(Job.State.QUEUED);
+        assertThat(job.getAttempts()).isZero();
+        assertThat(job.getCreated()).isBetween(now.minus(Duration.ofSeconds(1)), now);
+        assertThat(job.getUpdated()).isEqualTo(job.getCreated());
+    }
+
+    @Test
+    void countsAttempts() {
+        job.start().requeue().start();
+
+        assertThat(job.getState()).isEqualTo(Job.State.RUNNING);
+        assertThat(job.getAttempts()).isEqualTo(2);
+    }
+
+    @Test
+    void finishesJob() {
+        job.start().finish();
+
+        assertThat(job.getState()).isEqualTo(Job.State.DONE);
+        assertThat(job.getUpdated()).isAfterOrEqualTo(job.getCreated());
+    }
+
+    @Test
+    void failsJob() {
+        job.start().fail();
+
+        assertThat(job.getState()).isEqualTo(Job.State.FAILED);
+    }
+
+    @Test
+    void raisesPriority() {
+        job.prioritize(Priority.INTERACTIVE);
+
+        assertThat(job.getPriority()).isEqualTo(Priority.INTERACTIVE);
+    }
+
+    @Test
+    void keepsHigherPriority() {
+        job.prioritize(Priority.BULK);
+
+        assertThat(job.getPriority()).isEqualTo(Priority.NORMAL);
+    }
+
+    @Test
+    void resubmitsWithNewPriority() {
+        job.start().finish().resubmit(null, Priority.BULK);
+
+        assertThat(job.getState()).isEqualTo(Job.State.QUEUED);
+        assertThat(job.getPriority()).isEqualTo(Priority.BULK);
+        assertThat(job.getLocation()).isEmpty();
+        assertThat(job.getAttempts()).isZero();
+    }
+
+    @Test
+    void derivesBaseLocation() {
+        final var subPath = new Job(PURL, URI.create(LOCATION + "#sub/path"), Priority.NORMAL);
+
+        assertThat(subPath.getBaseLocation()).contains(LOCATION);
+        assertThat(new Job(PURL, null, Priority.NORMAL).getBaseLocation()).isEmpty();
+    }
+}
@@ -5,21 +5,17 @@
 
 package com.philips.research.licensescanner.core.domain;
 
-import com.philips.research.licensescanner.ApplicationConfiguration;
-import com.philips.research.licensescanner.core.LicenseService;
+import com.philips.research.licensescanner.core.LicenseService.Priority;
 import com.philips.research.licensescanner.core.PersistentStore;
 import com.philips.research.licensescanner.core.domain.download.DownloadCache;
 import com.philips.research.licensescanner.core.domain.download.DownloadException;
-import com.philips.research.licensescanner.core.domain.license.Detector;
-import com.philips.research.licensescanner.core.domain.license.DetectorException;
 import com.philips.research.licensescanner.core.domain.license.License;
 import com.philips.research.licensescanner.core.domain.license.LicenseParser;
 import org.junit.jupiter.api.*;
-import org.springframework.util.FileSystemUtils;
+import org.springframework.dao.DataIntegrityViolationException;
 
 import java.io.File;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
@@ -27,6 +23,8 @@ import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 class LicenseInteractorTest {
@@ -35,8 +33,6 @@ class LicenseInteractorTest {
     private static final String VERSION = "Version";
     private static final String LICENSE = "License";
     private static final String OTHER = "Other";
-    private static final String MESSAGE = "Test message";
-    private static final String SUBDIRECTORY = "sub/directory";
     private static final URI LOCATION = URI.create("git+git://example.com@1.2.3");
     private static final File FILE = new File(".");
     private static final URI PURL = URI.create("pkg:package@version");
@@ -44,27 +40,11 @@ class LicenseInteractorTest {
             .addDetection(License.of(LICENSE), 73, new File(""), 1, 2);
     private static final Instant UNTIL = Instant.now();
     private static final Instant FROM = UNTIL.minus(Duration.ofDays(5));
-    private static final int THRESHOLD = 70;
-
-    @SuppressWarnings("NotNullFieldNotInitialized")
-    private static Path workDirectory;
 
     private final DownloadCache cache = mock(DownloadCache.class);
-    private final Detector detector = mock(Detector.class);
     private final PersistentStore store = mock(PersistentStore.class);
-    private final ApplicationConfiguration configuration = new ApplicationConfiguration();
-
-    private final LicenseService interactor = new LicenseInteractor(store, cache, detector, configuration);
 
-    @BeforeAll
-    static void beforeAll() throws Exception {
-        workDirectory = Files.createTempDirectory("test");
-    }
-
-    @AfterAll
-    static void afterAll() throws Exception {
-        FileSystemUtils.deleteRecursively(workDirectory);
-    }
+    private final LicenseInteractor interactor = new LicenseInteractor(store, cache);
 
     @Nested
     class FindPackages {
@@ -96,132 +76,52 @@ class LicenseInteractorTest {
 
             assertThat(info.license).contains(LICENSE);
             assertThat(info.location).isEqualTo(LOCATION);
+            assertThat(info.source).isEqualTo(LOCATION);
         }
     }
 
     @Nested
-    class PackageScanning {
-        private final Scan scan = new Scan(PURL, LOCATION);
-
-        @BeforeEach
-        void beforeEach() {
-            when(store.createScan(PURL, LOCATION)).thenReturn(scan);
-            configuration.setTempDir(workDirectory.toFile());
-            configuration.setThresholdPercent(THRESHOLD);
-        }
-
-        @Test
-        void skipsIfAlreadyScanned() {
-            when(store.getScan(PURL)).thenReturn(Optional.of(scan));
-
-            interactor.scanLicense(PURL, LOCATION);
-
-            verify(store, never()).createScan(PURL, LOCATION);
-            verify(detector, never()).scan(any(Path.class), any(Scan.class), anyInt());
-        }
-
-        @Test
-        void skipsIfNoLocation() {
-            when(store.createScan(PURL, null)).thenReturn(scan);
-
-            interactor.scanLicense(PURL, null);
-
-            assertThat(scan.getError()).isNotEmpty();
-            verify(detector, never()).scan(any(Path.class), any(Scan.class), anyInt());
-        }
-
+    class QueueScans {
         @Test
-        void skipsIfEmptyLocation() {
-            final var emptyLocation = URI.create("");
-            when(store.createScan(PURL, emptyLocation)).thenReturn(scan);
+        void queuesScanJob() {
+            interactor.scanLicense(PURL, LOCATION, null, Priority.NORMAL);
 
-            interactor.scanLicense(PURL, emptyLocation);
-
-            assertThat(scan.getError()).isNotEmpty();
-            verify(detector, never()).scan(any(Path.class), any(Scan.class), anyInt());
-        }
-
-        @Test
-        void downloadsAndScansFullPackage() {
-            when(cache.obtain(LOCATION)).thenReturn(workDirectory);
-
-            interactor.scanLicense(PURL, LOCATION);
-
-            verify(detector).scan(workDirectory, scan, THRESHOLD);
-            verify(cache).release(LOCATION);
-        }
-
-        @Test
-        void downloadsAndScansPartOfPackage() {
-            final var subDir = workDirectory.resolve(SUBDIRECTORY);
-            assertThat(subDir.toFile().mkdirs()).isTrue();
-            final var subLocation = LOCATION.resolve("#" + SUBDIRECTORY);
-            when(cache.obtain(subLocation)).thenReturn(workDirectory);
-            when(store.createScan(PURL, subLocation)).thenReturn(scan);
-
-            interactor.scanLicense(PURL, subLocation);
-
-            verify(detector).scan(workDirectory.resolve(SUBDIRECTORY), scan, THRESHOLD);
-            verify(cache).release(subLocation);
+            verify(store).queueJob(PURL, LOCATION, null, Priority.NORMAL);
         }
 
         @Test
-        void registersEmptyLicenseAsFailure() {
-            when(cache.obtain(LOCATION)).thenReturn(workDirectory);
-
-            interactor.scanLicense(PURL, LOCATION);
-
-            //noinspection OptionalGetWithoutIsPresent
-            assertThat(scan.getError().get()).contains("did not detect");
-        }
-
-        @Test
-        void registersDownloadFailure() {
-            when(cache.obtain(LOCATION)).thenThrow(new DownloadException(MESSAGE));
-
-            interactor.scanLicense(PURL, LOCATION);
+        void queuesNormalizedPackageUrl() {
+            interactor.scanLicense(URI.create("pkg://NPM/name@version?b=2&a=1"), LOCATION, null, Priority.BULK);
 
-            assertThat(scan.getError()).contains(MESSAGE);
-            verify(cache).release(LOCATION);
+            verify(store).queueJob(URI.create("pkg:npm/name@version?a=1&b=2"), LOCATION, null, Priority.BULK);
         }
 
         @Test
-        void registersNonExistingSourceCodePath() {
-            when(cache.obtain(LOCATION)).thenReturn(workDirectory);
-            final var subLocation = LOCATION.resolve("#no/directory");
-            when(cache.obtain(subLocation)).thenReturn(workDirectory);
-            when(store.createScan(PURL, subLocation)).thenReturn(scan);
+        void queuesLocationWithOriginalTransport() {
+            final var location = URI.create("git+ssh://git@GitHub.com/owner/repo.git#/sub/");
 
-            interactor.scanLicense(PURL, subLocation);
+            interactor.scanLicense(PURL, location, null, Priority.NORMAL);
 
-            //noinspection OptionalGetWithoutIsPresent
-            assertThat(scan.getError().get()).contains("not found in the source");
-            verify(cache).release(subLocation);
+            verify(store).queueJob(PURL, location, null, Priority.NORMAL);
         }
 
         @Test
-        void registersScanningProblem() {
-            when(cache.obtain(LOCATION)).thenReturn(workDirectory);
-            doThrow(new DetectorException(MESSAGE, new Exception("Oops!")))
-                    .when(detector).scan(any(), any(), anyInt());
-
-            interactor.scanLicense(PURL, LOCATION);
+        void queuesNormalizedChecksum() {
+            interactor.scanLicense(PURL, LOCATION, "SHA256:" + "AB".repeat(32), Priority.NORMAL);
 
-            assertThat(scan.getError()).contains(MESSAGE);
-            verify(cache).release(LOCATION);
+            verify(store).queueJob(PURL, LOCATION, "ab".repeat(32), Priority.NORMAL);
         }
 
         @Test
-        void registersScanningFailures() {
-            when(cache.obtain(LOCATION)).thenReturn(workDirectory);
-            doThrow(new IllegalArgumentException()).when(detector).scan(any(), any(), anyInt());
+        void attachesToConcurrentlyQueuedJob() {
+            when(store.queueJob(PURL, LOCATION, null, Priority.INTERACTIVE))
+                    .thenThrow(new DataIntegrityViolationException("Duplicate"))
+                    .thenReturn(new Job(PURL, LOCATION, Priority.INTERACTIVE));
 
-            interactor.scanLicense(PURL, LOCATION);
+            interactor.scanLicense(PURL, LOCATION, null, Priority.INTERACTIVE);
 
-            assertThat(scan.getError()).contains("Server failure");
-            verify(cache).release(LOCATION);
+            verify(store, times(2)).queueJob(PURL, LOCATION, null, Priority.INTERACTIVE);
         }
-
     }
 
     @Nested
@@ -256,6 +156,48 @@ class LicenseInteractorTest {
             assertThat(dto.lines).hasSize((END_LINE - START_LINE + 1) + 2 * MARGIN);
             assertThat(dto.lines).contains("Line 3", "Line 8");
         }
+
+        @Test
+        void readsFileFragmentFromScannedSource() {
+            final var file = Path.of("resources").resolve(SAMPLE_FILE.toPath()).toFile();
+            final var scan = new Scan(PURL, URI.create("vcs:some/path"))
+                    .setSource(PURL)
+                    .addDetection(LicenseParser.parse(LICENSE), 100, file, START_LINE, END_LINE);
+            when(store.getScan(PURL)).thenReturn(Optional.of(scan));
+            when(cache.obtain(PURL)).thenReturn(Path.of("src", "test"));
+
+            assertThat(interactor.sourceFragment(PURL, LICENSE, MARGIN)).isPresent();
+
+            verify(cache).release(PURL);
+        }
+
+        @Test
+        void releasesSourcesAfterReading() {
+            final var location = URI.create("vcs:some/path");
+            final var scan = new Scan(PURL, location)
+                    .addDetection(LicenseParser.parse(LICENSE), 100, SAMPLE_FILE, START_LINE, END_LINE);
+            when(store.getScan(PURL)).thenReturn(Optional.of(scan));
+            when(cache.obtain(location)).thenReturn(Path.of("unknown"));
+
+            assertThatThrownBy(() -> interactor.sourceFragment(PURL, LICENSE, MARGIN))
+                    .isInstanceOf(LicenseException.class);
+
+            verify(cache).release(location);
+        }
+
+        @Test
+        void releasesNothing_sourcesNotObtained() {
+            final var location = URI.create("vcs:some/path");
+            final var scan = new Scan(PURL, location)
+                    .addDetection(LicenseParser.parse(LICENSE), 100, SAMPLE_FILE, START_LINE, END_LINE);
+            when(store.getScan(PURL)).thenReturn(Optional.of(scan));
+            when(cache.obtain(location)).thenThrow(new DownloadException("Not found"));
+
+            assertThatThrownBy(() -> interactor.sourceFragment(PURL, LICENSE, MARGIN))
+                    .isInstanceOf(LicenseException.class);
+
+            verify(cache, never()).release(any());
+        }
     }
 
     @Nested
@@ -270,6 +212,13 @@ class LicenseInteractorTest {
             assertThat(result.get().detections).isNotEmpty();
         }
 
+        @Test
+        void findsScanByNormalizedPackageUrl() {
+            when(store.getScan(URI.create("pkg:npm/name@version"))).thenReturn(Optional.of(SCAN));
+
+            assertThat(interactor.getScan(URI.create("pkg://NPM/name@version"))).isPresent();
+        }
+
         @Test
         void findsScansForPeriod() {
             when(store.findScans(FROM, UNTIL)).thenReturn(List.of(new Scan(PURL, LOCATION)
@@ -323,6 +272,16 @@ class LicenseInteractorTest {
             assertThat(scan.getContesting()).contains(License.NONE);
         }
 
+        @Test
+        void curatesScanByNormalizedPackageUrl() {
+            final var scan = new Scan(PURL, null);
+            when(store.getScan(URI.create("pkg:npm/name@version"))).thenReturn(Optional.of(scan));
+
+            interactor.curateLicense(URI.create("pkg://NPM/name@version"), LICENSE);
+
+            assertThat(scan.getLicense()).isEqualTo(License.of(LICENSE));
+        }
+
         @Test
         void confirmsLicense() {
             final var scan = new Scan(PURL, null)
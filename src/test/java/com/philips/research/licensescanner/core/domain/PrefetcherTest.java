@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.ApplicationConfiguration;
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.PersistentStore;
+import com.philips.research.licensescanner.core.domain.download.DownloadCache;
+import com.philips.research.licensescanner.core.domain.download.DownloadException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PrefetcherTest {
+    private static final URI PURL = URI.create("pkg:package@version");
+    private static final URI PURL2 = URI.create("pkg:other@version");
+    private static final URI BASE = URI.create("git+https://example.com/repo");
+    private static final URI LOCATION = URI.create(BASE + "#sub/path");
+    private static final URI OTHER = URI.create("git+https://example.com/other");
+    private static final String CHECKSUM = "0123456789abcdef";
+
+    private final PersistentStore store = mock(PersistentStore.class);
+    private final DownloadCache cache = mock(DownloadCache.class);
+    private final ApplicationConfiguration configuration = new ApplicationConfiguration().setPrefetchJobs(2);
+    private final Prefetcher prefetcher = new Prefetcher(store, cache, configuration, Runnable::run);
+    private final Job job = new Job(PURL, LOCATION, Priority.NORMAL).setChecksum(CHECKSUM);
+    private final Job other = new Job(PURL2, OTHER, Priority.NORMAL);
+
+    @BeforeEach
+    void beforeEach() {
+        when(cache.hasRoom()).thenReturn(true);
+        when(store.peekJobs(2)).thenReturn(List.of(job, other));
+    }
+
+    @Test
+    void pinsSourcesOfQueuedJobs() {
+        prefetcher.update(Set.of());
+
+        verify(cache).obtain(LOCATION, CHECKSUM);
+        verify(cache).obtain(OTHER, null);
+        verify(cache, never()).release(any());
+        assertThat(prefetcher.getPinned()).containsExactlyInAnyOrder(BASE, OTHER);
+    }
+
+    @Test
+    void pinsWholeRepository() {
+        configuration.setScanWholeRepository(true);
+
+        prefetcher.update(Set.of());
+
+        verify(cache).obtain(BASE, CHECKSUM);
+    }
+
+    @Test
+    void skipsPrefetching_disabled() {
+        configuration.setPrefetchJobs(0);
+
+        prefetcher.update(Set.of());
+
+        verify(store, never()).peekJobs(anyInt());
+        verify(cache, never()).obtain(any(), any());
+    }
+
+    @Test
+    void skipsJobsWithoutLocation() {
+        when(store.peekJobs(2)).thenReturn(List.of(new Job(PURL, null, Priority.NORMAL)));
+
+        prefetcher.update(Set.of());
+
+        verify(cache, never()).obtain(any(), any());
+    }
+
+    @Test
+    void skipsJobsInProgress() {
+        prefetcher.update(Set.of(BASE));
+
+        verify(cache, never()).obtain(LOCATION, CHECKSUM);
+        verify(cache).obtain(OTHER, null);
+    }
+
+    @Test
+    void stopsPrefetching_cacheFull() {
+        when(cache.hasRoom()).thenReturn(true).thenReturn(false);
+
+        prefetcher.update(Set.of());
+
+        verify(cache).obtain(LOCATION, CHECKSUM);
+        verify(cache, never()).obtain(OTHER, null);
+    }
+
+    @Test
+    void keepsPinsOfJobsInProgress() {
+        prefetcher.update(Set.of());
+        when(store.peekJobs(2)).thenReturn(List.of(other));
+
+        prefetcher.update(Set.of(BASE));
+
+        verify(cache, never()).release(any());
+        verify(cache, times(1)).obtain(LOCATION, CHECKSUM);
+    }
+
+    @Test
+    void releasesPinsNoLongerNeeded() {
+        prefetcher.update(Set.of());
+        when(store.peekJobs(2)).thenReturn(List.of(other));
+
+        prefetcher.update(Set.of());
+
+        verify(cache).release(LOCATION);
+        verify(cache, never()).release(OTHER);
+        assertThat(prefetcher.getPinned()).containsExactly(OTHER);
+    }
+
+    @Test
+    void dropsFailedPrefetchWithoutRelease() {
+        when(cache.obtain(LOCATION, CHECKSUM)).thenThrow(new DownloadException("Failed"));
+        prefetcher.update(Set.of());
+        when(store.peekJobs(2)).thenReturn(List.of());
+
+        prefetcher.update(Set.of());
+
+        verify(cache, never()).release(LOCATION);
+        verify(cache).release(OTHER);
+        assertThat(prefetcher.getPinned()).isEmpty();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PurlNormalizerTest {
+    private static final URI PURL = URI.create("pkg:npm/%40angular/core@1.2.3");
+
+    @Test
+    void keepsNormalizedPackageUrl() {
+        assertThat(PurlNormalizer.normalize(PURL)).isEqualTo(PURL);
+    }
+
+    @Test
+    void ignoresOtherSchemes() {
+        final var uri = URI.create("https://example.com/Path/");
+
+        assertThat(PurlNormalizer.normalize(uri)).isEqualTo(uri);
+    }
+
+    @Test
+    void lowercasesSchemeAndType() {
+        assertThat(PurlNormalizer.normalize(URI.create("PKG:NPM/%40angular/core@1.2.3"))).isEqualTo(PURL);
+    }
+
+    @Test
+    void stripsSlashes() {
+        assertThat(PurlNormalizer.normalize(URI.create("pkg://npm/%40angular/core@1.2.3/"))).isEqualTo(PURL);
+    }
+
+    @Test
+    void sortsQualifiers() {
+        assertThat(PurlNormalizer.normalize(URI.create("pkg:maven/group/name@1.0?Type=jar&classifier=sources&empty=#path")))
+                .isEqualTo(URI.create("pkg:maven/group/name@1.0?classifier=sources&type=jar#path"));
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import com.philips.research.licensescanner.ApplicationConfiguration;
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.PersistentStore;
+import com.philips.research.licensescanner.core.domain.download.DownloadCache;
+import com.philips.research.licensescanner.core.domain.download.DownloadException;
+import com.philips.research.licensescanner.core.domain.license.Detector;
+import com.philips.research.licensescanner.core.domain.license.DetectorException;
+import com.philips.research.licensescanner.core.domain.license.Findings;
+import com.philips.research.licensescanner.core.domain.license.License;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.FileSystemUtils;
+import pl.tlinkowski.annotation.basic.NullOr;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class ScanPipelineTest {
+    private static final String LICENSE = "License";
+    private static final String MESSAGE = "Test message";
+    private static final String SUBDIRECTORY = "sub/directory";
+    private static final URI LOCATION = URI.create("git+git://example.com@1.2.3");
+    private static final URI PURL = URI.create("pkg:package@version");
+    private static final int THRESHOLD = 70;
+    private static final int PROCESSES = 3;
+    private static final int CORES = 8;
+    private static final Executor DIRECT = Runnable::run;
+
+    @SuppressWarnings("NotNullFieldNotInitialized")
+    private static Path workDirectory;
+
+    private final DownloadCache cache = mock(DownloadCache.class);
+    private final Detector detector = mock(Detector.class);
+    private final PersistentStore store = mock(PersistentStore.class);
+    private final CoreBudget.Host host = mock(CoreBudget.Host.class);
+    private final ApplicationConfiguration configuration = new ApplicationConfiguration()
+            .setThresholdPercent(THRESHOLD)
+            .setMaxScanProcesses(PROCESSES)
+            .setRegistryFallback(true);
+    private final CoreBudget budget = new CoreBudget(configuration, host);
+    private final ScanPipeline pipeline = new ScanPipeline(store, cache, detector, budget, configuration, DIRECT, DIRECT, DIRECT);
+
+    @BeforeAll
+    static void beforeAll() throws Exception {
+        workDirectory = Files.createTempDirectory("test");
+    }
+
+    @AfterAll
+    static void afterAll() throws Exception {
+        FileSystemUtils.deleteRecursively(workDirectory);
+    }
+
+    @BeforeEach
+    void beforeEach() {
+        when(store.storeScan(any(Scan.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(host.cores()).thenReturn(CORES);
+        when(host.load()).thenReturn(-1.0);
+        when(host.freeMemory()).thenReturn(-1L);
+        when(detector.detect(any(), anyInt(), anyInt(), any())).thenReturn(new Findings());
+    }
+
+    private Scan scan(@NullOr URI location) {
+        pipeline.submit(new Job(PURL, location, Priority.NORMAL)).join();
+
+        final var captor = ArgumentCaptor.forClass(Scan.class);
+        verify(store).storeScan(captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    void skipsIfAlreadyScanned() {
+        when(store.getScan(PURL)).thenReturn(Optional.of(new Scan(PURL, LOCATION)));
+
+        pipeline.submit(new Job(PURL, LOCATION, Priority.NORMAL)).join();
+
+        verify(store, never()).storeScan(any());
+        verify(detector, never()).detect(any(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void skipsIfNoLocation() {
+        final var scan = scan(null);
+
+        assertThat(scan.getError()).isNotEmpty();
+        verify(detector, never()).detect(any(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void downloadsFromRegistry_noLocation() {
+        when(cache.supports(PURL)).thenReturn(true);
+        when(cache.obtain(PURL, null)).thenReturn(workDirectory);
+
+        scan(null);
+
+        verify(detector).detect(eq(workDirectory), anyInt(), anyInt(), any());
+        verify(cache).release(PURL);
+    }
+
+    @Test
+    void downloadsFromRegistry_locationFailed() {
+        when(cache.supports(PURL)).thenReturn(true);
+        when(cache.obtain(LOCATION, null)).thenThrow(new DownloadException(MESSAGE));
+        when(cache.obtain(PURL, null)).thenReturn(workDirectory);
+
+        final var scan = scan(LOCATION);
+
+        verify(detector).detect(eq(workDirectory), anyInt(), anyInt(), any());
+        verify(cache, never()).release(LOCATION);
+        verify(cache).release(PURL);
+        assertThat(scan.getLocation()).contains(LOCATION);
+        assertThat(scan.getSource()).contains(PURL);
+    }
+
+    @Test
+    void downloadsFromRegistry_locationSlow() {
+        configuration.setHedgeDelay(0);
+        final var started = new CountDownLatch(1);
+        when(cache.supports(PURL)).thenReturn(true);
+        when(cache.obtain(LOCATION, null)).thenAnswer(invocation -> {
+            started.countDown();
+            Thread.sleep(10_000);
+            return workDirectory.resolve("slow");
+        });
+        when(cache.obtain(PURL, null)).thenAnswer(invocation -> {
+            started.await();
+            return workDirectory;
+        });
+
+        scan(LOCATION);
+
+        verify(detector).detect(eq(workDirectory), anyInt(), anyInt(), any());
+        verify(cache).release(PURL);
+        verify(cache, after(200).never()).release(LOCATION);
+    }
+
+    @Test
+    void reportsLocationFailure_registryFailed() {
+        when(cache.supports(PURL)).thenReturn(true);
+        when(cache.obtain(LOCATION, null)).thenThrow(new DownloadException(MESSAGE));
+        when(cache.obtain(PURL, null)).thenThrow(new DownloadException("Registry failure"));
+
+        final var scan = scan(LOCATION);
+
+        assertThat(scan.getError()).contains(MESSAGE);
+    }
+
+    @Test
+    void skipsRegistry_fallbackDisabled() {
+        configuration.setRegistryFallback(false);
+        when(cache.supports(PURL)).thenReturn(true);
+
+        final var scan = scan(null);
+
+        assertThat(scan.getError()).isNotEmpty();
+        verify(cache, never()).obtain(any(), any());
+    }
+
+    @Test
+    void skipsIfEmptyLocation() {
+        final var scan = scan(URI.create(""));
+
+        assertThat(scan.getError()).isNotEmpty();
+        verify(detector, never()).detect(any(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void downloadsAndScansFullPackage() {
+        when(cache.obtain(LOCATION, null)).thenReturn(workDirectory);
+        when(detector.detect(eq(workDirectory), eq(THRESHOLD), eq(PROCESSES), any(Duration.class)))
+                .thenReturn(new Findings().add(License.of(LICENSE), 100, new File("file"), 1, 2));
+
+        final var scan = scan(LOCATION);
+
+        assertThat(scan.getPurl()).isEqualTo(PURL);
+        assertThat(scan.getLocation()).contains(LOCATION);
+        assertThat(scan.getSource()).contains(LOCATION);
+        assertThat(scan.getLicense()).isEqualTo(License.of(LICENSE));
+        assertThat(scan.getError()).isEmpty();
+        verify(cache).release(LOCATION);
+    }
+
+    @Test
+    void verifiesChecksumOfDownload() {
+        final var checksum = "ab".repeat(32);
+        when(cache.obtain(LOCATION, checksum)).thenThrow(new DownloadException(MESSAGE));
+
+        pipeline.submit(new Job(PURL, LOCATION, Priority.NORMAL).setChecksum(checksum)).join();
+
+        final var captor = ArgumentCaptor.forClass(Scan.class);
+        verify(store).storeScan(captor.capture());
+        assertThat(captor.getValue().getError()).contains(MESSAGE);
+        verify(cache, never()).release(any());
+    }
+
+    @Test
+    void recordsScannedRevision() {
+        when(cache.obtain(LOCATION, null)).thenReturn(workDirectory);
+        when(cache.getRevision(LOCATION)).thenReturn(Optional.of("revision"));
+
+        final var scan = scan(LOCATION);
+
+        assertThat(scan.getRevision()).contains("revision");
+    }
+
+    @Test
+    void downloadsAndScansPartOfPackage() {
+        final var subDir = workDirectory.resolve(SUBDIRECTORY);
+        assertThat(subDir.toFile().mkdirs()).isTrue();
+        final var subLocation = LOCATION.resolve("#" + SUBDIRECTORY);
+        when(cache.obtain(subLocation, null)).thenReturn(workDirectory);
+
+        scan(subLocation);
+
+        verify(detector).detect(eq(workDirectory.resolve(SUBDIRECTORY)), eq(THRESHOLD), eq(PROCESSES), any(Duration.class));
+        verify(cache).release(subLocation);
+    }
+
+    @Test
+    void returnsGrantedProcessesAfterDetection() {
+        when(cache.obtain(LOCATION, null)).thenReturn(workDirectory);
+        doThrow(new IllegalArgumentException()).when(detector).detect(any(), anyInt(), anyInt(), any());
+
+        scan(LOCATION);
+
+        assertThat(budget.granted()).isZero();
+    }
+
+    @Test
+    void registersEmptyLicenseAsFailure() {
+        when(cache.obtain(LOCATION, null)).thenReturn(workDirectory);
+
+        final var scan = scan(LOCATION);
+
+        //noinspection OptionalGetWithoutIsPresent
+        assertThat(scan.getError().get()).contains("did not detect");
+    }
+
+    @Test
+    void registersDownloadFailure() {
+        when(cache.obtain(LOCATION, null)).thenThrow(new DownloadException(MESSAGE));
+
+        final var scan = scan(LOCATION);
+
+        assertThat(scan.getError()).contains(MESSAGE);
+        verify(detector, never()).detect(any(), anyInt(), anyInt(), any());
+        verify(cache, never()).release(any());
+    }
+
+    @Test
+    void registersNonExistingSourceCodePath() {
+        final var subLocation = LOCATION.resolve("#no/directory");
+        when(cache.obtain(subLocation, null)).thenReturn(workDirectory);
+
+        final var scan = scan(subLocation);
+
+        //noinspection OptionalGetWithoutIsPresent
+        assertThat(scan.getError().get()).contains("not found in the source");
+        verify(cache).release(subLocation);
+    }
+
+    @Test
+    void registersScanningProblem() {
+        when(cache.obtain(LOCATION, null)).thenReturn(workDirectory);
+        doThrow(new DetectorException(MESSAGE, new Exception("Oops!")))
+                .when(detector).detect(any(), anyInt(), anyInt(), any());
+
+        final var scan = scan(LOCATION);
+
+        assertThat(scan.getError()).contains(MESSAGE);
+        verify(cache).release(LOCATION);
+    }
+
+    @Test
+    void registersScanningFailures() {
+        when(cache.obtain(LOCATION, null)).thenReturn(workDirectory);
+        doThrow(new IllegalArgumentException()).when(detector).detect(any(), anyInt(), anyInt(), any());
+
+        final var scan = scan(LOCATION);
+
+        assertThat(scan.getError()).contains("Server failure");
+        verify(cache).release(LOCATION);
+    }
+
+    @Test
+    void limitsJobsWaitingForDownload() {
+        final var available = pipeline.available();
+        final var queued = new ScanPipeline(store, cache, detector, budget, configuration, task -> {
+        }, DIRECT, DIRECT);
+
+        queued.submit(new Job(PURL, LOCATION, Priority.NORMAL));
+
+        assertThat(queued.available()).isEqualTo(available - 1);
+    }
+
+    @Test
+    void countsJobsUntilPersisted() {
+        final var persisting = new ArrayList<Runnable>();
+        final var queued = new ScanPipeline(store, cache, detector, budget, configuration, DIRECT, DIRECT, persisting::add);
+        final var available = queued.available();
+
+        queued.submit(new Job(PURL, null, Priority.NORMAL));
+
+        assertThat(queued.available()).isEqualTo(available - 1);
+        persisting.forEach(Runnable::run);
+        assertThat(queued.available()).isEqualTo(available);
+    }
+
+    @Test
+    void blocksDownloads_detectionBacklogFull() throws Exception {
+        configuration.setDetectionThreads(1);
+        when(cache.obtain(any(), any())).thenReturn(workDirectory);
+        final var detections = new LinkedBlockingQueue<Runnable>();
+        final var downloads = Executors.newCachedThreadPool();
+        try {
+            final var queued = new ScanPipeline(store, cache, detector, budget, configuration,
+                    downloads, detections::add, DIRECT);
+            for (var i = 0; i < 3; i++) {
+                queued.submit(new Job(URI.create("pkg:package" + i + "@version"), LOCATION, Priority.NORMAL));
+            }
+
+            final var first = detections.poll(1, TimeUnit.SECONDS);
+            assertThat(detections.poll(1, TimeUnit.SECONDS)).isNotNull();
+            assertThat(detections.poll(200, TimeUnit.MILLISECONDS)).isNull();
+            //noinspection ConstantConditions
+            first.run();
+            assertThat(detections.poll(1, TimeUnit.SECONDS)).isNotNull();
+        } finally {
+            downloads.shutdownNow();
+        }
+    }
+
+    @Test
+    void failsFuture_persistenceFailure() {
+        when(store.storeScan(any(Scan.class))).thenThrow(new IllegalStateException("Database failure"));
+
+        final var future = pipeline.submit(new Job(PURL, null, Priority.NORMAL));
+
+        assertThat(future).isCompletedExceptionally();
+    }
+
+    @Test
+    void detectsSmallestPackageFirst() throws Exception {
+        final var large = LOCATION.resolve("#large");
+        final var small = LOCATION.resolve("#small");
+        Files.createDirectories(workDirectory.resolve("large"));
+        Files.createDirectories(workDirectory.resolve("small"));
+        Files.writeString(workDirectory.resolve("large/file.txt"), "x".repeat(100_000));
+        Files.writeString(workDirectory.resolve("small/file.txt"), "x");
+        when(cache.obtain(any(), any())).thenReturn(workDirectory);
+        final var waiting = new ArrayList<Runnable>();
+        final var queued = new ScanPipeline(store, cache, detector, budget, configuration, DIRECT, waiting::add, DIRECT);
+        final var detected = new ArrayList<Path>();
+        when(detector.detect(any(), anyInt(), anyInt(), any())).thenAnswer(invocation -> {
+            detected.add(invocation.getArgument(0));
+            return new Findings();
+        });
+
+        queued.submit(new Job(PURL, large, Priority.NORMAL));
+        queued.submit(new Job(URI.create("pkg:other@version"), small, Priority.NORMAL));
+        waiting.forEach(Runnable::run);
+
+        assertThat(detected).containsExactly(workDirectory.resolve("small"), workDirectory.resolve("large"));
+    }
+
+    @Test
+    void detectsUrgentPackageBeforeBulkBacklog() throws Exception {
+        final var large = LOCATION.resolve("#large");
+        final var small = LOCATION.resolve("#small");
+        Files.createDirectories(workDirectory.resolve("large"));
+        Files.createDirectories(workDirectory.resolve("small"));
+        Files.writeString(workDirectory.resolve("large/file.txt"), "x".repeat(100_000));
+        Files.writeString(workDirectory.resolve("small/file.txt"), "x");
+        configuration.setDetectionThreads(4);
+        when(cache.obtain(any(), any())).thenReturn(workDirectory);
+        final var waiting = new ArrayList<Runnable>();
+        final var queued = new ScanPipeline(store, cache, detector, budget, configuration, DIRECT, waiting::add, DIRECT);
+        final var detected = new ArrayList<URI>();
+        when(detector.detect(any(), anyInt(), anyInt(), any())).thenAnswer(invocation -> {
+            detected.add(invocation.getArgument(0).equals(workDirectory.resolve("large")) ? large : small);
+            return new Findings();
+        });
+        for (var i = 0; i < 3; i++) {
+            queued.submit(new Job(URI.create("pkg:bulk" + i + "@version"), small, Priority.BULK));
+        }
+
+        queued.submit(new Job(PURL, large, Priority.INTERACTIVE));
+        waiting.forEach(Runnable::run);
+
+        assertThat(detected).hasSize(4).startsWith(large);
+    }
+
+    @Nested
+    class WholeRepository {
+        private final URI first = LOCATION.resolve("#first");
+        private final URI second = LOCATION.resolve("#second");
+        private final ScanPipeline wholePipeline = new ScanPipeline(store, cache, detector, budget,
+                configuration.setScanWholeRepository(true), DIRECT, DIRECT, DIRECT);
+
+        @BeforeEach
+        void beforeEach() throws Exception {
+            Files.createDirectories(workDirectory.resolve("first"));
+            Files.createDirectories(workDirectory.resolve("second"));
+            when(cache.obtain(any(), any())).thenReturn(workDirectory);
+            when(detector.detect(eq(workDirectory), anyInt(), anyInt(), any())).thenReturn(new Findings()
+                    .add(License.of("first"), 100, new File("first/LICENSE"), 1, 2)
+                    .add(License.of("second"), 100, new File("second/LICENSE"), 1, 2));
+        }
+
+        private Scan scan(URI purl, URI location) {
+            wholePipeline.submit(new Job(purl, location, Priority.NORMAL)).join();
+
+            final var captor = ArgumentCaptor.forClass(Scan.class);
+            verify(store, atLeastOnce()).storeScan(captor.capture());
+            return captor.getValue();
+        }
+
+        @Test
+        void slicesScanOfCompleteSources() {
+            final var scan = scan(PURL, first);
+
+            assertThat(scan.getLicense()).isEqualTo(License.of("first"));
+            assertThat(scan.getDetections()).hasSize(1);
+            assertThat(scan.getDetections().get(0).getFilePath()).isEqualTo(new File("LICENSE"));
+            verify(detector).detect(eq(workDirectory), eq(THRESHOLD), anyInt(), any());
+            verify(cache).obtain(LOCATION, null);
+            verify(cache).release(first);
+        }
+
+        @Test
+        void reusesFindingsForSiblingPackages() {
+            when(cache.getRevision(any())).thenReturn(Optional.of("revision"));
+            scan(PURL, first);
+
+            final var scan = scan(URI.create("pkg:second@version"), second);
+
+            assertThat(scan.getLicense()).isEqualTo(License.of("second"));
+            assertThat(scan.getRevision()).contains("revision");
+            verify(detector, times(1)).detect(any(), anyInt(), anyInt(), any());
+            verify(cache, times(1)).obtain(any(), any());
+        }
+
+        @Test
+        void detectsAgain_revisionChanged() {
+            when(cache.getRevision(any())).thenReturn(Optional.of("old"), Optional.of("old"), Optional.of("new"));
+            scan(PURL, first);
+
+            final var scan = scan(URI.create("pkg:second@version"), second);
+
+            assertThat(scan.getRevision()).contains("new");
+            verify(detector, times(2)).detect(any(), anyInt(), anyInt(), any());
+        }
+
+        @Test
+        void detectsAgain_previousDetectionFailed() {
+            when(detector.detect(any(), anyInt(), anyInt(), any())).thenThrow(new DetectorException(MESSAGE, new Exception()))
+                    .thenReturn(new Findings().add(License.of("second"), 100, new File("second/LICENSE"), 1, 2));
+
+            assertThat(scan(PURL, first).getError()).contains(MESSAGE);
+            assertThat(scan(URI.create("pkg:second@version"), second).getLicense()).isEqualTo(License.of("second"));
+        }
+    }
+}
@@ -26,6 +26,7 @@ class ScanTest {
     private static final int SCORE = 42;
     private static final File FILE = new File("path/to/file");
     private static final String MESSAGE = "Message";
+    private static final String REVISION = "0123456789abcdef0123456789abcdef01234567";
 
     private final Scan scan = new Scan(PURL, LOCATION);
 
@@ -39,10 +40,29 @@ class ScanTest {
         assertThat(scan.getContesting()).isEmpty();
         assertThat(scan.isOverride()).isFalse();
         assertThat(scan.getError()).isEmpty();
+        assertThat(scan.getRevision()).isEmpty();
+        assertThat(scan.getSource()).contains(LOCATION);
         assertThat(scan.getDetections()).isEmpty();
         assertThat(scan.getDetection(LICENSE)).isEmpty();
     }
 
+    @Test
+    void recordsRevision() {
+        scan.setRevision(REVISION);
+
+        assertThat(scan.getRevision()).contains(REVISION);
+    }
+
+    @Test
+    void recordsScannedSource() {
+        final var source = URI.create("pkg:npm/other@1.0");
+
+        scan.setSource(source);
+
+        assertThat(scan.getSource()).contains(source);
+        assertThat(scan.getLocation()).contains(LOCATION);
+    }
+
     @Test
     void contestsScan() {
         scan.contest(LICENSE);
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WorkspaceTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void measuresFiles() throws Exception {
+        Files.writeString(directory.resolve("text.txt"), "Hello");
+        Files.createDirectories(directory.resolve("sub"));
+        Files.write(directory.resolve("sub/binary.bin"), new byte[]{1, 0, 2});
+
+        final var workspace = Workspace.measure(directory);
+
+        assertThat(workspace.getFiles()).isEqualTo(2);
+        assertThat(workspace.getBytes()).isEqualTo(8);
+        assertThat(workspace.getTextBytes()).isEqualTo(5);
+    }
+
+    @Test
+    void skipsVersionControlMetadata() throws Exception {
+        Files.writeString(directory.resolve("text.txt"), "Hello");
+        Files.createDirectories(directory.resolve(".git/objects"));
+        Files.writeString(directory.resolve(".git/objects/pack"), "Ignored");
+
+        final var workspace = Workspace.measure(directory);
+
+        assertThat(workspace.getFiles()).isEqualTo(1);
+        assertThat(workspace.getBytes()).isEqualTo(5);
+    }
+
+    @Test
+    void measuresEmpty_missingDirectory() {
+        final var workspace = Workspace.measure(directory.resolve("missing"));
+
+        assertThat(workspace.getFiles()).isZero();
+        assertThat(workspace.getBytes()).isZero();
+    }
+}
@@ -8,7 +8,9 @@ package com.philips.research.licensescanner.core.domain.download;
 import org.junit.jupiter.api.Test;
 
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -56,6 +58,17 @@ class AnonymousVcsHandlerTest extends VcsHandlerTestBase {
         assertThat(dir).isEqualTo(tempDir.resolve(SAMPLE_ZIP));
     }
 
+    @Test
+    void calculatesChecksumOfDownload() throws Exception {
+        final var file = RESOURCES_PATH.resolve(SAMPLE_ZIP);
+        final var expected = DownloadCache.hex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file)));
+
+        final var dir = handler.download(tempDir, file.toUri());
+
+        assertThat(handler.checksum(dir)).contains(expected);
+        assertThat(handler.checksum(dir)).isEmpty();
+    }
+
     @Test
     void indicatesPathFromLocation() {
         final var dir = handler.download(tempDir, RESOURCES_PATH.toUri().resolve("#sample%2Fpath"));
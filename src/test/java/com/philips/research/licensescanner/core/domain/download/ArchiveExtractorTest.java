@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveExtractorTest extends VcsHandlerTestBase {
+    private static final String CONTENT = "Content";
+    private static final Map<String, String> FILES = Map.of("dir/file.txt", CONTENT, "root.txt", CONTENT);
+
+    private final ArchiveExtractor extractor = new ArchiveExtractor();
+
+    @Test
+    void detectsSupportedFormats() {
+        assertThat(ArchiveExtractor.supports("archive.zip")).isTrue();
+        assertThat(ArchiveExtractor.supports("library.JAR")).isTrue();
+        assertThat(ArchiveExtractor.supports("archive.tar.gz")).isTrue();
+        assertThat(ArchiveExtractor.supports("archive.tar.xz")).isTrue();
+        assertThat(ArchiveExtractor.supports("archive.7z")).isFalse();
+        assertThat(ArchiveExtractor.supports("file.txt")).isFalse();
+    }
+
+    @Test
+    void extractsZipArchives() throws Exception {
+        assertExtracts("sample.zip");
+        assertExtracts("sample.jar");
+    }
+
+    @Test
+    void extractsTarArchives() throws Exception {
+        assertExtracts("sample.tar");
+        assertExtracts("sample.tar.gz");
+        assertExtracts("sample.tgz");
+        assertExtracts("sample.tar.bz2");
+        assertExtracts("sample.tar.xz");
+    }
+
+    @Test
+    void throws_tooManyFiles() {
+        final var limited = new ArchiveExtractor(1, Long.MAX_VALUE);
+
+        assertThatThrownBy(() -> limited.extract(new ByteArrayInputStream(archive("a.zip", FILES)), "a.zip", tempDir))
+                .isInstanceOf(DownloadException.class)
+                .hasMessageContaining("more than 1 files");
+    }
+
+    @Test
+    void throws_tooManyBytes() {
+        final var limited = new ArchiveExtractor(Long.MAX_VALUE, CONTENT.length());
+
+        assertThatThrownBy(() -> limited.extract(new ByteArrayInputStream(archive("a.tgz", FILES)), "a.tgz", tempDir))
+                .isInstanceOf(DownloadException.class)
+                .hasMessageContaining("expands to more than");
+    }
+
+    @Test
+    void throws_entryOutsideTarget() {
+        final var target = tempDir.resolve("target");
+
+        assertThatThrownBy(() -> extractor.extract(new ByteArrayInputStream(archive("a.zip", Map.of("../evil.txt", CONTENT))), "a.zip", target))
+                .isInstanceOf(DownloadException.class)
+                .hasMessageContaining("outside the archive");
+        assertThat(tempDir.resolve("evil.txt")).doesNotExist();
+    }
+
+    @Test
+    void skipsSymbolicLinks() throws Exception {
+        final var buffer = new ByteArrayOutputStream();
+        try (var tar = new TarArchiveOutputStream(buffer)) {
+            final var link = new TarArchiveEntry("link", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName("/etc/passwd");
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+        }
+
+        extractor.extract(new ByteArrayInputStream(buffer.toByteArray()), "a.tar", tempDir);
+
+        assertThat(Files.exists(tempDir.resolve("link"), LinkOption.NOFOLLOW_LINKS)).isFalse();
+    }
+
+    private void assertExtracts(String filename) throws IOException {
+        final var target = tempDir.resolve(filename);
+
+        extractor.extract(new ByteArrayInputStream(archive(filename, FILES)), filename, target);
+
+        assertThat(target.resolve("dir").resolve("file.txt")).hasContent(CONTENT);
+        assertThat(target.resolve("root.txt")).hasContent(CONTENT);
+    }
+
+    private byte[] archive(String filename, Map<String, String> files) throws IOException {
+        final var buffer = new ByteArrayOutputStream();
+        try (var archive = open(buffer, filename)) {
+            for (var file : files.entrySet()) {
+                final var data = file.getValue().getBytes(StandardCharsets.UTF_8);
+                if (archive instanceof ZipArchiveOutputStream) {
+                    archive.putArchiveEntry(new ZipArchiveEntry(file.getKey()));
+                } else {
+                    final var entry = new TarArchiveEntry(file.getKey());
+                    entry.setSize(data.length);
+                    archive.putArchiveEntry(entry);
+                }
+                archive.write(data);
+                archive.closeArchiveEntry();
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    private ArchiveOutputStream open(OutputStream out, String filename) throws IOException {
+        if (filename.endsWith(".zip") || filename.endsWith(".jar")) {
+            return new ZipArchiveOutputStream(out);
+        }
+        if (filename.endsWith(".gz") || filename.endsWith(".tgz")) {
+            return new TarArchiveOutputStream(new GzipCompressorOutputStream(out));
+        }
+        if (filename.endsWith(".bz2")) {
+            return new TarArchiveOutputStream(new BZip2CompressorOutputStream(out));
+        }
+        if (filename.endsWith(".xz")) {
+            return new TarArchiveOutputStream(new XZCompressorOutputStream(out));
+        }
+        return new TarArchiveOutputStream(out);
+    }
+}
@@ -7,6 +7,7 @@ package com.philips.research.licensescanner.core.domain.download;
 
 import com.philips.research.licensescanner.ApplicationConfiguration;
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,6 +16,14 @@ import org.springframework.util.FileSystemUtils;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -25,12 +34,15 @@ class DownloadCacheTest {
     private static final URI BASE_LOCATION = URI.create("https://www.example.com/download");
     private static final URI LOCATION = BASE_LOCATION.resolve("#directory/path");
     private static final String DOWNLOAD = "download";
+    private static final String CHECKSUM = "ab".repeat(32);
+    private static final int MB = 1024 * 1024;
     @SuppressWarnings("NotNullFieldNotInitialized")
     private static Path TEMP_DIR;
     private final Downloader downloader = mock(Downloader.class);
-    private final ApplicationConfiguration configuration = new ApplicationConfiguration()
-            .setTempDir(TEMP_DIR.toFile()).setCacheSize(CACHE_SIZE);
-    private final DownloadCache cache = new DownloadCache(downloader, configuration);
+    @SuppressWarnings("NotNullFieldNotInitialized")
+    private ApplicationConfiguration configuration;
+    @SuppressWarnings("NotNullFieldNotInitialized")
+    private DownloadCache cache;
 
     @BeforeAll
     static void beforeAll() throws Exception {
@@ -43,8 +55,12 @@ class DownloadCacheTest {
     }
 
     @BeforeEach
-    void beforeEach() {
-        when(downloader.download(any(Path.class), eq(BASE_LOCATION))).thenAnswer((answer) -> {
+    void beforeEach() throws Exception {
+        configuration = new ApplicationConfiguration()
+                .setTempDir(Files.createTempDirectory(TEMP_DIR, "cache-").toFile()).setCacheSize(CACHE_SIZE)
+                .setMirrorQuota(0).setDownloadReserve(0);
+        cache = new DownloadCache(downloader, configuration);
+        when(downloader.download(any(Path.class), any(URI.class), any())).thenAnswer((answer) -> {
             final var path = (Path) answer.getArgument(0);
             final var download = path.resolve(DOWNLOAD);
             assertThat(download.toFile().mkdir()).isTrue();
@@ -52,13 +68,28 @@ class DownloadCacheTest {
         });
     }
 
+    @AfterEach
+    void afterEach() {
+        cache.close();
+    }
+
+    /**
+     * Replaces the cache by a new instance using the same directory, as if the service was restarted.
+     */
+    private DownloadCache restart(ApplicationConfiguration configuration) {
+        cache.close();
+        cache = new DownloadCache(downloader, configuration);
+        cache.awaitRestore();
+        return cache;
+    }
+
     @Test
     void cachesDownloadedPackageWorkDirectory() {
         final var workDir = cache.obtain(LOCATION);
         cache.release(LOCATION);
 
         assertThat(workDir.toFile()).exists();
-        verify(downloader).download(workDir.getParent(), BASE_LOCATION);
+        verify(downloader).download(workDir.getParent(), BASE_LOCATION, "directory/path");
     }
 
     @Test
@@ -69,7 +100,97 @@ class DownloadCacheTest {
         final var second = cache.obtain(LOCATION);
 
         assertThat(second).isEqualTo(first);
-        verify(downloader, times(1)).download(any(Path.class), any(URI.class));
+        verify(downloader, times(1)).download(any(Path.class), any(URI.class), any());
+    }
+
+    @Test
+    void reusesArchiveWithSameChecksum() {
+        when(downloader.checksum(any(Path.class), eq(BASE_LOCATION))).thenReturn(Optional.of(CHECKSUM));
+        final var first = cache.obtain(LOCATION);
+        cache.release(LOCATION);
+
+        final var mirror = URI.create("https://mirror.example.com/download");
+        final var second = cache.obtain(mirror, CHECKSUM);
+        cache.release(mirror);
+
+        assertThat(second).isEqualTo(first.getParent().resolve(DOWNLOAD));
+        assertThat(cache.getLocations()).contains(mirror);
+        verify(downloader, times(1)).download(any(Path.class), any(URI.class), any());
+    }
+
+    @Test
+    void throws_checksumMismatch() {
+        when(downloader.checksum(any(Path.class), eq(BASE_LOCATION))).thenReturn(Optional.of(CHECKSUM));
+
+        assertThatThrownBy(() -> cache.obtain(LOCATION, "00".repeat(32)))
+                .isInstanceOf(DownloadException.class)
+                .hasMessageContaining("does not match");
+    }
+
+    @Test
+    void dropsEntry_checksumMismatch() {
+        when(downloader.checksum(any(Path.class), eq(BASE_LOCATION))).thenReturn(Optional.of(CHECKSUM));
+        assertThatThrownBy(() -> cache.obtain(LOCATION, "00".repeat(32)));
+
+        cache.obtain(LOCATION, CHECKSUM);
+
+        verify(downloader, times(2)).download(any(), any(), any());
+    }
+
+    @Test
+    void dropsEntryAfterUse_checksumMismatch() {
+        when(downloader.checksum(any(Path.class), eq(BASE_LOCATION))).thenReturn(Optional.of(CHECKSUM));
+        cache.obtain(LOCATION);
+        assertThatThrownBy(() -> cache.obtain(LOCATION, "00".repeat(32)));
+        assertThat(cache.getLocations()).contains(BASE_LOCATION);
+
+        cache.release(LOCATION);
+
+        assertThat(cache.getLocations()).isEmpty();
+    }
+
+    @Test
+    void reusesArchiveWithSameChecksumAfterRestart() {
+        when(downloader.checksum(any(Path.class), eq(BASE_LOCATION))).thenReturn(Optional.of(CHECKSUM));
+        cache.obtain(BASE_LOCATION);
+        cache.release(BASE_LOCATION);
+
+        final var restarted = restart(configuration);
+        restarted.obtain(URI.create("https://mirror.example.com/download"), CHECKSUM);
+
+        verify(downloader, times(1)).download(any(Path.class), any(URI.class), any());
+    }
+
+    @Test
+    void normalizesChecksum() {
+        assertThat(DownloadCache.normalizeChecksum(" SHA256:" + CHECKSUM.toUpperCase() + " ")).isEqualTo(CHECKSUM);
+        assertThat(DownloadCache.normalizeChecksum(CHECKSUM)).isEqualTo(CHECKSUM);
+    }
+
+    @Test
+    void listsCachedBaseLocations() {
+        cache.obtain(LOCATION);
+
+        assertThat(cache.getLocations()).containsExactly(BASE_LOCATION);
+    }
+
+    @Test
+    void stripsDirectoryPathFromLocation() {
+        assertThat(DownloadCache.stripDirectoryPath(LOCATION)).isEqualTo(BASE_LOCATION);
+    }
+
+    @Test
+    void sharesEntryForEquivalentLocations() {
+        final var first = cache.obtain(LOCATION);
+        cache.release(LOCATION);
+
+        final var equivalent = URI.create("HTTPS://WWW.Example.COM:443/./download/#/directory//path/");
+        final var second = cache.obtain(equivalent);
+        cache.release(equivalent);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(cache.getLocations()).containsExactly(BASE_LOCATION);
+        verify(downloader, times(1)).download(any(Path.class), any(URI.class), any());
     }
 
     @Test
@@ -85,13 +206,397 @@ class DownloadCacheTest {
         assertThat(workDir.toFile()).doesNotExist();
     }
 
+    @Test
+    void indicatesRoomBelowLowWatermark() {
+        final var quotaCache = restart(configuration.setCacheQuota(2).setCacheLowWatermark(50));
+        when(downloader.download(any(Path.class), any(URI.class), any())).thenAnswer((answer) -> {
+            final var path = (Path) answer.getArgument(0);
+            Files.write(path.resolve("data"), new byte[MB]);
+            return path;
+        });
+        assertThat(quotaCache.hasRoom()).isTrue();
+
+        quotaCache.obtain(LOCATION);
+
+        assertThat(quotaCache.hasRoom()).isFalse();
+    }
+
+    @Test
+    void leavesPartOfQuotaToMirrors() {
+        final var quotaCache = restart(configuration.setCacheQuota(2).setMirrorQuota(1)
+                .setCacheLowWatermark(100));
+        when(downloader.download(any(Path.class), any(URI.class), any())).thenAnswer((answer) -> {
+            final var path = (Path) answer.getArgument(0);
+            Files.write(path.resolve("data"), new byte[MB]);
+            return path;
+        });
+
+        quotaCache.obtain(LOCATION);
+
+        assertThat(quotaCache.hasRoom()).isFalse();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesToLowWatermark_quotaExceeded() {
+        final var quotaCache = restart(configuration.setCacheSize(10)
+                .setCacheQuota(3).setCacheLowWatermark(40));
+        when(downloader.download(any(Path.class), any(URI.class), any())).thenAnswer((answer) -> {
+            final var path = (Path) answer.getArgument(0);
+            Files.write(path.resolve("data"), new byte[MB]);
+            return path;
+        });
+        for (var name : List.of("first", "second", "third")) {
+            final var location = URI.create("https://example.com/" + name);
+            quotaCache.obtain(location);
+            quotaCache.release(location);
+        }
+        assertThat(quotaCache.getUsedBytes()).isEqualTo(3 * MB);
+
+        final var fourth = URI.create("https://example.com/fourth");
+        quotaCache.obtain(fourth);
+
+        assertThat(quotaCache.getLocations())
+                .containsExactlyInAnyOrder(URI.create("https://example.com/third"), fourth);
+        assertThat(quotaCache.getUsedBytes()).isEqualTo(2 * MB);
+    }
+
+    @Test
+    void waitsForSpace_quotaExceededByClaimedEntries() throws Exception {
+        final var quotaCache = restart(configuration.setCacheQuota(1));
+        when(downloader.download(any(Path.class), any(URI.class), any())).thenAnswer((answer) -> {
+            final var path = (Path) answer.getArgument(0);
+            Files.write(path.resolve("data"), new byte[MB]);
+            return path;
+        });
+        final var other = URI.create("https://example.com/other");
+        quotaCache.obtain(LOCATION);
+
+        final var waiting = CompletableFuture.supplyAsync(() -> quotaCache.obtain(other));
+        Thread.sleep(100);
+        assertThat(waiting).isNotDone();
+        verify(downloader, never()).download(any(Path.class), eq(other), any());
+
+        quotaCache.release(LOCATION);
+        assertThat(waiting.get(2, TimeUnit.SECONDS)).exists();
+        assertThat(quotaCache.getLocations()).containsExactly(other);
+    }
+
+    @Test
+    void reservesSpaceForDownloadsInProgress() throws Exception {
+        final var quotaCache = restart(configuration.setCacheQuota(3).setDownloadReserve(1));
+        final var started = new CountDownLatch(2);
+        final var blocked = new CountDownLatch(1);
+        when(downloader.download(any(Path.class), any(URI.class), any())).thenAnswer((answer) -> {
+            started.countDown();
+            blocked.await(5, TimeUnit.SECONDS);
+            return answer.getArgument(0);
+        });
+        final var downloads = Stream.of("first", "second", "third")
+                .map(name -> URI.create("https://example.com/" + name))
+                .map(location -> CompletableFuture.supplyAsync(() -> quotaCache.obtain(location)))
+                .collect(Collectors.toList());
+
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(100);
+        verify(downloader, times(2)).download(any(Path.class), any(URI.class), any());
+        assertThat(quotaCache.getUsedBytes()).isEqualTo(2 * MB);
+
+        blocked.countDown();
+        for (var download : downloads) {
+            assertThat(download.get(5, TimeUnit.SECONDS)).exists();
+        }
+        verify(downloader, times(3)).download(any(Path.class), any(URI.class), any());
+        assertThat(quotaCache.getUsedBytes()).isZero();
+    }
+
+    @Test
+    void restoresCachedSourcesAfterRestart() {
+        final var workDir = cache.obtain(LOCATION);
+        cache.release(LOCATION);
+
+        final var restarted = restart(configuration);
+        final var restored = restarted.obtain(LOCATION);
+
+        assertThat(restored).isEqualTo(workDir);
+        assertThat(restarted.getLocations()).containsExactly(BASE_LOCATION);
+        verify(downloader, times(1)).download(any(Path.class), any(URI.class), any());
+    }
+
+    @Test
+    void downloadsFromRequestedNotation_equivalentLocationsShareEntry() {
+        final var ssh = URI.create("git+ssh://git@GitHub.com/owner/repo.git#sub");
+        final var https = URI.create("git+https://github.com/owner/repo#sub");
+
+        final var first = cache.obtain(ssh);
+        final var second = cache.obtain(https);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(cache.getLocations()).containsExactly(URI.create("git+https://github.com/owner/repo"));
+        verify(downloader).download(first.getParent(), URI.create("git+ssh://git@GitHub.com/owner/repo.git"), "sub");
+        verify(downloader, times(1)).download(any(Path.class), any(URI.class), any());
+    }
+
+    @Test
+    void refusesCacheDirectoryInUseByOtherInstance() {
+        assertThatThrownBy(() -> new DownloadCache(downloader, configuration))
+                .isInstanceOf(DownloadException.class)
+                .hasMessageContaining("in use by another instance");
+    }
+
+    @Test
+    void keepsEntryOfCurrentRevision() {
+        when(downloader.revision(any(Path.class), eq(BASE_LOCATION))).thenReturn(Optional.of("revision"));
+        when(downloader.currentRevision(BASE_LOCATION)).thenReturn(Optional.of("revision"));
+        cache.obtain(LOCATION);
+        cache.release(LOCATION);
+
+        cache.obtain(LOCATION);
+
+        assertThat(cache.getRevision(LOCATION)).contains("revision");
+        verify(downloader, times(1)).download(any(Path.class), any(URI.class), any());
+    }
+
+    @Test
+    void downloadsAgain_revisionOfLocationChanged() {
+        when(downloader.revision(any(Path.class), eq(BASE_LOCATION))).thenReturn(Optional.of("old"));
+        cache.obtain(LOCATION);
+        cache.release(LOCATION);
+        when(downloader.currentRevision(BASE_LOCATION)).thenReturn(Optional.of("new"));
+        when(downloader.revision(any(Path.class), eq(BASE_LOCATION))).thenReturn(Optional.of("new"));
+
+        cache.obtain(LOCATION);
+
+        assertThat(cache.getRevision(LOCATION)).contains("new");
+        verify(downloader, times(2)).download(any(Path.class), any(URI.class), any());
+    }
+
+    @Test
+    void hidesOutdatedRevisionOfEntryInUse() {
+        when(downloader.revision(any(Path.class), eq(BASE_LOCATION))).thenReturn(Optional.of("old"));
+        cache.obtain(LOCATION);
+        when(downloader.currentRevision(BASE_LOCATION)).thenReturn(Optional.of("new"));
+
+        assertThat(cache.getRevision(LOCATION)).isEmpty();
+        cache.release(LOCATION);
+        assertThat(cache.getLocations()).isEmpty();
+    }
+
+    @Test
+    void removesIncompleteDownloadsAtStartup() throws Exception {
+        final var partial = configuration.getTempDir().resolve("license-scanner-cache")
+                .resolve(DownloadCache.entryName(BASE_LOCATION));
+        Files.createDirectories(partial.resolve("sources"));
+
+        final var restarted = restart(configuration);
+
+        assertThat(partial.toFile()).doesNotExist();
+        assertThat(restarted.getLocations()).isEmpty();
+    }
+
+    @Test
+    void removesOrphanedWorkingDirectoriesAtStartup() throws Exception {
+        final var orphan = Files.createDirectories(configuration.getTempDir().resolve("licenses-123").resolve("sources"));
+        Files.writeString(orphan.resolve("file.txt"), "Orphan");
+
+        restart(configuration);
+
+        assertThat(orphan.getParent().toFile()).doesNotExist();
+    }
+
+    @Test
+    void discardsCorruptedEntriesAtStartup() throws Exception {
+        final var workDir = cache.obtain(LOCATION);
+        cache.release(LOCATION);
+        Files.writeString(workDir.resolve("added.txt"), "Unexpected");
+
+        final var restarted = restart(configuration);
+
+        assertThat(restarted.getLocations()).isEmpty();
+        assertThat(workDir.toFile()).doesNotExist();
+    }
+
+    @Test
+    void extendsPartialDownloadWithOtherSubPaths() {
+        final var root = cache.obtain(LOCATION);
+        cache.obtain(BASE_LOCATION.resolve("#directory/path/nested"));
+        cache.obtain(BASE_LOCATION.resolve("#other"));
+
+        verify(downloader).include(root, BASE_LOCATION, "other");
+        verify(downloader, never()).include(root, BASE_LOCATION, "directory/path/nested");
+    }
+
+    @Test
+    void completesPartialDownload() {
+        final var root = cache.obtain(LOCATION);
+        cache.obtain(BASE_LOCATION);
+        cache.obtain(BASE_LOCATION.resolve("#other"));
+
+        verify(downloader).include(root, BASE_LOCATION, null);
+        verify(downloader, times(1)).include(any(), any(), any());
+    }
+
     @Test
     void dropsEntry_downloadException() {
-        when(downloader.download(any(Path.class), any(URI.class))).thenThrow(new IllegalStateException("Download issue"));
+        when(downloader.download(any(Path.class), any(URI.class), any())).thenThrow(new IllegalStateException("Download issue"));
 
         assertThatThrownBy(() -> cache.obtain(LOCATION));
         assertThatThrownBy(() -> cache.obtain(LOCATION));
 
-        verify(downloader, times(2)).download(any(), any());
+        verify(downloader, times(2)).download(any(), any(), any());
+    }
+
+    @Test
+    void failsFast_recentlyNotFound() {
+        when(downloader.download(any(Path.class), any(URI.class), any()))
+                .thenThrow(new DownloadException("Not found", DownloadException.Failure.NOT_FOUND));
+
+        assertThatThrownBy(() -> cache.obtain(LOCATION)).hasMessage("Not found");
+        assertThatThrownBy(() -> cache.obtain(LOCATION)).hasMessage("Not found");
+
+        verify(downloader, times(1)).download(any(), any(), any());
+        assertThat(cache.getLocations()).isEmpty();
+    }
+
+    @Test
+    void retriesFailedDownload_notRemembered() {
+        final var retrying = restart(configuration.setNotFoundTtl(0));
+        when(downloader.download(any(Path.class), any(URI.class), any()))
+                .thenThrow(new DownloadException("Not found", DownloadException.Failure.NOT_FOUND));
+
+        assertThatThrownBy(() -> retrying.obtain(LOCATION));
+        assertThatThrownBy(() -> retrying.obtain(LOCATION));
+
+        verify(downloader, times(2)).download(any(), any(), any());
+    }
+
+    @Test
+    void downloadsDifferentLocationsInParallel() throws Exception {
+        final var other = URI.create("https://example.com/other");
+        final var blocked = new CountDownLatch(1);
+        when(downloader.download(any(Path.class), eq(BASE_LOCATION), any())).thenAnswer((answer) -> {
+            blocked.await(5, TimeUnit.SECONDS);
+            return answer.getArgument(0);
+        });
+        when(downloader.download(any(Path.class), eq(other), any())).thenAnswer((answer) -> answer.getArgument(0));
+
+        final var slow = CompletableFuture.supplyAsync(() -> cache.obtain(LOCATION));
+        final var fast = CompletableFuture.supplyAsync(() -> cache.obtain(other));
+
+        assertThat(fast.get(2, TimeUnit.SECONDS)).exists();
+        assertThat(slow).isNotDone();
+        blocked.countDown();
+        assertThat(slow.get(2, TimeUnit.SECONDS)).exists();
+    }
+
+    @Test
+    void sharesSingleDownloadForConcurrentRequests() throws Exception {
+        final var started = new CountDownLatch(1);
+        final var blocked = new CountDownLatch(1);
+        when(downloader.download(any(Path.class), eq(BASE_LOCATION), any())).thenAnswer((answer) -> {
+            started.countDown();
+            blocked.await(5, TimeUnit.SECONDS);
+            return answer.getArgument(0);
+        });
+
+        final var first = CompletableFuture.supplyAsync(() -> cache.obtain(LOCATION));
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+        final var second = CompletableFuture.supplyAsync(() -> cache.obtain(BASE_LOCATION));
+        blocked.countDown();
+
+        assertThat(second.get(2, TimeUnit.SECONDS)).isEqualTo(first.get(2, TimeUnit.SECONDS));
+        verify(downloader, times(1)).download(any(Path.class), any(URI.class), any());
+    }
+
+    @Test
+    void continuesSharedDownload_requestInterrupted() throws Exception {
+        final var started = new CountDownLatch(1);
+        final var blocked = new CountDownLatch(1);
+        when(downloader.download(any(Path.class), eq(BASE_LOCATION), any())).thenAnswer((answer) -> {
+            started.countDown();
+            blocked.await(5, TimeUnit.SECONDS);
+            return answer.getArgument(0);
+        });
+        final var failure = new AtomicReference<Throwable>();
+        final var interrupted = new Thread(() -> {
+            try {
+                cache.obtain(LOCATION);
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+        });
+        interrupted.start();
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+        final var result = new AtomicReference<Path>();
+        final var waiting = new Thread(() -> result.set(cache.obtain(LOCATION)));
+        waiting.start();
+        awaitBlocked(waiting);
+
+        interrupted.interrupt();
+        interrupted.join(2000);
+        blocked.countDown();
+        waiting.join(2000);
+
+        assertThat(failure.get()).isInstanceOf(DownloadException.class).hasMessageContaining("Interrupted");
+        assertThat(result.get()).exists();
+        verify(downloader, times(1)).download(any(Path.class), any(URI.class), any());
+    }
+
+    @Test
+    void cancelsDownload_allRequestsInterrupted() throws Exception {
+        final var started = new CountDownLatch(1);
+        final var cancelled = new CountDownLatch(1);
+        when(downloader.download(any(Path.class), eq(BASE_LOCATION), any())).thenAnswer((answer) -> {
+            started.countDown();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                cancelled.countDown();
+                throw new DownloadException("Download was interrupted", e);
+            }
+            return answer.getArgument(0);
+        });
+        final var request = new Thread(() -> {
+            try {
+                cache.obtain(LOCATION);
+            } catch (DownloadException e) {
+                // Expected
+            }
+        });
+        request.start();
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+
+        request.interrupt();
+
+        assertThat(cancelled.await(2, TimeUnit.SECONDS)).isTrue();
+        request.join(2000);
+        assertThat(cache.obtain(LOCATION)).exists();
+        verify(downloader, times(2)).download(any(Path.class), any(URI.class), any());
+    }
+
+    private static void awaitBlocked(Thread thread) throws InterruptedException {
+        final var timeout = System.currentTimeMillis() + 2000;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < timeout) {
+            //noinspection BusyWait
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void failsAllWaitingRequests_downloadException() throws Exception {
+        final var started = new CountDownLatch(1);
+        final var blocked = new CountDownLatch(1);
+        when(downloader.download(any(Path.class), eq(BASE_LOCATION), any())).thenAnswer((answer) -> {
+            started.countDown();
+            blocked.await(5, TimeUnit.SECONDS);
+            throw new DownloadException("Download issue");
+        });
+
+        final var first = CompletableFuture.supplyAsync(() -> cache.obtain(LOCATION));
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+        final var second = CompletableFuture.supplyAsync(() -> cache.obtain(LOCATION));
+        blocked.countDown();
+
+        assertThatThrownBy(() -> first.get(2, TimeUnit.SECONDS)).hasCauseInstanceOf(DownloadException.class);
+        assertThatThrownBy(() -> second.get(2, TimeUnit.SECONDS)).hasCauseInstanceOf(DownloadException.class);
     }
 }
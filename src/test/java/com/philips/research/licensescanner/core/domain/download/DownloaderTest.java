@@ -5,11 +5,13 @@
 
 package com.philips.research.licensescanner.core.domain.download;
 
+import com.philips.research.licensescanner.ApplicationConfiguration;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.util.FileSystemUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
@@ -27,7 +29,8 @@ class DownloaderTest {
     private static Path testDirectory;
 
     private final VcsHandler mockHandler = mock(VcsHandler.class);
-    private final Downloader downloader = new Downloader();
+    private final Downloader downloader = new Downloader(new ApplicationConfiguration()
+            .setTempDir(new File(System.getProperty("java.io.tmpdir"))));
 
     @BeforeEach()
     void beforeEach() throws IOException {
@@ -48,6 +51,26 @@ class DownloaderTest {
                 .hasMessageContaining("No handler registered");
     }
 
+    @Test
+    void supportsPackageRegistries() {
+        assertThat(downloader.supports(URI.create("pkg:npm/name@1.0"))).isTrue();
+        assertThat(downloader.supports(URI.create("pkg:MAVEN/group/name@1.0"))).isTrue();
+        assertThat(downloader.supports(URI.create("pkg:unknown/name@1.0"))).isFalse();
+        assertThat(downloader.supports(LOCATION)).isTrue();
+    }
+
+    @Test
+    void downloadsForPackageRegistry() {
+        final var purl = URI.create("pkg:tool/name@1.0");
+        final var destinationDir = testDirectory.resolve("whatever");
+        when(mockHandler.download(testDirectory, purl)).thenReturn(destinationDir);
+
+        downloader.register("pkg:" + TOOL, mockHandler);
+        final var directory = downloader.download(testDirectory, purl);
+
+        assertThat(directory).isEqualTo(destinationDir);
+    }
+
     @Test
     void downloadsForToolFromLocationToDirectory() {
         final var location = LOCATION.toString() + "#path/to/whatever";
@@ -5,18 +5,54 @@
 
 package com.philips.research.licensescanner.core.domain.download;
 
+import com.philips.research.licensescanner.core.command.ShellCommand;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
 
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class GitVcsHandlerTest extends VcsHandlerTestBase {
-    final VcsHandler handler = new GitVcsHandler();
+    @SuppressWarnings("NotNullFieldNotInitialized")
+    private Path mirrors;
+    @SuppressWarnings("NotNullFieldNotInitialized")
+    private Path trash;
+    @SuppressWarnings("NotNullFieldNotInitialized")
+    private VcsHandler handler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mirrors = Files.createTempDirectory("mirrors");
+        trash = Files.createTempDirectory("trash");
+        handler = new GitVcsHandler(mirrors, trash, Long.MAX_VALUE);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(mirrors);
+        FileSystemUtils.deleteRecursively(trash);
+    }
+
+    private static boolean isNotEmpty(Path directory) throws IOException {
+        try (var stream = Files.list(directory)) {
+            return stream.findAny().isPresent();
+        }
+    }
 
     private void assertHash(String s) throws IOException {
         assertThat(Files.readString(tempDir.resolve(".git").resolve("HEAD")))
@@ -67,4 +103,322 @@ class GitVcsHandlerTest extends VcsHandlerTestBase {
                 .isInstanceOf(DownloadException.class)
                 .hasMessageContaining("Checkout");
     }
+
+    @Nested
+    class LocalRepository {
+        @SuppressWarnings("NotNullFieldNotInitialized")
+        private Path origin;
+        @SuppressWarnings("NotNullFieldNotInitialized")
+        private String first;
+        @SuppressWarnings("NotNullFieldNotInitialized")
+        private String second;
+
+        @BeforeEach
+        void beforeEach() throws IOException {
+            origin = Files.createTempDirectory("origin");
+            first = commit("first");
+            git().execute("tag", "v1.0.0");
+            second = commit("second");
+            git().execute("tag", "2.0.0");
+        }
+
+        @AfterEach
+        void afterEach() throws IOException {
+            FileSystemUtils.deleteRecursively(origin);
+        }
+
+        private ShellCommand git() {
+            return new ShellCommand("git").setDirectory(origin.toFile());
+        }
+
+        private String commit(String content) throws IOException {
+            if (!origin.resolve(".git").toFile().exists()) {
+                git().execute("init", "--quiet")
+                        .execute("config", "uploadpack.allowFilter", "true");
+            }
+            Files.writeString(origin.resolve("file.txt"), content);
+            git().execute("add", "--all")
+                    .execute("-c", "user.name=Test", "-c", "user.email=test@example.com", "commit", "--quiet", "-m", content);
+            return git().query("rev-parse", "HEAD").trim();
+        }
+
+        private URI location(String version) {
+            return URI.create(origin.toUri() + (version.isEmpty() ? "" : "@" + version));
+        }
+
+        @Test
+        void checksOutTag() throws IOException {
+            final var path = handler.download(tempDir, location("v1.0.0"));
+
+            assertThat(path).isEqualTo(tempDir);
+            assertHash(first);
+            assertThat(tempDir.resolve("file.txt")).hasContent("first");
+        }
+
+        @Test
+        void checksOutAlternativeVersionTag() throws IOException {
+            handler.download(tempDir, location("1.0.0"));
+
+            assertHash(first);
+        }
+
+        @Test
+        void checksOutCommitHash() throws IOException {
+            handler.download(tempDir, location(first.substring(0, 7)));
+
+            assertHash(first);
+        }
+
+        @Test
+        void checksOutDefaultBranch() throws IOException {
+            handler.download(tempDir, location(""));
+
+            assertHash(second);
+        }
+
+        @Test
+        void resolvesCurrentRevisionWithoutDownloading() {
+            assertThat(handler.currentRevision(location("1.0.0"))).contains(first);
+            assertThat(handler.currentRevision(location(""))).contains(second);
+            assertThat(handler.currentRevision(location(first.substring(0, 7)))).isEmpty();
+            assertThat(tempDir.resolve("file.txt")).doesNotExist();
+        }
+
+        @Test
+        void reusesMirrorForOtherVersions() throws IOException {
+            handler.download(tempDir, location("v1.0.0"));
+            final var other = Files.createTempDirectory(tempDir.getParent(), "other");
+            try {
+                handler.download(other, location("2.0.0"));
+
+                assertThat(Files.readString(other.resolve("file.txt"))).isEqualTo("second");
+                try (var stream = Files.list(mirrors)) {
+                    assertThat(stream.count()).isEqualTo(1);
+                }
+            } finally {
+                FileSystemUtils.deleteRecursively(other);
+            }
+        }
+
+        @Test
+        void evictsUnusedMirrors_quotaExceeded() throws Exception {
+            final var limited = new GitVcsHandler(mirrors, trash, 1);
+
+            limited.download(tempDir, location("v1.0.0"));
+
+            assertThat(tempDir.resolve("file.txt")).hasContent("first");
+            try (var stream = Files.list(mirrors)) {
+                assertThat(stream.count()).isZero();
+            }
+            final var timeout = System.currentTimeMillis() + 5000;
+            while (isNotEmpty(trash) && System.currentTimeMillis() < timeout) {
+                //noinspection BusyWait
+                Thread.sleep(10);
+            }
+            assertThat(isNotEmpty(trash)).isFalse();
+        }
+
+        @Test
+        void fetchesNewVersionsIntoMirror() throws IOException {
+            handler.download(tempDir, location("v1.0.0"));
+            final var third = commit("third");
+            git().execute("tag", "3.0.0");
+            final var other = Files.createTempDirectory(tempDir.getParent(), "other");
+            try {
+                handler.download(other, location("3.0.0"));
+
+                assertThat(Files.readString(other.resolve(".git").resolve("HEAD"))).isEqualTo(third + "\n");
+            } finally {
+                FileSystemUtils.deleteRecursively(other);
+            }
+        }
+
+        @Test
+        void checksOutSubPathWithRootFiles() throws IOException {
+            Files.createDirectories(origin.resolve("sub/path"));
+            Files.createDirectories(origin.resolve("other"));
+            Files.writeString(origin.resolve("sub/path/sub.txt"), "Sub");
+            Files.writeString(origin.resolve("other/other.txt"), "Other");
+            commit("third");
+
+            handler.download(tempDir, location(""), "sub/path");
+
+            assertThat(tempDir.resolve("file.txt")).exists();
+            assertThat(tempDir.resolve("sub/path/sub.txt")).exists();
+            assertThat(tempDir.resolve("other")).doesNotExist();
+        }
+
+        @Test
+        void includesSubPathInCheckout() throws IOException {
+            Files.createDirectories(origin.resolve("sub"));
+            Files.createDirectories(origin.resolve("other"));
+            Files.writeString(origin.resolve("sub/sub.txt"), "Sub");
+            Files.writeString(origin.resolve("other/other.txt"), "Other");
+            commit("third");
+            handler.download(tempDir, location(""), "sub");
+
+            handler.include(tempDir, "other");
+
+            assertThat(tempDir.resolve("other/other.txt")).exists();
+        }
+
+        @Test
+        void fetchesLargeFilesOnlyForCheckout() throws IOException {
+            final var large = new byte[2 * 1024 * 1024];
+            new Random().nextBytes(large);
+            Files.write(origin.resolve("large.bin"), large);
+            commit("third");
+
+            handler.download(tempDir, location(""));
+
+            assertThat(tempDir.resolve("large.bin")).hasBinaryContent(large);
+            try (var stream = Files.walk(mirrors)) {
+                assertThat(stream.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum())
+                        .isLessThan(large.length);
+            }
+        }
+
+        @Test
+        void fetchesOnlyTheRequestedCommit() throws IOException {
+            handler.download(tempDir, location("2.0.0"));
+
+            try (var stream = Files.list(mirrors)) {
+                final var mirror = stream.findFirst().orElseThrow();
+                final var count = new ShellCommand("git").setDirectory(mirror.toFile()).query("rev-list", "--all", "--count");
+                assertThat(count.trim()).isEqualTo("1");
+            }
+        }
+
+        @Test
+        void reportsCheckedOutRevision() {
+            handler.download(tempDir, location("2.0.0"));
+
+            assertThat(handler.revision(tempDir)).contains(second);
+        }
+
+        @Test
+        void reusesResolvedVersionWithoutRemoteAccess() throws IOException {
+            final var location = location("v1.0.0");
+            handler.download(tempDir, location);
+            FileSystemUtils.deleteRecursively(origin);
+            final var other = Files.createTempDirectory(tempDir.getParent(), "other");
+            try {
+                handler.download(other, location);
+
+                assertThat(other.resolve("file.txt")).hasContent("first");
+            } finally {
+                FileSystemUtils.deleteRecursively(other);
+            }
+        }
+
+        @Test
+        void checksOutFullCommitHash() throws IOException {
+            handler.download(tempDir, location(first));
+
+            assertHash(first);
+        }
+
+        @Test
+        void checksOutKnownFullCommitHashWithoutRemoteAccess() throws IOException {
+            final var location = location(first);
+            handler.download(tempDir, location);
+            FileSystemUtils.deleteRecursively(origin);
+            final var other = Files.createTempDirectory(tempDir.getParent(), "other");
+            try {
+                handler.download(other, location);
+
+                assertThat(other.resolve("file.txt")).hasContent("first");
+            } finally {
+                FileSystemUtils.deleteRecursively(other);
+            }
+        }
+
+        @Test
+        void throws_unknownVersion() {
+            assertThatThrownBy(() -> handler.download(tempDir, location("unknown")))
+                    .isInstanceOf(DownloadException.class)
+                    .hasMessageContaining("Checkout")
+                    .satisfies(e -> assertThat(((DownloadException) e).getFailure()).contains(DownloadException.Failure.NOT_FOUND));
+        }
+
+        @Test
+        void leavesFailureUnclassified_unknownGitError() throws IOException {
+            FileSystemUtils.deleteRecursively(origin);
+
+            assertThatThrownBy(() -> handler.download(tempDir, location("v1.0.0")))
+                    .isInstanceOf(DownloadException.class)
+                    .hasStackTraceContaining("does not appear to be a git repository")
+                    .satisfies(e -> assertThat(((DownloadException) e).getFailure()).isEmpty());
+        }
+    }
+
+    @Nested
+    class ConcurrentDownloads {
+        private static final int REPOSITORIES = 3;
+        private static final int VERSIONS = 3;
+        private static final int THREADS = 8;
+
+        private final List<Path> origins = new ArrayList<>();
+        private final List<Path> targets = new ArrayList<>();
+
+        @BeforeEach
+        void beforeEach() throws IOException {
+            for (int r = 0; r < REPOSITORIES; r++) {
+                final var origin = Files.createTempDirectory("origin");
+                final var git = new ShellCommand("git").setDirectory(origin.toFile()).execute("init", "--quiet");
+                for (int v = 1; v <= VERSIONS; v++) {
+                    Files.writeString(origin.resolve("version.txt"), content(r, v));
+                    git.execute("add", "--all")
+                            .execute("-c", "user.name=Test", "-c", "user.email=test@example.com", "commit", "--quiet", "-m", "v" + v)
+                            .execute("tag", v + ".0");
+                }
+                origins.add(origin);
+            }
+        }
+
+        @AfterEach
+        void afterEach() throws IOException {
+            for (var path : origins) {
+                FileSystemUtils.deleteRecursively(path);
+            }
+            for (var path : targets) {
+                FileSystemUtils.deleteRecursively(path);
+            }
+        }
+
+        private String content(int repository, int version) {
+            return "Repository " + repository + " version " + version;
+        }
+
+        @Test
+        void downloadsInParallel() throws Exception {
+            final var executor = Executors.newFixedThreadPool(THREADS);
+            try {
+                final var downloads = new ArrayList<Future<Path>>();
+                final var expected = new ArrayList<String>();
+                for (int round = 0; round < 2; round++) {
+                    for (int r = 0; r < REPOSITORIES; r++) {
+                        for (int v = 1; v <= VERSIONS; v++) {
+                            final var target = Files.createTempDirectory("target");
+                            targets.add(target);
+                            final var location = URI.create(origins.get(r).toUri() + "@" + v + ".0");
+                            downloads.add(executor.submit(() -> handler.download(target, location)));
+                            expected.add(content(r, v));
+                        }
+                    }
+                }
+
+                for (int i = 0; i < downloads.size(); i++) {
+                    final var path = downloads.get(i).get(1, TimeUnit.MINUTES);
+                    assertThat(path).isEqualTo(targets.get(i));
+                    assertThat(path.resolve("version.txt")).hasContent(expected.get(i));
+                }
+                try (var stream = Files.list(mirrors)) {
+                    assertThat(stream.count()).isEqualTo(REPOSITORIES);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HttpDownloaderTest {
+    private static final int SIZE = 100_000;
+    private static final String ETAG = "\"version\"";
+
+    private final byte[] content = new byte[SIZE];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger drops = new AtomicInteger();
+    private final AtomicInteger stalls = new AtomicInteger();
+    private final HttpDownloader downloader = new HttpDownloader(Duration.ofSeconds(5), Duration.ofMillis(500), Long.MAX_VALUE);
+    private HttpServer server;
+    private URI location;
+    private Path directory;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        new Random(42).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/file.bin", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        location = URI.create("http://localhost:" + server.getAddress().getPort() + "/file.bin");
+        directory = Files.createTempDirectory("download-");
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        server.stop(0);
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    void downloadsFile() throws Exception {
+        assertThat(read(downloader, location)).isEqualTo(content);
+        assertThat(ranges).containsExactly("");
+    }
+
+    @Test
+    void throws_fileNotFound() {
+        assertThatThrownBy(() -> downloader.open(location.resolve("unknown"), directory))
+                .isInstanceOf(DownloadException.class)
+                .hasMessageContaining("404")
+                .satisfies(e -> assertThat(((DownloadException) e).getFailure()).contains(DownloadException.Failure.NOT_FOUND));
+    }
+
+    @Test
+    void retriesServerErrors() throws Exception {
+        failures.set(2);
+
+        assertThat(read(downloader, location)).isEqualTo(content);
+        assertThat(ranges).hasSize(3);
+    }
+
+    @Test
+    void resumesDroppedTransfer() throws Exception {
+        drops.set(1);
+
+        assertThat(read(downloader, location)).isEqualTo(content);
+        assertThat(ranges).hasSize(2);
+        assertThat(ranges.get(1)).matches("bytes=\\d+-");
+    }
+
+    @Test
+    void resumesStalledTransfer() throws Exception {
+        stalls.set(1);
+
+        assertThat(read(downloader, location)).isEqualTo(content);
+        assertThat(ranges).hasSize(2);
+        assertThat(ranges.get(1)).startsWith("bytes=");
+    }
+
+    @Test
+    void downloadsLargeFileInSegments() throws Exception {
+        final var segmented = new HttpDownloader(Duration.ofSeconds(5), Duration.ofSeconds(5), SIZE / 2);
+
+        assertThat(read(segmented, location)).isEqualTo(content);
+        assertThat(ranges).hasSize(HttpDownloader.SEGMENTS);
+        assertThat(ranges).contains("bytes=" + (SIZE / 4) + "-" + (SIZE / 2 - 1));
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private byte[] read(HttpDownloader client, URI uri) throws IOException {
+        try (InputStream stream = client.open(uri, directory)) {
+            return stream.readAllBytes();
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        final var range = exchange.getRequestHeaders().getFirst("Range");
+        ranges.add((range != null) ? range : "");
+        if (failures.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        var start = 0;
+        var end = SIZE;
+        var status = 200;
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        if (range != null) {
+            final var bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            end = bounds[1].isEmpty() ? SIZE : Integer.parseInt(bounds[1]) + 1;
+            status = 206;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + SIZE);
+        }
+        exchange.sendResponseHeaders(status, end - start);
+        try (var body = exchange.getResponseBody()) {
+            if (drops.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                body.write(content, start, (end - start) / 2);
+                return;
+            }
+            if (stalls.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                body.write(content, start, (end - start) / 2);
+                body.flush();
+                sleep(2000);
+                return;
+            }
+            body.write(content, start, end - start);
+        } catch (IOException e) {
+            // Connection was (deliberately) dropped
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
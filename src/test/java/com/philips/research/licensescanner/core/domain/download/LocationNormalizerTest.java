@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocationNormalizerTest {
+    private static final URI LOCATION = URI.create("https://example.com/path/file.tgz");
+    private static final URI REPOSITORY = URI.create("git+https://github.com/owner/repo");
+
+    @Test
+    void keepsNormalizedLocation() {
+        assertThat(LocationNormalizer.normalize(LOCATION)).isEqualTo(LOCATION);
+        assertThat(LocationNormalizer.normalize(REPOSITORY)).isEqualTo(REPOSITORY);
+    }
+
+    @Test
+    void ignoresPackageUrlsAndRelativeLocations() {
+        final var purl = URI.create("pkg:npm/%40angular/core@1.2.3");
+        final var relative = URI.create("path/File");
+
+        assertThat(LocationNormalizer.normalize(purl)).isEqualTo(purl);
+        assertThat(LocationNormalizer.normalize(relative)).isEqualTo(relative);
+    }
+
+    @Test
+    void lowercasesSchemeAndHost() {
+        assertThat(LocationNormalizer.normalize(URI.create("HTTPS://Example.COM/path/file.tgz"))).isEqualTo(LOCATION);
+    }
+
+    @Test
+    void dropsDefaultPort() {
+        assertThat(LocationNormalizer.normalize(URI.create("https://example.com:443/path/file.tgz"))).isEqualTo(LOCATION);
+        assertThat(LocationNormalizer.normalize(URI.create("git+ssh://example.com:22/repo")))
+                .isEqualTo(URI.create("git+ssh://example.com/repo"));
+        assertThat(LocationNormalizer.normalize(URI.create("https://example.com:8443/path")))
+                .isEqualTo(URI.create("https://example.com:8443/path"));
+    }
+
+    @Test
+    void normalizesPercentEncoding() {
+        assertThat(LocationNormalizer.normalize(URI.create("https://example.com/%70ath/file%2etgz"))).isEqualTo(LOCATION);
+        assertThat(LocationNormalizer.normalize(URI.create("https://example.com/a%2fb%20c")))
+                .isEqualTo(URI.create("https://example.com/a%2Fb%20c"));
+    }
+
+    @Test
+    void normalizesPath() {
+        assertThat(LocationNormalizer.normalize(URI.create("https://example.com//path/./other/../file.tgz/")))
+                .isEqualTo(LOCATION);
+    }
+
+    @Test
+    void keepsQuery() {
+        final var location = URI.create("https://example.com/download?file=a.tgz&b=1");
+
+        assertThat(LocationNormalizer.normalize(location)).isEqualTo(location);
+    }
+
+    @Test
+    void normalizesSubPath() {
+        assertThat(LocationNormalizer.normalize(URI.create("https://example.com/file.tgz#//sub//path/")))
+                .isEqualTo(URI.create("https://example.com/file.tgz#sub/path"));
+        assertThat(LocationNormalizer.normalize(URI.create("https://example.com/path/file.tgz#/"))).isEqualTo(LOCATION);
+    }
+
+    @Test
+    void keepsGitVersion() {
+        assertThat(LocationNormalizer.normalize(URI.create("git+https://Example.com/repo/@feature/x#sub")))
+                .isEqualTo(URI.create("git+https://example.com/repo@feature/x#sub"));
+    }
+
+    @Test
+    void normalizesKnownGitHostingServices() {
+        assertThat(LocationNormalizer.normalize(URI.create("git+ssh://git@github.com/owner/repo.git")))
+                .isEqualTo(REPOSITORY);
+        assertThat(LocationNormalizer.normalize(URI.create("git://github.com/owner/repo.git")))
+                .isEqualTo(REPOSITORY);
+        assertThat(LocationNormalizer.normalize(URI.create("git+https://github.com/owner/repo.git@v1.0#src")))
+                .isEqualTo(URI.create("git+https://github.com/owner/repo@v1.0#src"));
+    }
+
+    @Test
+    void keepsTransportAndSuffixOfOtherGitServers() {
+        final var location = URI.create("git+ssh://git@git.example.com/owner/repo.git");
+
+        assertThat(LocationNormalizer.normalize(location)).isEqualTo(location);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import com.philips.research.licensescanner.core.command.ShellException;
+import com.philips.research.licensescanner.core.command.ShellTimeoutException;
+import com.philips.research.licensescanner.core.domain.download.DownloadException.Failure;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.channels.ClosedByInterruptException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NegativeCacheTest {
+    private static final URI LOCATION = URI.create("git+https://example.com/repo@1.2.3");
+    private static final String MESSAGE = "Test message";
+
+    private final NegativeCache cache = new NegativeCache(Map.of(
+            Failure.NOT_FOUND, Duration.ofHours(1),
+            Failure.TIMEOUT, Duration.ofMillis(50),
+            Failure.AUTHENTICATION, Duration.ZERO));
+
+    @Test
+    void passesUnknownLocation() {
+        cache.check(LOCATION);
+    }
+
+    @Test
+    void remembersClassifiedFailure() {
+        cache.record(LOCATION, new DownloadException(MESSAGE, Failure.NOT_FOUND));
+
+        assertThatThrownBy(() -> cache.check(LOCATION))
+                .isInstanceOf(DownloadException.class)
+                .hasMessage(MESSAGE)
+                .satisfies(e -> assertThat(((DownloadException) e).getFailure()).contains(Failure.NOT_FOUND));
+        cache.check(URI.create("git+https://example.com/repo@2.0.0"));
+    }
+
+    @Test
+    void ignoresUnclassifiedFailure() {
+        cache.record(LOCATION, new DownloadException(MESSAGE, new IOException("Disk full")));
+
+        cache.check(LOCATION);
+    }
+
+    @Test
+    void ignoresFailureClass_zeroDuration() {
+        cache.record(LOCATION, new DownloadException(MESSAGE, Failure.AUTHENTICATION));
+
+        cache.check(LOCATION);
+    }
+
+    @Test
+    void forgetsFailureAfterDuration() throws Exception {
+        cache.record(LOCATION, new DownloadException(MESSAGE, Failure.TIMEOUT));
+        assertThatThrownBy(() -> cache.check(LOCATION)).isInstanceOf(DownloadException.class);
+
+        Thread.sleep(100);
+
+        cache.check(LOCATION);
+    }
+
+    @Test
+    void classifiesFailureCauses() {
+        assertThat(NegativeCache.classify(new DownloadException(MESSAGE, Failure.AUTHENTICATION,
+                new SocketTimeoutException()))).contains(Failure.AUTHENTICATION);
+        assertThat(NegativeCache.classify(new DownloadException(MESSAGE, new SocketTimeoutException())))
+                .contains(Failure.TIMEOUT);
+        assertThat(NegativeCache.classify(new DownloadException(MESSAGE, new ShellTimeoutException(MESSAGE))))
+                .contains(Failure.TIMEOUT);
+        assertThat(NegativeCache.classify(new DownloadException(MESSAGE, new UnknownHostException())))
+                .contains(Failure.NOT_FOUND);
+        assertThat(NegativeCache.classify(new DownloadException(MESSAGE, new FileNotFoundException())))
+                .contains(Failure.NOT_FOUND);
+        assertThat(NegativeCache.classify(new DownloadException(MESSAGE, new ShellException(MESSAGE)))).isEmpty();
+        assertThat(NegativeCache.classify(new IllegalStateException())).isEmpty();
+    }
+
+    @Test
+    void ignoresInterruptedFailures() {
+        assertThat(NegativeCache.classify(new DownloadException(MESSAGE, Failure.NOT_FOUND,
+                new ShellException(MESSAGE, new InterruptedException())))).isEmpty();
+        assertThat(NegativeCache.classify(new DownloadException(MESSAGE, new InterruptedIOException()))).isEmpty();
+        assertThat(NegativeCache.classify(new DownloadException(MESSAGE, new ClosedByInterruptException()))).isEmpty();
+        assertThat(NegativeCache.classify(new CancellationException())).isEmpty();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import com.philips.research.licensescanner.core.domain.download.RegistryVcsHandler.Layout;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RegistryVcsHandlerTest extends VcsHandlerTestBase {
+    private static final URI REGISTRY = URI.create("https://registry.example.com/base/");
+    private static final String CONTENT = "License text";
+
+    @Test
+    void locatesNpmArchive() {
+        final var handler = new RegistryVcsHandler(Layout.NPM, REGISTRY, new AnonymousVcsHandler());
+
+        assertThat(handler.archive(URI.create("pkg:npm/name@1.2.3")))
+                .isEqualTo(URI.create("https://registry.example.com/base/name/-/name-1.2.3.tgz"));
+        assertThat(handler.archive(URI.create("pkg:npm/%40scope/name@1.2.3?key=value")))
+                .isEqualTo(URI.create("https://registry.example.com/base/@scope/name/-/name-1.2.3.tgz"));
+    }
+
+    @Test
+    void locatesPypiArchive() {
+        final var handler = new RegistryVcsHandler(Layout.PYPI, REGISTRY, new AnonymousVcsHandler());
+
+        assertThat(handler.archive(URI.create("pkg:pypi/django@4.1.0")))
+                .isEqualTo(URI.create("https://registry.example.com/base/d/django/django-4.1.0.tar.gz"));
+    }
+
+    @Test
+    void locatesMavenSourcesArchive() {
+        final var handler = new RegistryVcsHandler(Layout.MAVEN, REGISTRY, new AnonymousVcsHandler());
+
+        assertThat(handler.archive(URI.create("pkg:maven/org.example.group/artifact@1.0")))
+                .isEqualTo(URI.create("https://registry.example.com/base/org/example/group/artifact/1.0/artifact-1.0-sources.jar"));
+    }
+
+    @Test
+    void locatesCargoArchive() {
+        final var handler = new RegistryVcsHandler(Layout.CARGO, REGISTRY, new AnonymousVcsHandler());
+
+        assertThat(handler.archive(URI.create("pkg:cargo/serde@1.0.0")))
+                .isEqualTo(URI.create("https://registry.example.com/base/serde/serde-1.0.0.crate"));
+    }
+
+    @Test
+    void throws_packageWithoutVersion() {
+        final var handler = new RegistryVcsHandler(Layout.NPM, REGISTRY, new AnonymousVcsHandler());
+
+        assertThatThrownBy(() -> handler.archive(URI.create("pkg:npm/name")))
+                .isInstanceOf(DownloadException.class)
+                .hasMessageContaining("no version");
+    }
+
+    @Test
+    void downloadsArchiveFromRegistry() throws Exception {
+        final var registry = Files.createDirectories(tempDir.resolve("registry"));
+        final var archive = Files.createDirectories(registry.resolve("name").resolve("-")).resolve("name-1.0.tgz");
+        try (var tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(Files.newOutputStream(archive)))) {
+            final var entry = new TarArchiveEntry("package/LICENSE");
+            entry.setSize(CONTENT.length());
+            tar.putArchiveEntry(entry);
+            tar.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+            tar.closeArchiveEntry();
+        }
+        final var target = Files.createDirectories(tempDir.resolve("target"));
+        final var handler = new RegistryVcsHandler(Layout.NPM, registry.toUri(), new AnonymousVcsHandler());
+
+        final var dir = handler.download(target, URI.create("pkg:npm/name@1.0"));
+
+        assertThat(dir.resolve("package").resolve("LICENSE")).hasContent(CONTENT);
+        assertThat(handler.checksum(dir)).isNotEmpty();
+    }
+}
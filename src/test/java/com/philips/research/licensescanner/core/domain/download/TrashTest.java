@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.download;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrashTest {
+    private Path tempDir;
+    private Path trashDir;
+    private Trash trash;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        tempDir = Files.createTempDirectory("trash-");
+        trashDir = tempDir.resolve("trash");
+        trash = new Trash(trashDir);
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        FileSystemUtils.deleteRecursively(tempDir);
+    }
+
+    @Test
+    void movesContentIntoTrash() throws Exception {
+        final var directory = tree(tempDir.resolve("directory"));
+
+        final var moved = trash.move(directory);
+
+        assertThat(directory.toFile()).doesNotExist();
+        assertThat(moved.getParent()).isEqualTo(trashDir);
+        assertThat(moved.resolve("nested/file.txt").toFile()).exists();
+    }
+
+    @Test
+    void ignoresMissingContent() {
+        final var missing = tempDir.resolve("missing");
+
+        assertThat(trash.move(missing)).isEqualTo(missing);
+    }
+
+    @Test
+    void deletesDiscardedContentInBackground() throws Exception {
+        final var directory = tree(tempDir.resolve("directory"));
+
+        trash.discard(directory);
+        trash.flush();
+
+        assertThat(directory.toFile()).doesNotExist();
+        try (var content = Files.list(trashDir)) {
+            assertThat(content).isEmpty();
+        }
+    }
+
+    @Test
+    void deletesLeftoversAtStartup() throws Exception {
+        final var leftover = tree(trashDir.resolve("leftover"));
+
+        final var restarted = new Trash(trashDir);
+        restarted.flush();
+
+        assertThat(leftover.toFile()).doesNotExist();
+    }
+
+    private Path tree(Path directory) throws IOException {
+        final var nested = Files.createDirectories(directory.resolve("nested"));
+        Files.writeString(nested.resolve("file.txt"), "Content");
+        return directory;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.philips.research.licensescanner.core.domain.license;
+
+import com.philips.research.licensescanner.core.domain.Detection;
+import com.philips.research.licensescanner.core.domain.Scan;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FindingsTest {
+    private static final URI PURL = URI.create("pkg:package@version");
+    private static final License ROOT = License.of("Root");
+    private static final License SUB = License.of("Sub");
+    private static final License OTHER = License.of("Other");
+
+    private final Findings findings = new Findings()
+            .add(ROOT, 100, new File("LICENSE"), 1, 2)
+            .add(SUB, 90, new File("sub/path/COPYING"), 3, 4)
+            .add(OTHER, 80, new File("sub/pathological/LICENSE"), 5, 6);
+    private final Scan scan = new Scan(PURL, null);
+
+    @Test
+    void addsAllFindings() {
+        findings.addTo(scan);
+
+        assertThat(findings.size()).isEqualTo(3);
+        assertThat(scan.getDetections()).extracting(Detection::getLicense).containsExactlyInAnyOrder(ROOT, SUB, OTHER);
+    }
+
+    @Test
+    void addsFindingsInSubDirectory() {
+        findings.addTo(scan, "/sub/path/");
+
+        assertThat(scan.getDetections()).hasSize(1);
+        final var detection = scan.getDetections().get(0);
+        assertThat(detection.getLicense()).isEqualTo(SUB);
+        assertThat(detection.getFilePath()).isEqualTo(new File("COPYING"));
+        assertThat(detection.getScore()).isEqualTo(90);
+        assertThat(detection.getStartLine()).isEqualTo(3);
+        assertThat(detection.getEndLine()).isEqualTo(4);
+    }
+
+    @Test
+    void addsNothing_unknownSubDirectory() {
+        findings.addTo(scan, "unknown");
+
+        assertThat(scan.getDetections()).isEmpty();
+    }
+}
@@ -16,6 +16,7 @@ import org.springframework.util.FileSystemUtils;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -43,8 +44,9 @@ class ScanCodeDetectorTest {
 
     @Test
     void ScansDownloadedDirectory() {
-        detector.scan(tempDir, scan, THRESHOLD);
+        detector.detect(tempDir, THRESHOLD, 2, Duration.ofMinutes(5)).addTo(scan);
 
         assertThat(scan.getDetections()).isNotEmpty();
+        assertThat(tempDir.resolve("scancode.json")).doesNotExist();
     }
 }
@@ -5,24 +5,44 @@
 
 package com.philips.research.licensescanner.persistence;
 
+import com.philips.research.licensescanner.core.LicenseService.Priority;
+import com.philips.research.licensescanner.core.domain.Job;
+import com.philips.research.licensescanner.core.domain.Scan;
 import com.philips.research.licensescanner.core.domain.license.License;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.tlinkowski.annotation.basic.NullOr;
 
 import java.io.File;
 import java.net.URI;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 
 @ExtendWith(SpringExtension.class)
 @ComponentScan(basePackageClasses = {PersistentDatabase.class})
 @DataJpaTest
 class PersistentDatabaseTest {
+    private static final String REVISION = "0123456789abcdef0123456789abcdef01234567";
     private static final URI PURL = URI.create("pkg:package@version");
     private static final URI PURL2 = URI.create("pkg:package2@version");
     private static final URI PURL3 = URI.create("pkg:package3@version");
@@ -40,18 +60,42 @@ class PersistentDatabaseTest {
     @Autowired
     ScanRepository scanRepository;
 
+    @Autowired
+    JobRepository jobRepository;
+
+    private Scan createScan(URI purl, @NullOr URI location) {
+        return scanRepository.save(new ScanEntity(purl, location));
+    }
+
     @Test
     void findScanByPurl() {
-        final var scan = database.createScan(PURL, LOCATION);
+        final var scan = createScan(PURL, LOCATION);
 
         assertThat(database.getScan(PURL)).contains(scan);
     }
 
+    @Test
+    void storesDetachedScan() {
+        final var scan = new Scan(PURL, LOCATION)
+                .setRevision(REVISION)
+                .setSource(PURL)
+                .addDetection(LICENSE, SCORE, new File("LICENSE"), START_LINE, END_LINE);
+
+        final var stored = database.storeScan(scan);
+
+        assertThat(database.getScan(PURL)).contains(stored);
+        assertThat(stored.getLocation()).contains(LOCATION);
+        assertThat(database.getScan(PURL).orElseThrow().getRevision()).contains(REVISION);
+        assertThat(database.getScan(PURL).orElseThrow().getSource()).contains(PURL);
+        assertThat(stored.getLicense()).isEqualTo(LICENSE);
+        assertThat(stored.getDetections()).hasSize(1);
+    }
+
     @Test
     void findsFilteredScanResults() {
-        final var scan1 = database.createScan(URI.create("pkg:namespace/filter@version"), null);
-        final var scan2 = database.createScan(URI.create("pkg:namespace/other@version"), null);
-        final var scan3 = database.createScan(URI.create("pkg:namespace/filter@other"), null);
+        final var scan1 = createScan(URI.create("pkg:namespace/filter@version"), null);
+        final var scan2 = createScan(URI.create("pkg:namespace/other@version"), null);
+        final var scan3 = createScan(URI.create("pkg:namespace/filter@other"), null);
 
         assertThat(database.findScans("duh", "", "")).isEmpty();
         assertThat(database.findScans("", "", "oth")).containsExactly(scan3);
@@ -62,8 +106,8 @@ class PersistentDatabaseTest {
 
     @Test
     void findsScanErrors() {
-        final var good = database.createScan(PURL, LOCATION);
-        final var scan = database.createScan(PURL, LOCATION).setError("Error");
+        final var good = createScan(PURL, LOCATION);
+        final var scan = createScan(PURL, LOCATION).setError("Error");
         scanRepository.save((ScanEntity) good);
         scanRepository.save((ScanEntity) scan);
 
@@ -75,8 +119,8 @@ class PersistentDatabaseTest {
 
     @Test
     void findsContestedScans() {
-        final var normal = database.createScan(PURL, LOCATION);
-        final var scan = database.createScan(PURL, LOCATION).contest(LICENSE);
+        final var normal = createScan(PURL, LOCATION);
+        final var scan = createScan(PURL, LOCATION).contest(LICENSE);
         scanRepository.save((ScanEntity) normal);
         scanRepository.save((ScanEntity) scan);
 
@@ -88,14 +132,14 @@ class PersistentDatabaseTest {
 
     @Test
     void findsLatestScanResultsForPeriod() {
-        database.createScan(PURL2, LOCATION);
-        database.createScan(PURL, LOCATION);
+        createScan(PURL2, LOCATION);
+        createScan(PURL, LOCATION);
         final var from = Instant.now();
-        database.createScan(PURL2, LOCATION);
-        database.createScan(PURL, LOCATION);
+        createScan(PURL2, LOCATION);
+        createScan(PURL, LOCATION);
         final var until = Instant.now();
-        database.createScan(PURL, LOCATION);
-        database.createScan(PURL2, LOCATION);
+        createScan(PURL, LOCATION);
+        createScan(PURL2, LOCATION);
 
         final var scans = database.findScans(from, until);
 
@@ -105,9 +149,9 @@ class PersistentDatabaseTest {
 
     @Test
     void countsNumberOfDetectedLicenses() {
-        database.createScan(PURL, LOCATION).setError("Error!");
-        database.createScan(PURL2, LOCATION).confirm(LICENSE);
-        database.createScan(PURL3, LOCATION).confirm(LICENSE);
+        createScan(PURL, LOCATION).setError("Error!");
+        createScan(PURL2, LOCATION).confirm(LICENSE);
+        createScan(PURL3, LOCATION).confirm(LICENSE);
 
         final var count = database.countLicenses();
 
@@ -116,9 +160,9 @@ class PersistentDatabaseTest {
 
     @Test
     void countsNumberOfScanningErrors() {
-        database.createScan(PURL, LOCATION).confirm(LICENSE);
-        database.createScan(PURL2, LOCATION).setError("Error!");
-        database.createScan(PURL3, LOCATION).setError("Error!");
+        createScan(PURL, LOCATION).confirm(LICENSE);
+        createScan(PURL2, LOCATION).setError("Error!");
+        createScan(PURL3, LOCATION).setError("Error!");
 
         final var count = database.countErrors();
 
@@ -127,13 +171,216 @@ class PersistentDatabaseTest {
 
     @Test
     void countsNumberOfContestedLicenses() {
-        database.createScan(PURL, LOCATION).setError("Error");
-        database.createScan(PURL2, LOCATION).confirm(LICENSE);
-        database.createScan(PURL3, LOCATION).contest(LICENSE);
-        database.createScan(PURL4, LOCATION).contest(LICENSE);
+        createScan(PURL, LOCATION).setError("Error");
+        createScan(PURL2, LOCATION).confirm(LICENSE);
+        createScan(PURL3, LOCATION).contest(LICENSE);
+        createScan(PURL4, LOCATION).contest(LICENSE);
 
         final var count = database.countContested();
 
         assertThat(count).isEqualTo(2);
     }
+
+    @Test
+    void claimsQueuedJobsInOrder() {
+        final var first = database.queueJob(PURL, LOCATION, null, Priority.NORMAL);
+        final var second = database.queueJob(PURL2, LOCATION, null, Priority.NORMAL);
+        database.queueJob(PURL3, LOCATION, null, Priority.NORMAL);
+
+        final var jobs = database.claimJobs(Priority.NORMAL, 2, Set.of());
+
+        assertThat(jobs).extracting(Job::getPurl).containsExactly(first.getPurl(), second.getPurl());
+        assertThat(jobs).allSatisfy(job -> {
+            assertThat(job.getState()).isEqualTo(Job.State.RUNNING);
+            assertThat(job.getAttempts()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void claimsJobsByPriority() {
+        database.queueJob(PURL, LOCATION, null, Priority.BULK);
+        database.queueJob(PURL2, LOCATION, null, Priority.INTERACTIVE);
+
+        final var jobs = database.claimJobs(Priority.INTERACTIVE, 2, Set.of());
+
+        assertThat(jobs).extracting(Job::getPurl).containsExactly(PURL2);
+    }
+
+    @Test
+    void claimsJobsForPreferredLocationsFirst() {
+        database.queueJob(PURL, LOCATION, null, Priority.NORMAL);
+        database.queueJob(PURL2, URI.create("git+http://other.com"), null, Priority.NORMAL);
+        database.queueJob(PURL3, URI.create("git+http://other.com#sub/path"), null, Priority.NORMAL);
+
+        final var jobs = database.claimJobs(Priority.NORMAL, 1, Set.of(URI.create("git+http://other.com")));
+
+        assertThat(jobs).extracting(Job::getPurl).containsExactly(PURL2);
+        assertThat(database.claimJobs(Priority.NORMAL, 3, Set.of(URI.create("git+http://other.com"))))
+                .extracting(Job::getPurl).containsExactlyInAnyOrder(PURL, PURL3);
+    }
+
+    @Test
+    void findsOldestQueuedJobPerPriority() {
+        final var first = database.queueJob(PURL, LOCATION, null, Priority.BULK);
+        database.queueJob(PURL2, LOCATION, null, Priority.BULK);
+        final var interactive = database.queueJob(PURL3, LOCATION, null, Priority.INTERACTIVE);
+        database.queueJob(PURL4, LOCATION, null, Priority.NORMAL);
+        database.claimJobs(Priority.NORMAL, 1, Set.of());
+
+        final var oldest = database.oldestQueuedJobs();
+
+        assertThat(oldest).containsOnlyKeys(Priority.BULK, Priority.INTERACTIVE);
+        assertThat(oldest.get(Priority.BULK)).isCloseTo(first.getCreated(), within(1, ChronoUnit.MILLIS));
+        assertThat(oldest.get(Priority.INTERACTIVE)).isCloseTo(interactive.getCreated(), within(1, ChronoUnit.MILLIS));
+    }
+
+    @Test
+    void peeksQueuedJobsByPriority() {
+        database.queueJob(PURL, LOCATION, null, Priority.BULK);
+        database.queueJob(PURL2, LOCATION, null, Priority.NORMAL);
+        database.queueJob(PURL3, LOCATION, null, Priority.INTERACTIVE);
+        database.queueJob(PURL4, LOCATION, null, Priority.NORMAL);
+        database.claimJobs(Priority.INTERACTIVE, 1, Set.of());
+
+        final var jobs = database.peekJobs(2);
+
+        assertThat(jobs).extracting(Job::getPurl).containsExactly(PURL2, PURL4);
+        assertThat(jobs).allSatisfy(job -> assertThat(job.getState()).isEqualTo(Job.State.QUEUED));
+    }
+
+    @Test
+    void skipsClaimedJobs() {
+        database.queueJob(PURL, LOCATION, null, Priority.NORMAL);
+        database.claimJobs(Priority.NORMAL, 1, Set.of());
+
+        assertThat(database.claimJobs(Priority.NORMAL, 1, Set.of())).isEmpty();
+    }
+
+    @Test
+    void requeuesRunningJobs() {
+        database.queueJob(PURL, LOCATION, null, Priority.NORMAL);
+        database.claimJobs(Priority.NORMAL, 1, Set.of());
+
+        assertThat(database.requeueRunningJobs()).isEqualTo(1);
+        assertThat(database.claimJobs(Priority.NORMAL, 1, Set.of())).hasSize(1);
+    }
+
+    @Test
+    void updatesJob() {
+        database.queueJob(PURL, LOCATION, null, Priority.NORMAL);
+        final var job = database.claimJobs(Priority.NORMAL, 1, Set.of()).get(0);
+
+        database.updateJob(job.finish());
+
+        assertThat(database.requeueRunningJobs()).isZero();
+        assertThat(database.claimJobs(Priority.NORMAL, 1, Set.of())).isEmpty();
+    }
+
+    @Test
+    void keepsConcurrentChangesOfUpdatedJob() {
+        database.queueJob(PURL, LOCATION, null, Priority.BULK);
+        final var job = database.claimJobs(Priority.BULK, 1, Set.of()).get(0);
+        database.queueJob(PURL, LOCATION, null, Priority.INTERACTIVE);
+
+        database.updateJob(job.finish());
+
+        final var stored = jobRepository.findByPurl(PURL).orElseThrow();
+        assertThat(stored.getState()).isEqualTo(Job.State.DONE);
+        assertThat(stored.getPriority()).isEqualTo(Priority.INTERACTIVE);
+    }
+
+    @Nested
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    class ConcurrentSubmissions {
+        private final JobRepository interleaved = mock(JobRepository.class, delegatesTo(jobRepository));
+        @Autowired
+        ScanRepository scanRepository;
+        @Autowired
+        DetectionRepository detectionRepository;
+        @Autowired
+        PlatformTransactionManager transactionManager;
+
+        @AfterEach
+        void afterEach() {
+            jobRepository.deleteAll();
+        }
+
+        /**
+         * Submits a duplicate job, running the action in another transaction right after the job was read.
+         */
+        private void queueJobInterleavedWith(Runnable action) {
+            doAnswer(invocation -> {
+                final var job = jobRepository.findByPurl(PURL);
+                CompletableFuture.runAsync(action).get();
+                return job;
+            }).when(interleaved).findByPurl(PURL);
+            final var store = new PersistentDatabase(scanRepository, detectionRepository, interleaved);
+            new TransactionTemplate(transactionManager)
+                    .execute(status -> store.queueJob(PURL, LOCATION, null, Priority.INTERACTIVE));
+        }
+
+        @Test
+        void keepsClaimOfJobDuringDuplicateSubmission() {
+            database.queueJob(PURL, LOCATION, null, Priority.BULK);
+
+            queueJobInterleavedWith(() -> database.claimJobs(Priority.BULK, 1, Set.of()));
+
+            final var stored = jobRepository.findAll().get(0);
+            assertThat(stored.getState()).isEqualTo(Job.State.RUNNING);
+            assertThat(stored.getPriority()).isEqualTo(Priority.INTERACTIVE);
+        }
+
+        @Test
+        void keepsCompletionOfJobDuringDuplicateSubmission() {
+            database.queueJob(PURL, LOCATION, null, Priority.BULK);
+            final var job = database.claimJobs(Priority.BULK, 1, Set.of()).get(0);
+
+            queueJobInterleavedWith(() -> database.updateJob(job.finish()));
+
+            final var stored = jobRepository.findAll().get(0);
+            assertThat(stored.getState()).isEqualTo(Job.State.DONE);
+            assertThat(stored.getPriority()).isEqualTo(Priority.INTERACTIVE);
+        }
+    }
+
+    @Test
+    void queuesJobWithChecksum() {
+        final var checksum = "ab".repeat(32);
+        database.queueJob(PURL, LOCATION, checksum, Priority.NORMAL);
+
+        final var job = database.claimJobs(Priority.NORMAL, 1, Set.of()).get(0);
+
+        assertThat(job.getChecksum()).contains(checksum);
+    }
+
+    @Test
+    void attachesToActiveJob() {
+        final var job = database.queueJob(PURL, LOCATION, null, Priority.NORMAL);
+
+        final var duplicate = database.queueJob(PURL, null, null, Priority.INTERACTIVE);
+
+        assertThat(((JobEntity) duplicate).getId()).isEqualTo(((JobEntity) job).getId());
+        assertThat(duplicate.getPriority()).isEqualTo(Priority.INTERACTIVE);
+        assertThat(jobRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void resubmitsFinishedJob() {
+        database.queueJob(PURL, LOCATION, null, Priority.NORMAL);
+        database.updateJob(database.claimJobs(Priority.NORMAL, 1, Set.of()).get(0).finish());
+
+        final var job = database.queueJob(PURL, null, null, Priority.NORMAL);
+
+        assertThat(job.getState()).isEqualTo(Job.State.QUEUED);
+        assertThat(job.getLocation()).isEmpty();
+        assertThat(jobRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsDuplicateJobs() {
+        jobRepository.saveAndFlush(new JobEntity(PURL, LOCATION, Priority.NORMAL));
+
+        assertThatThrownBy(() -> jobRepository.saveAndFlush(new JobEntity(PURL, LOCATION, Priority.NORMAL)))
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2020-2021, Koninklijke Philips N.V., https://www.philips.com
+ * SPDX-License-Identifier: MIT
+ */
+
+package db.migration;
+
+import org.flywaydb.core.api.migration.Context;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class V9__Normalize_job_base_locationTest {
+    private final Context context = mock(Context.class);
+    @SuppressWarnings("NotNullFieldNotInitialized")
+    private Connection connection;
+
+    @BeforeEach
+    void beforeEach() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:migration");
+        try (var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE jobs (id BIGINT, location CLOB, base_location VARCHAR(2048))");
+            statement.execute("INSERT INTO jobs VALUES (1, 'git+ssh://git@GitHub.com/owner/repo.git#/sub/', NULL)");
+            statement.execute("INSERT INTO jobs VALUES (2, NULL, NULL)");
+            statement.execute("INSERT INTO jobs VALUES (3, 'HTTPS://Example.com:443/a/./b/../file%2etgz#x', NULL)");
+            statement.execute("INSERT INTO jobs VALUES (4, 'git+ssh://git@git.example.com:22/repo.git@v1#sub', NULL)");
+        }
+        when(context.getConnection()).thenReturn(connection);
+    }
+
+    @AfterEach
+    void afterEach() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void normalizesBaseLocationsOfJobs() throws Exception {
+        new V9__Normalize_job_base_location().migrate(context);
+
+        try (var statement = connection.createStatement();
+             var rows = statement.executeQuery("SELECT id, base_location FROM jobs ORDER BY id")) {
+            assertThat(rows.next()).isTrue();
+            assertThat(rows.getString("base_location")).isEqualTo("git+https://github.com/owner/repo");
+            assertThat(rows.next()).isTrue();
+            assertThat(rows.getString("base_location")).isNull();
+            assertThat(rows.next()).isTrue();
+            assertThat(rows.getString("base_location")).isEqualTo("https://example.com/a/file.tgz");
+            assertThat(rows.next()).isTrue();
+            assertThat(rows.getString("base_location")).isEqualTo("git+ssh://git@git.example.com/repo.git@v1");
+        }
+    }
+}